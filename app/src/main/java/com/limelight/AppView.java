@@ -1,22 +1,21 @@
 package com.limelight;
 
 import java.io.IOException;
-import java.io.StringReader;
 import java.util.HashSet;
 import java.util.List;
 
 import com.limelight.computers.ComputerManagerListener;
 import com.limelight.computers.ComputerManagerService;
 import com.limelight.grid.AppGridAdapter;
+import com.limelight.grid.AppListDiffer;
 import com.limelight.nvstream.http.ComputerDetails;
 import com.limelight.nvstream.http.NvApp;
-import com.limelight.nvstream.http.NvHTTP;
 import com.limelight.nvstream.http.PairingManager;
 import com.limelight.preferences.PreferenceConfiguration;
 import com.limelight.ui.AdapterFragment;
 import com.limelight.ui.AdapterFragmentCallbacks;
 import com.limelight.utils.QuickLaunchManager;
-import com.limelight.utils.CacheHelper;
+import com.limelight.utils.AppListCache;
 import com.limelight.utils.Dialog;
 import com.limelight.utils.ServerHelper;
 import com.limelight.utils.ShortcutHelper;
@@ -52,6 +51,7 @@ import org.xmlpull.v1.XmlPullParserException;
 
 public class AppView extends Activity implements AdapterFragmentCallbacks {
     private AppGridAdapter appGridAdapter;
+    private final Object appListUpdateLock = new Object();
     private String uuidString;
     private ShortcutHelper shortcutHelper;
     private QuickLaunchManager quickLaunchManager;
@@ -252,7 +252,8 @@ public class AppView extends Activity implements AdapterFragmentCallbacks {
                 lastRawApplist = details.rawAppList;
 
                 try {
-                    updateUiWithAppList(NvHTTP.getAppListByReader(new StringReader(details.rawAppList)));
+                    // This was already parsed by the app list poller, so this comes from the cache
+                    updateUiWithAppList(AppListCache.getParsedAppList(details.rawAppList));
                     updateUiWithServerinfo(details);
 
                     if (blockingLoadSpinner != null) {
@@ -344,8 +345,8 @@ public class AppView extends Activity implements AdapterFragmentCallbacks {
     private void populateAppGridWithCache() {
         try {
             // Try to load from cache
-            lastRawApplist = CacheHelper.readInputStreamToString(CacheHelper.openCacheFileForInput(getCacheDir(), "applist", uuidString));
-            List<NvApp> applist = NvHTTP.getAppListByReader(new StringReader(lastRawApplist));
+            lastRawApplist = AppListCache.readCachedAppList(getCacheDir(), uuidString);
+            List<NvApp> applist = AppListCache.getParsedAppList(lastRawApplist);
             updateUiWithAppList(applist);
             LimeLog.info("Loaded applist from cache");
         } catch (IOException | XmlPullParserException e) {
@@ -576,77 +577,39 @@ public class AppView extends Activity implements AdapterFragmentCallbacks {
     }
 
     private void updateUiWithAppList(final List<NvApp> appList) {
-        AppView.this.runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                boolean updated = false;
-
-                // First handle app updates and additions
-                for (NvApp app : appList) {
-                    boolean foundExistingApp = false;
-
-                    // Try to update an existing app in the list first
-                    for (int i = 0; i < appGridAdapter.getCount(); i++) {
-                        AppObject existingApp = (AppObject) appGridAdapter.getItem(i);
-                        if (existingApp.app.getAppId() == app.getAppId()) {
-                            // Found the app; update its properties
-                            if (!existingApp.app.getAppName().equals(app.getAppName())) {
-                                existingApp.app.setAppName(app.getAppName());
-                                updated = true;
-                            }
+        // Diff the new list against the current one on this thread, so the UI thread only
+        // needs to merge in the changes. The lock ensures changes from concurrent callers
+        // are posted to the UI thread in the same order that they were computed.
+        synchronized (appListUpdateLock) {
+            final AppListDiffer.Changes changes = appGridAdapter.diffAppList(appList);
+            if (changes.isEmpty()) {
+                return;
+            }
 
-                            foundExistingApp = true;
-                            break;
-                        }
+            AppView.this.runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    List<AppObject> removedApps = appGridAdapter.applyAppListChanges(changes);
+                    if (removedApps == null) {
+                        // The adapter was cleared after these changes were computed
+                        return;
                     }
 
-                    if (!foundExistingApp) {
-                        // This app must be new
-                        appGridAdapter.addApp(new AppObject(app));
-
-                        // We could have a leftover shortcut from last time this PC was paired
-                        // or if this app was removed then added again. Enable those shortcuts
-                        // again if present.
+                    // We could have a leftover shortcut from last time this PC was paired
+                    // or if this app was removed then added again. Enable those shortcuts
+                    // again if present.
+                    for (NvApp app : changes.getAddedApps()) {
                         shortcutHelper.enableAppShortcut(computer, app);
-
-                        updated = true;
                     }
-                }
-
-                // Next handle app removals
-                int i = 0;
-                while (i < appGridAdapter.getCount()) {
-                    boolean foundExistingApp = false;
-                    AppObject existingApp = (AppObject) appGridAdapter.getItem(i);
-
-                    // Check if this app is in the latest list
-                    for (NvApp app : appList) {
-                        if (existingApp.app.getAppId() == app.getAppId()) {
-                            foundExistingApp = true;
-                            break;
-                        }
-                    }
-
-                    // This app was removed in the latest app list
-                    if (!foundExistingApp) {
-                        shortcutHelper.disableAppShortcut(computer, existingApp.app, "App removed from PC");
-                        appGridAdapter.removeApp(existingApp);
-                        updated = true;
 
-                        // Check this same index again because the item at i+1 is now at i after
-                        // the removal
-                        continue;
+                    for (AppObject app : removedApps) {
+                        shortcutHelper.disableAppShortcut(computer, app.app, "App removed from PC");
                     }
 
-                    // Move on to the next item
-                    i++;
-                }
-
-                if (updated) {
                     appGridAdapter.notifyDataSetChanged();
                 }
-            }
-        });
+            });
+        }
     }
 
     @Override
@@ -3,6 +3,7 @@ package com.limelight;
 
 import com.limelight.binding.PlatformBinding;
 import com.limelight.binding.audio.AndroidAudioRenderer;
+import com.limelight.binding.audio.NativeAudioRenderer;
 import com.limelight.binding.input.ControllerHandler;
 import com.limelight.binding.input.KeyboardTranslator;
 import com.limelight.binding.input.capture.InputCaptureManager;
@@ -14,18 +15,21 @@ import com.limelight.binding.input.evdev.EvdevListener;
 import com.limelight.binding.input.touch.TouchContext;
 import com.limelight.binding.input.virtual_controller.VirtualController;
 import com.limelight.binding.video.CrashListener;
+import com.limelight.binding.video.FrameTraceRecorder;
 import com.limelight.binding.video.MediaCodecDecoderRenderer;
 import com.limelight.binding.video.MediaCodecHelper;
 import com.limelight.binding.video.PerfOverlayListener;
 import com.limelight.nvstream.NvConnection;
 import com.limelight.nvstream.NvConnectionListener;
 import com.limelight.nvstream.StreamConfiguration;
+import com.limelight.nvstream.av.audio.AudioRenderer;
 import com.limelight.nvstream.http.ComputerDetails;
 import com.limelight.nvstream.http.NvApp;
 import com.limelight.nvstream.http.NvHTTP;
 import com.limelight.nvstream.input.ControllerPacket;
 import com.limelight.nvstream.input.KeyboardPacket;
 import com.limelight.nvstream.input.MouseButtonPacket;
+import com.limelight.nvstream.input.TouchEventBatch;
 import com.limelight.nvstream.jni.MoonBridge;
 import com.limelight.preferences.AppPreferences;
 import com.limelight.preferences.GlPreferences;
@@ -81,6 +85,8 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.security.cert.CertificateException;
@@ -110,6 +116,12 @@ public class Game extends Activity implements SurfaceHolder.Callback,
 
     private static final int THREE_FINGER_TAP_THRESHOLD = 300;
 
+    // Passed as the history position to use the current sample of a MotionEvent
+    private static final int CURRENT_SAMPLE = -1;
+
+    // Reused for every touch and pen event to avoid allocations
+    private final TouchEventBatch touchEventBatch = new TouchEventBatch();
+
     private ControllerHandler controllerHandler;
     private KeyboardTranslator keyboardTranslator;
     private VirtualController virtualController;
@@ -489,6 +501,8 @@ public class Game extends Activity implements SurfaceHolder.Callback,
                 .setColorSpace(decoderRenderer.getPreferredColorSpace())
                 .setColorRange(decoderRenderer.getPreferredColorRange())
                 .setPersistGamepadsAfterDisconnect(!prefConfig.multiController)
+                .setMouseMotionFlushRate(prefConfig.mouseMotionFlushRate == PreferenceConfiguration.MOUSE_MOTION_FLUSH_RATE_STREAM_FPS ?
+                        chosenFrameRate : prefConfig.mouseMotionFlushRate)
                 .build();
 
         // Initialize the connection
@@ -785,9 +799,12 @@ public class Game extends Activity implements SurfaceHolder.Callback,
     }
 
     private boolean mayReduceRefreshRate() {
+        // Adaptive pacing renders on the Choreographer like balanced mode, so it follows the
+        // same opt-in. A refresh rate matching the stream lets it settle on a shallower queue.
         return prefConfig.framePacing == PreferenceConfiguration.FRAME_PACING_CAP_FPS ||
                 prefConfig.framePacing == PreferenceConfiguration.FRAME_PACING_MAX_SMOOTHNESS ||
-                (prefConfig.framePacing == PreferenceConfiguration.FRAME_PACING_BALANCED && prefConfig.reduceRefreshRate);
+                ((prefConfig.framePacing == PreferenceConfiguration.FRAME_PACING_BALANCED ||
+                        prefConfig.framePacing == PreferenceConfiguration.FRAME_PACING_ADAPTIVE) && prefConfig.reduceRefreshRate);
     }
 
     private float prepareDisplayForRendering() {
@@ -1536,9 +1553,19 @@ public class Game extends Activity implements SurfaceHolder.Callback,
         }
     }
 
-    private float[] getStreamViewRelativeNormalizedXY(View view, MotionEvent event, int pointerIndex) {
-        float normalizedX = event.getX(pointerIndex);
-        float normalizedY = event.getY(pointerIndex);
+    // Returns the value of the axis for the historical sample, or the current sample if historyPos is CURRENT_SAMPLE
+    private static float getAxisValue(MotionEvent event, int axis, int pointerIndex, int historyPos) {
+        if (historyPos == CURRENT_SAMPLE) {
+            return event.getAxisValue(axis, pointerIndex);
+        }
+        else {
+            return event.getHistoricalAxisValue(axis, pointerIndex, historyPos);
+        }
+    }
+
+    private float[] getStreamViewRelativeNormalizedXY(View view, MotionEvent event, int pointerIndex, int historyPos) {
+        float normalizedX = getAxisValue(event, MotionEvent.AXIS_X, pointerIndex, historyPos);
+        float normalizedY = getAxisValue(event, MotionEvent.AXIS_Y, pointerIndex, historyPos);
 
         // For the containing background view, we must subtract the origin
         // of the StreamView to get video-relative coordinates.
@@ -1563,7 +1590,7 @@ public class Game extends Activity implements SurfaceHolder.Callback,
         return (value - range.getMin()) / range.getRange();
     }
 
-    private static float getPressureOrDistance(MotionEvent event, int pointerIndex) {
+    private static float getPressureOrDistance(MotionEvent event, int pointerIndex, int historyPos) {
         InputDevice dev = event.getDevice();
         switch (event.getActionMasked()) {
             case MotionEvent.ACTION_HOVER_ENTER:
@@ -1573,22 +1600,22 @@ public class Game extends Activity implements SurfaceHolder.Callback,
                 if (dev != null) {
                     InputDevice.MotionRange distanceRange = dev.getMotionRange(MotionEvent.AXIS_DISTANCE, event.getSource());
                     if (distanceRange != null) {
-                        return normalizeValueInRange(event.getAxisValue(MotionEvent.AXIS_DISTANCE, pointerIndex), distanceRange);
+                        return normalizeValueInRange(getAxisValue(event, MotionEvent.AXIS_DISTANCE, pointerIndex, historyPos), distanceRange);
                     }
                 }
                 return 0.0f;
 
             default:
                 // Other events report pressure
-                return event.getPressure(pointerIndex);
+                return getAxisValue(event, MotionEvent.AXIS_PRESSURE, pointerIndex, historyPos);
         }
     }
 
-    private static short getRotationDegrees(MotionEvent event, int pointerIndex) {
+    private static short getRotationDegrees(MotionEvent event, int pointerIndex, int historyPos) {
         InputDevice dev = event.getDevice();
         if (dev != null) {
             if (dev.getMotionRange(MotionEvent.AXIS_ORIENTATION, event.getSource()) != null) {
-                short rotationDegrees = (short) Math.toDegrees(event.getOrientation(pointerIndex));
+                short rotationDegrees = (short) Math.toDegrees(getAxisValue(event, MotionEvent.AXIS_ORIENTATION, pointerIndex, historyPos));
                 if (rotationDegrees < 0) {
                     rotationDegrees += 360;
                 }
@@ -1606,7 +1633,7 @@ public class Game extends Activity implements SurfaceHolder.Callback,
         return (float)Math.sqrt(Math.pow(point[0], 2) + Math.pow(point[1], 2));
     }
 
-    private float[] getStreamViewNormalizedContactArea(MotionEvent event, int pointerIndex) {
+    private float[] getStreamViewNormalizedContactArea(MotionEvent event, int pointerIndex, int historyPos) {
         float orientation;
 
         // If the orientation is unknown, we'll just assume it's at a 45 degree angle and scale it by
@@ -1615,7 +1642,7 @@ public class Game extends Activity implements SurfaceHolder.Callback,
             orientation = (float)(Math.PI / 4);
         }
         else {
-            orientation = event.getOrientation(pointerIndex);
+            orientation = getAxisValue(event, MotionEvent.AXIS_ORIENTATION, pointerIndex, historyPos);
         }
 
         float contactAreaMajor, contactAreaMinor;
@@ -1624,14 +1651,14 @@ public class Game extends Activity implements SurfaceHolder.Callback,
             case MotionEvent.ACTION_HOVER_ENTER:
             case MotionEvent.ACTION_HOVER_MOVE:
             case MotionEvent.ACTION_HOVER_EXIT:
-                contactAreaMajor = event.getToolMajor(pointerIndex);
-                contactAreaMinor = event.getToolMinor(pointerIndex);
+                contactAreaMajor = getAxisValue(event, MotionEvent.AXIS_TOOL_MAJOR, pointerIndex, historyPos);
+                contactAreaMinor = getAxisValue(event, MotionEvent.AXIS_TOOL_MINOR, pointerIndex, historyPos);
                 break;
 
             // Other events report contact area
             default:
-                contactAreaMajor = event.getTouchMajor(pointerIndex);
-                contactAreaMinor = event.getTouchMinor(pointerIndex);
+                contactAreaMajor = getAxisValue(event, MotionEvent.AXIS_TOUCH_MAJOR, pointerIndex, historyPos);
+                contactAreaMinor = getAxisValue(event, MotionEvent.AXIS_TOUCH_MINOR, pointerIndex, historyPos);
                 break;
         }
 
@@ -1653,7 +1680,7 @@ public class Game extends Activity implements SurfaceHolder.Callback,
         return new float[] { cartesianToR(contactAreaMajorCartesian), cartesianToR(contactAreaMinorCartesian) };
     }
 
-    private boolean sendPenEventForPointer(View view, MotionEvent event, byte eventType, byte toolType, int pointerIndex) {
+    private void addPenSampleForPointer(View view, MotionEvent event, byte eventType, byte toolType, int pointerIndex, int historyPos) {
         byte penButtons = 0;
         if ((event.getButtonState() & MotionEvent.BUTTON_STYLUS_PRIMARY) != 0) {
             penButtons |= MoonBridge.LI_PEN_BUTTON_PRIMARY;
@@ -1666,17 +1693,23 @@ public class Game extends Activity implements SurfaceHolder.Callback,
         InputDevice dev = event.getDevice();
         if (dev != null) {
             if (dev.getMotionRange(MotionEvent.AXIS_TILT, event.getSource()) != null) {
-                tiltDegrees = (byte)Math.toDegrees(event.getAxisValue(MotionEvent.AXIS_TILT, pointerIndex));
+                tiltDegrees = (byte)Math.toDegrees(getAxisValue(event, MotionEvent.AXIS_TILT, pointerIndex, historyPos));
             }
         }
 
-        float[] normalizedCoords = getStreamViewRelativeNormalizedXY(view, event, pointerIndex);
-        float[] normalizedContactArea = getStreamViewNormalizedContactArea(event, pointerIndex);
-        return conn.sendPenEvent(eventType, toolType, penButtons,
+        float[] normalizedCoords = getStreamViewRelativeNormalizedXY(view, event, pointerIndex, historyPos);
+        float[] normalizedContactArea = getStreamViewNormalizedContactArea(event, pointerIndex, historyPos);
+        touchEventBatch.addPenSample(eventType, toolType, penButtons,
                 normalizedCoords[0], normalizedCoords[1],
-                getPressureOrDistance(event, pointerIndex),
+                getPressureOrDistance(event, pointerIndex, historyPos),
                 normalizedContactArea[0], normalizedContactArea[1],
-                getRotationDegrees(event, pointerIndex), tiltDegrees) != MoonBridge.LI_ERR_UNSUPPORTED;
+                getRotationDegrees(event, pointerIndex, historyPos), tiltDegrees);
+    }
+
+    // Returns the number of historical samples in the event that should be sent before the current one
+    private int getHistorySizeToSend(MotionEvent event) {
+        // Only move events have historical samples
+        return prefConfig.sendTouchHistory ? event.getHistorySize() : 0;
     }
 
     private static byte convertToolTypeToStylusToolType(MotionEvent event, int pointerIndex) {
@@ -1699,23 +1732,31 @@ public class Game extends Activity implements SurfaceHolder.Callback,
         if (event.getActionMasked() == MotionEvent.ACTION_MOVE) {
             // Move events may impact all active pointers
             boolean handledStylusEvent = false;
-            for (int i = 0; i < event.getPointerCount(); i++) {
-                byte toolType = convertToolTypeToStylusToolType(event, i);
-                if (toolType == MoonBridge.LI_TOOL_TYPE_UNKNOWN) {
-                    // Not a stylus pointer, so skip it
-                    continue;
-                }
-                else {
-                    // This pointer is a stylus, so we'll report that we handled this event
-                    handledStylusEvent = true;
-                }
+            int historySize = getHistorySizeToSend(event);
+            touchEventBatch.clear();
+            for (int h = 0; h <= historySize; h++) {
+                // Historical samples are oldest first and the current sample comes last
+                int historyPos = h < historySize ? h : CURRENT_SAMPLE;
+                for (int i = 0; i < event.getPointerCount(); i++) {
+                    byte toolType = convertToolTypeToStylusToolType(event, i);
+                    if (toolType == MoonBridge.LI_TOOL_TYPE_UNKNOWN) {
+                        // Not a stylus pointer, so skip it
+                        continue;
+                    }
+                    else {
+                        // This pointer is a stylus, so we'll report that we handled this event
+                        handledStylusEvent = true;
+                    }
 
-                if (!sendPenEventForPointer(view, event, eventType, toolType, i)) {
-                    // Pen events aren't supported by the host
-                    return false;
+                    addPenSampleForPointer(view, event, eventType, toolType, i, historyPos);
                 }
             }
-            return handledStylusEvent;
+            if (!handledStylusEvent) {
+                return false;
+            }
+
+            // This fails if pen events aren't supported by the host
+            return conn.sendPenEventBatch(touchEventBatch) != MoonBridge.LI_ERR_UNSUPPORTED;
         }
         else if (event.getActionMasked() == MotionEvent.ACTION_CANCEL) {
             // Cancel impacts all active pointers
@@ -1730,18 +1771,26 @@ public class Game extends Activity implements SurfaceHolder.Callback,
                 // Not a stylus event
                 return false;
             }
-            return sendPenEventForPointer(view, event, eventType, toolType, event.getActionIndex());
+
+            // Hover moves can have historical samples too
+            int historySize = getHistorySizeToSend(event);
+            touchEventBatch.clear();
+            for (int h = 0; h <= historySize; h++) {
+                int historyPos = h < historySize ? h : CURRENT_SAMPLE;
+                addPenSampleForPointer(view, event, eventType, toolType, event.getActionIndex(), historyPos);
+            }
+            return conn.sendPenEventBatch(touchEventBatch) != MoonBridge.LI_ERR_UNSUPPORTED;
         }
     }
 
-    private boolean sendTouchEventForPointer(View view, MotionEvent event, byte eventType, int pointerIndex) {
-        float[] normalizedCoords = getStreamViewRelativeNormalizedXY(view, event, pointerIndex);
-        float[] normalizedContactArea = getStreamViewNormalizedContactArea(event, pointerIndex);
-        return conn.sendTouchEvent(eventType, event.getPointerId(pointerIndex),
+    private void addTouchSampleForPointer(View view, MotionEvent event, byte eventType, int pointerIndex, int historyPos) {
+        float[] normalizedCoords = getStreamViewRelativeNormalizedXY(view, event, pointerIndex, historyPos);
+        float[] normalizedContactArea = getStreamViewNormalizedContactArea(event, pointerIndex, historyPos);
+        touchEventBatch.addTouchSample(eventType, event.getPointerId(pointerIndex),
                 normalizedCoords[0], normalizedCoords[1],
-                getPressureOrDistance(event, pointerIndex),
+                getPressureOrDistance(event, pointerIndex, historyPos),
                 normalizedContactArea[0], normalizedContactArea[1],
-                getRotationDegrees(event, pointerIndex)) != MoonBridge.LI_ERR_UNSUPPORTED;
+                getRotationDegrees(event, pointerIndex, historyPos));
     }
 
     private boolean trySendTouchEvent(View view, MotionEvent event) {
@@ -1752,12 +1801,16 @@ public class Game extends Activity implements SurfaceHolder.Callback,
 
         if (event.getActionMasked() == MotionEvent.ACTION_MOVE) {
             // Move events may impact all active pointers
-            for (int i = 0; i < event.getPointerCount(); i++) {
-                if (!sendTouchEventForPointer(view, event, eventType, i)) {
-                    return false;
+            int historySize = getHistorySizeToSend(event);
+            touchEventBatch.clear();
+            for (int h = 0; h <= historySize; h++) {
+                // Historical samples are oldest first and the current sample comes last
+                int historyPos = h < historySize ? h : CURRENT_SAMPLE;
+                for (int i = 0; i < event.getPointerCount(); i++) {
+                    addTouchSampleForPointer(view, event, eventType, i, historyPos);
                 }
             }
-            return true;
+            return conn.sendTouchEventBatch(touchEventBatch) != MoonBridge.LI_ERR_UNSUPPORTED;
         }
         else if (event.getActionMasked() == MotionEvent.ACTION_CANCEL) {
             // Cancel impacts all active pointers
@@ -1767,7 +1820,13 @@ public class Game extends Activity implements SurfaceHolder.Callback,
         }
         else {
             // Up, Down, and Hover events are specific to the action index
-            return sendTouchEventForPointer(view, event, eventType, event.getActionIndex());
+            int historySize = getHistorySizeToSend(event);
+            touchEventBatch.clear();
+            for (int h = 0; h <= historySize; h++) {
+                int historyPos = h < historySize ? h : CURRENT_SAMPLE;
+                addTouchSampleForPointer(view, event, eventType, event.getActionIndex(), historyPos);
+            }
+            return conn.sendTouchEventBatch(touchEventBatch) != MoonBridge.LI_ERR_UNSUPPORTED;
         }
     }
 
@@ -2234,6 +2293,10 @@ public class Game extends Activity implements SurfaceHolder.Callback,
             new Thread() {
                 public void run() {
                     conn.stop();
+
+                    // The trace can only be read back once the decoder has stopped. Sorting
+                    // for the summary and writing the CSV are too slow for the UI thread.
+                    exportFrameTrace();
                 }
             }.start();
 
@@ -2245,6 +2308,27 @@ public class Game extends Activity implements SurfaceHolder.Callback,
         }
     }
 
+    private void exportFrameTrace() {
+        FrameTraceRecorder frameTrace = decoderRenderer.getFrameTrace();
+        if (frameTrace == null || frameTrace.getFrameCount() == 0) {
+            return;
+        }
+
+        LimeLog.info(frameTrace.getSummary());
+
+        // Save the trace where it can be pulled off the device with adb
+        File traceDir = getExternalFilesDir(null);
+        if (traceDir != null) {
+            File traceFile = new File(traceDir, "frame-trace-" + System.currentTimeMillis() + ".csv");
+            try {
+                frameTrace.writeCsv(traceFile);
+                LimeLog.info("Wrote frame trace to " + traceFile);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
     private void doQuit() {
         String host = Game.this.getIntent().getStringExtra(EXTRA_HOST);
         int port = Game.this.getIntent().getIntExtra(EXTRA_PORT, NvHTTP.DEFAULT_HTTP_PORT);
@@ -2532,8 +2616,19 @@ public class Game extends Activity implements SurfaceHolder.Callback,
             UiHelper.notifyStreamConnecting(Game.this);
 
             decoderRenderer.setRenderTarget(holder);
-            conn.start(new AndroidAudioRenderer(Game.this, prefConfig.enableAudioFx),
-                    decoderRenderer, Game.this);
+            AudioRenderer audioRenderer;
+            if (prefConfig.enableNativeAudio && !prefConfig.enableAudioFx && NativeAudioRenderer.isSupported()) {
+                NativeAudioRenderer nativeAudioRenderer = new NativeAudioRenderer(Game.this,
+                        prefConfig.nativeAudioBufferMs, prefConfig.nativeAudioFloat);
+                decoderRenderer.setAudioStatsProvider(nativeAudioRenderer);
+                audioRenderer = nativeAudioRenderer;
+            }
+            else {
+                AndroidAudioRenderer androidAudioRenderer = new AndroidAudioRenderer(Game.this, prefConfig.enableAudioFx);
+                decoderRenderer.setAudioStatsProvider(androidAudioRenderer);
+                audioRenderer = androidAudioRenderer;
+            }
+            conn.start(audioRenderer, decoderRenderer, Game.this);
         }
     }
 
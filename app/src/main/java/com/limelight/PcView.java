@@ -717,7 +717,15 @@ public class PcView extends Activity implements AdapterFragmentCallbacks, QuickL
     private void removeComputer(ComputerDetails details) {
         managerBinder.removeComputer(details);
 
-        new DiskAssetLoader(this).deleteAssetsForComputer(details.uuid);
+        // Deleting the art may have to wait for the box art cache to load, so keep it off the UI thread
+        final DiskAssetLoader diskAssetLoader = new DiskAssetLoader(this);
+        final String uuid = details.uuid;
+        new Thread() {
+            @Override
+            public void run() {
+                diskAssetLoader.deleteAssetsForComputer(uuid);
+            }
+        }.start();
 
         // Delete hidden games preference value
         getSharedPreferences(AppView.HIDDEN_APPS_PREF_FILENAME, MODE_PRIVATE)
@@ -8,15 +8,13 @@ import android.content.ServiceConnection;
 import android.os.Bundle;
 import android.os.IBinder;
 
-import com.limelight.computers.ComputerDatabaseManager;
 import com.limelight.computers.ComputerManagerListener;
 import com.limelight.computers.ComputerManagerService;
 import com.limelight.nvstream.http.ComputerDetails;
 import com.limelight.nvstream.http.NvApp;
-import com.limelight.nvstream.http.NvHTTP;
 import com.limelight.nvstream.http.PairingManager;
 import com.limelight.nvstream.wol.WakeOnLanSender;
-import com.limelight.utils.CacheHelper;
+import com.limelight.utils.AppListCache;
 import com.limelight.utils.Dialog;
 import com.limelight.utils.ServerHelper;
 import com.limelight.utils.SpinnerDialog;
@@ -25,13 +23,15 @@ import com.limelight.utils.UiHelper;
 import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.IOException;
-import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 
 public class ShortcutTrampoline extends Activity {
     private String uuidString;
+    private String nameString;
+    private String appIdString;
+    private String appNameString;
     private NvApp app;
     private ArrayList<Intent> intentStack = new ArrayList<>();
 
@@ -57,14 +57,9 @@ public class ShortcutTrampoline extends Activity {
                     managerBinder = localBinder;
 
                     // Get the computer object
-                    computer = managerBinder.getComputer(uuidString);
+                    computer = resolveShortcutTarget();
 
                     if (computer == null) {
-                        Dialog.displayDialog(ShortcutTrampoline.this,
-                                getResources().getString(R.string.conn_error_title),
-                                getResources().getString(R.string.scut_pc_not_found),
-                                true);
-
                         if (blockingLoadSpinner != null) {
                             blockingLoadSpinner.dismiss();
                             blockingLoadSpinner = null;
@@ -222,6 +217,86 @@ public class ShortcutTrampoline extends Activity {
         }
     };
 
+    // Finds the computer and app that the shortcut refers to. This goes through the service
+    // rather than reading the database, since the service may not have written out recent
+    // changes (like a new PC name) yet. Returns null after displaying an error on failure.
+    private ComputerDetails resolveShortcutTarget() {
+        if (uuidString == null || uuidString.isEmpty()) {
+            // Use nameString to find the corresponding UUID
+            ComputerDetails namedComputer = managerBinder.getComputerByName(nameString);
+
+            if (namedComputer == null) {
+                Dialog.displayDialog(ShortcutTrampoline.this,
+                        getResources().getString(R.string.conn_error_title),
+                        getResources().getString(R.string.scut_pc_not_found),
+                        true);
+                return null;
+            }
+
+            uuidString = namedComputer.uuid;
+
+            // Set the AppView UUID intent, since it wasn't provided
+            setIntent(new Intent(getIntent()).putExtra(AppView.UUID_EXTRA, uuidString));
+        }
+
+        if (appIdString != null && !appIdString.isEmpty()) {
+            app = new NvApp(getIntent().getStringExtra(Game.EXTRA_APP_NAME),
+                    Integer.parseInt(appIdString),
+                    getIntent().getBooleanExtra(Game.EXTRA_APP_HDR, false));
+        }
+        else if (appNameString != null && !appNameString.isEmpty()) {
+            // Use appNameString to find the corresponding AppId
+            try {
+                int appId = -1;
+                String rawAppList = AppListCache.readCachedAppList(getCacheDir(), uuidString);
+
+                if (rawAppList.isEmpty()) {
+                    Dialog.displayDialog(ShortcutTrampoline.this,
+                            getResources().getString(R.string.conn_error_title),
+                            getResources().getString(R.string.scut_invalid_app_id),
+                            true);
+                    return null;
+                }
+                List<NvApp> applist = AppListCache.getParsedAppList(rawAppList);
+
+                for (NvApp _app : applist) {
+                    if (_app.getAppName().equals(appNameString)) {
+                        appId = _app.getAppId();
+                        break;
+                    }
+                }
+                if (appId < 0) {
+                    Dialog.displayDialog(ShortcutTrampoline.this,
+                            getResources().getString(R.string.conn_error_title),
+                            getResources().getString(R.string.scut_invalid_app_id),
+                            true);
+                    return null;
+                }
+                setIntent(new Intent(getIntent()).putExtra(Game.EXTRA_APP_ID, appId));
+                app = new NvApp(
+                        appNameString,
+                        appId,
+                        getIntent().getBooleanExtra(Game.EXTRA_APP_HDR, false));
+            } catch (IOException | XmlPullParserException e) {
+                Dialog.displayDialog(ShortcutTrampoline.this,
+                        getResources().getString(R.string.conn_error_title),
+                        getResources().getString(R.string.scut_invalid_app_id),
+                        true);
+                return null;
+            }
+        }
+
+        ComputerDetails target = managerBinder.getComputer(uuidString);
+        if (target == null) {
+            Dialog.displayDialog(ShortcutTrampoline.this,
+                    getResources().getString(R.string.conn_error_title),
+                    getResources().getString(R.string.scut_pc_not_found),
+                    true);
+        }
+
+        return target;
+    }
+
     protected boolean validateInput(String uuidString, String appIdString, String nameString) {
         // Validate PC UUID/Name
         if (uuidString == null && nameString == null) {
@@ -274,87 +349,20 @@ public class ShortcutTrampoline extends Activity {
         super.onCreate(savedInstanceState);
 
         UiHelper.notifyNewRootView(this);
-        ComputerDatabaseManager dbManager = new ComputerDatabaseManager(this);
-        ComputerDetails _computer = null;
 
         // PC arguments, both are optional, but at least one must be provided
         uuidString = getIntent().getStringExtra(AppView.UUID_EXTRA);
-        String nameString = getIntent().getStringExtra(AppView.NAME_EXTRA);
+        nameString = getIntent().getStringExtra(AppView.NAME_EXTRA);
 
         // App arguments, both are optional, but one must be provided in order to start an app
-        String appIdString = getIntent().getStringExtra(Game.EXTRA_APP_ID);
-        String appNameString = getIntent().getStringExtra(Game.EXTRA_APP_NAME);
+        appIdString = getIntent().getStringExtra(Game.EXTRA_APP_ID);
+        appNameString = getIntent().getStringExtra(Game.EXTRA_APP_NAME);
 
         if (!validateInput(uuidString, appIdString, nameString)) {
             // Invalid input, so just return
             return;
         }
 
-        if (uuidString == null || uuidString.isEmpty()) {
-            // Use nameString to find the corresponding UUID
-            _computer = dbManager.getComputerByName(nameString);
-
-            if (_computer == null) {
-                Dialog.displayDialog(ShortcutTrampoline.this,
-                        getResources().getString(R.string.conn_error_title),
-                        getResources().getString(R.string.scut_pc_not_found),
-                        true);
-                return;
-            }
-
-            uuidString = _computer.uuid;
-
-            // Set the AppView UUID intent, since it wasn't provided
-            setIntent(new Intent(getIntent()).putExtra(AppView.UUID_EXTRA, uuidString));
-        }
-
-        if (appIdString != null && !appIdString.isEmpty()) {
-            app = new NvApp(getIntent().getStringExtra(Game.EXTRA_APP_NAME),
-                    Integer.parseInt(appIdString),
-                    getIntent().getBooleanExtra(Game.EXTRA_APP_HDR, false));
-        }
-        else if (appNameString != null && !appNameString.isEmpty()) {
-            // Use appNameString to find the corresponding AppId
-            try {
-                int appId = -1;
-                String rawAppList = CacheHelper.readInputStreamToString(CacheHelper.openCacheFileForInput(getCacheDir(), "applist", uuidString));
-
-                if (rawAppList.isEmpty()) {
-                    Dialog.displayDialog(ShortcutTrampoline.this,
-                            getResources().getString(R.string.conn_error_title),
-                            getResources().getString(R.string.scut_invalid_app_id),
-                            true);
-                    return;
-                }
-                List<NvApp> applist = NvHTTP.getAppListByReader(new StringReader(rawAppList));
-
-                for (NvApp _app : applist) {
-                    if (_app.getAppName().equals(appNameString)) {
-                        appId = _app.getAppId();
-                        break;
-                    }
-                }
-                if (appId < 0) {
-                    Dialog.displayDialog(ShortcutTrampoline.this,
-                            getResources().getString(R.string.conn_error_title),
-                            getResources().getString(R.string.scut_invalid_app_id),
-                            true);
-                    return;
-                }
-                setIntent(new Intent(getIntent()).putExtra(Game.EXTRA_APP_ID, appId));
-                app = new NvApp(
-                        appNameString,
-                        appId,
-                        getIntent().getBooleanExtra(Game.EXTRA_APP_HDR, false));
-            } catch (IOException | XmlPullParserException e) {
-                Dialog.displayDialog(ShortcutTrampoline.this,
-                        getResources().getString(R.string.conn_error_title),
-                        getResources().getString(R.string.scut_invalid_app_id),
-                        true);
-                return;
-            }
-        }
-
         // Bind to the computer manager service
         bindService(new Intent(this, ComputerManagerService.class), serviceConnection,
                 Service.BIND_AUTO_CREATE);
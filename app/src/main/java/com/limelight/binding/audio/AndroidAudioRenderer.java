@@ -8,17 +8,31 @@ import android.media.AudioManager;
 import android.media.AudioTrack;
 import android.media.audiofx.AudioEffect;
 import android.os.Build;
+import android.os.Process;
 
 import com.limelight.LimeLog;
 import com.limelight.nvstream.av.audio.AudioRenderer;
 import com.limelight.nvstream.jni.MoonBridge;
 
-public class AndroidAudioRenderer implements AudioRenderer {
+public class AndroidAudioRenderer implements AudioRenderer, AudioStatsProvider {
 
     private final Context context;
     private final boolean enableAudioFx;
 
     private AudioTrack track;
+    private int channelCount;
+
+    // Decoded audio is queued here by the network thread and written to the
+    // AudioTrack by our playback thread, which is paced by the blocking writes.
+    private AudioJitterBuffer jitterBuffer;
+    private Thread playbackThread;
+    private static final int PLAYBACK_THREAD_JOIN_TIMEOUT_MS = 1000;
+    private volatile boolean playing;
+
+    // Set by cleanup() if the playback thread didn't exit in time, so the thread releases
+    // the AudioTrack itself when it's done with it. Protected by the renderer's lock.
+    private boolean releaseTrackOnExit;
+    private boolean playbackThreadExited;
 
     public AndroidAudioRenderer(Context context, boolean enableAudioFx) {
         this.context = context;
@@ -182,25 +196,56 @@ public class AndroidAudioRenderer implements AudioRenderer {
             return -2;
         }
 
+        channelCount = audioConfiguration.channelCount;
+        jitterBuffer = new AudioJitterBuffer(channelCount, sampleRate, samplesPerFrame);
+
         return 0;
     }
 
     @Override
     public void playDecodedAudio(short[] audioData) {
-        // Only queue up to 40 ms of pending audio data in addition to what AudioTrack is buffering for us.
-        if (MoonBridge.getPendingAudioDuration() < 40) {
-            // This will block until the write is completed. That can cause a backlog
-            // of pending audio data, so we do the above check to be able to bound
-            // latency at 40 ms in that situation.
-            track.write(audioData, 0, audioData.length);
-        }
-        else {
-            LimeLog.info("Too much pending audio data: " + MoonBridge.getPendingAudioDuration() +" ms");
-        }
+        // This never blocks, so the network thread can't build up a backlog behind us
+        jitterBuffer.write(audioData);
+    }
+
+    private void startPlaybackThread() {
+        playing = true;
+        playbackThread = new Thread() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+
+                short[] buffer = new short[jitterBuffer.getMaxReadFrames() * channelCount];
+                try {
+                    while (playing) {
+                        int frames = jitterBuffer.read(buffer);
+
+                        // This will block until the AudioTrack has room for the data
+                        int ret = track.write(buffer, 0, frames * channelCount);
+                        if (ret < 0) {
+                            // Errors like ERROR_DEAD_OBJECT won't go away by writing again
+                            LimeLog.warning("Audio track write failed: "+ret);
+                            break;
+                        }
+                    }
+                } finally {
+                    synchronized (AndroidAudioRenderer.this) {
+                        playbackThreadExited = true;
+                        if (releaseTrackOnExit) {
+                            releaseTrack();
+                        }
+                    }
+                }
+            }
+        };
+        playbackThread.setName("Audio - Playback");
+        playbackThread.start();
     }
 
     @Override
     public void start() {
+        startPlaybackThread();
+
         if (enableAudioFx) {
             // Open an audio effect control session to allow equalizers to apply audio effects
             Intent i = new Intent(AudioEffect.ACTION_OPEN_AUDIO_EFFECT_CONTROL_SESSION);
@@ -224,10 +269,61 @@ public class AndroidAudioRenderer implements AudioRenderer {
 
     @Override
     public void cleanup() {
-        // Immediately drop all pending data
-        track.pause();
+        playing = false;
+
+        // Stopping interrupts a write that's blocked waiting for room in the AudioTrack,
+        // and any further writes return immediately instead of blocking until we restart.
+        // Pausing doesn't do either of those, so the playback thread could block forever.
+        track.stop();
+
+        if (playbackThread != null) {
+            playbackThread.interrupt();
+            try {
+                playbackThread.join(PLAYBACK_THREAD_JOIN_TIMEOUT_MS);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+
+                // InterruptedException clears the thread's interrupt status. Since we can't
+                // handle that here, we will re-interrupt the thread to set the interrupt
+                // status back to true.
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        LimeLog.info("Audio jitter buffer underruns: "+jitterBuffer.getUnderruns()+
+                ", dropped packets: "+jitterBuffer.getDroppedPackets());
+
+        synchronized (this) {
+            if (playbackThread != null && !playbackThreadExited) {
+                // The thread may still be inside write(), so it has to release the track
+                LimeLog.warning("Audio playback thread didn't stop in time");
+                releaseTrackOnExit = true;
+            }
+            else {
+                releaseTrack();
+            }
+        }
+    }
+
+    private void releaseTrack() {
+        // Drop whatever was still queued when we stopped
         track.flush();
 
         track.release();
     }
+
+    @Override
+    public int getBufferedAudioMs() {
+        return jitterBuffer != null ? jitterBuffer.getBufferedMs() : 0;
+    }
+
+    @Override
+    public int getAudioUnderruns() {
+        return jitterBuffer != null ? jitterBuffer.getUnderruns() : 0;
+    }
+
+    @Override
+    public int getDroppedAudioPackets() {
+        return jitterBuffer != null ? jitterBuffer.getDroppedPackets() : 0;
+    }
 }
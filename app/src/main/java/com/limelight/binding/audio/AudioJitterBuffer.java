@@ -0,0 +1,202 @@
+package com.limelight.binding.audio;
+
+import java.util.Arrays;
+
+// Buffers decoded audio packets between the network thread and the playback thread.
+//
+// The target depth follows the measured packet arrival jitter, so a clean network
+// gets minimal latency and a jittery one gets enough buffer to avoid gaps. Clock drift
+// between the host and our audio output is corrected by stretching or shrinking packets
+// by a single sample frame, which keeps the buffer level near the target without the
+// audible clicks of dropping whole packets. Whole packets are only dropped to recover
+// from a large burst.
+//
+// The producer and consumer are expected to call in at roughly the packet rate,
+// so a plain monitor is used rather than anything more elaborate.
+class AudioJitterBuffer {
+    private static final int MIN_TARGET_MS = 10;
+    private static final int MAX_TARGET_MS = 80;
+
+    // How many multiples of the average jitter we want buffered
+    private static final int JITTER_MULTIPLIER = 4;
+
+    private final int channelCount;
+    private final int sampleRate;
+    private final int samplesPerFrame;
+    private final long packetDurationNs;
+
+    private final short[][] packets;
+    private int head;
+    private int count;
+
+    // Only accessed by the producer
+    private long lastArrivalTimeNs;
+    private long jitterNs;
+
+    // Accessed by both sides while holding the lock
+    private int targetFrames;
+    private boolean priming = true;
+    private boolean receivedAudio;
+
+    // Only accessed by the consumer
+    private int averageLevelFrames;
+
+    private volatile int bufferedFrames;
+    private volatile int underruns;
+    private volatile int droppedPackets;
+
+    AudioJitterBuffer(int channelCount, int sampleRate, int samplesPerFrame) {
+        this.channelCount = channelCount;
+        this.sampleRate = sampleRate;
+        this.samplesPerFrame = samplesPerFrame;
+        this.packetDurationNs = samplesPerFrame * 1000000000L / sampleRate;
+        this.targetFrames = msToFrames(MIN_TARGET_MS);
+
+        // Leave room for twice our maximum target before we start dropping
+        int maxPackets = msToFrames(MAX_TARGET_MS) * 2 / samplesPerFrame + 2;
+        this.packets = new short[maxPackets][channelCount * samplesPerFrame];
+    }
+
+    private int msToFrames(int ms) {
+        return sampleRate * ms / 1000;
+    }
+
+    // Maximum number of frames the consumer will be given by read()
+    int getMaxReadFrames() {
+        return samplesPerFrame + 1;
+    }
+
+    // Called by the network thread for each decoded packet
+    void write(short[] pcmData) {
+        long now = System.nanoTime();
+
+        // Track interarrival jitter the same way as RFC 3550
+        if (lastArrivalTimeNs != 0) {
+            long deviation = Math.abs((now - lastArrivalTimeNs) - packetDurationNs);
+            jitterNs += (deviation - jitterNs) / 16;
+        }
+        lastArrivalTimeNs = now;
+
+        int newTargetMs = (int)((packetDurationNs + jitterNs * JITTER_MULTIPLIER) / 1000000);
+        newTargetMs = Math.max(MIN_TARGET_MS, Math.min(MAX_TARGET_MS, newTargetMs));
+
+        synchronized (this) {
+            targetFrames = msToFrames(newTargetMs);
+            receivedAudio = true;
+
+            // If a burst has put us far above the target (or we're out of room),
+            // drop the oldest packets to get latency back down quickly. One slot is
+            // always left free for the packet that the consumer may be reading.
+            while (count > 0 && (count >= packets.length - 1 || (count + 1) * samplesPerFrame > targetFrames * 2)) {
+                head = (head + 1) % packets.length;
+                count--;
+                droppedPackets++;
+            }
+
+            short[] packet = packets[(head + count) % packets.length];
+            System.arraycopy(pcmData, 0, packet, 0, Math.min(pcmData.length, packet.length));
+            count++;
+
+            bufferedFrames = count * samplesPerFrame;
+        }
+    }
+
+    // Called by the playback thread. Fills output with the next packet to play and returns
+    // the number of frames written. The output must hold getMaxReadFrames() frames.
+    int read(short[] output) {
+        int level;
+        short[] packet;
+
+        synchronized (this) {
+            level = count * samplesPerFrame;
+
+            if (priming && level >= targetFrames) {
+                priming = false;
+            }
+            else if (!priming && count == 0) {
+                // Fill the gap with silence until we've rebuilt our buffer
+                priming = true;
+                if (receivedAudio) {
+                    underruns++;
+                }
+            }
+
+            if (priming) {
+                packet = null;
+            }
+            else {
+                packet = packets[head];
+                head = (head + 1) % packets.length;
+                count--;
+            }
+
+            bufferedFrames = count * samplesPerFrame;
+        }
+
+        if (packet == null) {
+            Arrays.fill(output, 0, samplesPerFrame * channelCount, (short)0);
+            return samplesPerFrame;
+        }
+
+        // Smooth the buffer level so that jitter doesn't cause us to oscillate
+        averageLevelFrames += (level - averageLevelFrames) / 32;
+
+        // NB: The packet can't be overwritten by the producer while we're using it because
+        // the producer never fills the last free slot, which is the one we just removed.
+        int outputFrames = samplesPerFrame;
+        if (averageLevelFrames > targetFrames + samplesPerFrame / 2) {
+            // We're consistently above target, so play slightly faster
+            outputFrames--;
+        }
+        else if (averageLevelFrames < targetFrames - samplesPerFrame / 2) {
+            // We're consistently below target, so play slightly slower
+            outputFrames++;
+        }
+
+        if (outputFrames == samplesPerFrame) {
+            System.arraycopy(packet, 0, output, 0, samplesPerFrame * channelCount);
+        }
+        else {
+            resample(packet, output, outputFrames);
+        }
+
+        return outputFrames;
+    }
+
+    // Linearly interpolates a packet to the specified length
+    private void resample(short[] input, short[] output, int outputFrames) {
+        int lastInputFrame = samplesPerFrame - 1;
+
+        for (int i = 0; i < outputFrames; i++) {
+            // Position in the input in 16.16 fixed point, mapping the first and last frames exactly
+            long position = ((long)i * lastInputFrame << 16) / (outputFrames - 1);
+            int index = (int)(position >> 16);
+            int fraction = (int)(position & 0xFFFF);
+            int nextIndex = Math.min(index + 1, lastInputFrame);
+
+            for (int ch = 0; ch < channelCount; ch++) {
+                int a = input[index * channelCount + ch];
+                int b = input[nextIndex * channelCount + ch];
+                output[i * channelCount + ch] = (short)(a + (int)(((long)(b - a) * fraction) >> 16));
+            }
+        }
+    }
+
+    int getBufferedMs() {
+        return bufferedFrames * 1000 / sampleRate;
+    }
+
+    int getTargetMs() {
+        synchronized (this) {
+            return targetFrames * 1000 / sampleRate;
+        }
+    }
+
+    int getUnderruns() {
+        return underruns;
+    }
+
+    int getDroppedPackets() {
+        return droppedPackets;
+    }
+}
@@ -0,0 +1,11 @@
+package com.limelight.binding.audio;
+
+// Implemented by audio renderers that can report buffering statistics for the performance overlay.
+// These may be called from any thread.
+public interface AudioStatsProvider {
+    int getBufferedAudioMs();
+
+    int getAudioUnderruns();
+
+    int getDroppedAudioPackets();
+}
@@ -0,0 +1,105 @@
+package com.limelight.binding.audio;
+
+import android.content.Context;
+import android.os.Build;
+
+import com.limelight.LimeLog;
+import com.limelight.nvstream.av.audio.AudioRenderer;
+import com.limelight.nvstream.jni.MoonBridge;
+
+// Plays audio through a native AAudio stream that is fed directly by the Opus decoder,
+// avoiding the JNI upcall and blocking AudioTrack.write() for each audio packet. If the
+// native stream can't be opened, this falls back to the AudioTrack renderer.
+//
+// The native path uses a fixed target buffer without the AudioTrack renderer's adaptive
+// jitter buffer or drift compensation, so clock drift shows up as dropped packets or underruns.
+public class NativeAudioRenderer implements AudioRenderer, AudioStatsProvider {
+
+    private final int targetBufferMs;
+    private final boolean floatOutput;
+    private final AndroidAudioRenderer fallbackRenderer;
+
+    private boolean usingNativeOutput;
+
+    public NativeAudioRenderer(Context context, int targetBufferMs, boolean floatOutput) {
+        this.targetBufferMs = targetBufferMs;
+        this.floatOutput = floatOutput;
+
+        // Audio effects require the AudioTrack path, so they're never used with this renderer
+        this.fallbackRenderer = new AndroidAudioRenderer(context, false);
+    }
+
+    public static boolean isSupported() {
+        // AAudio was introduced in 8.0, but we skip it there due to bugs fixed in 8.1
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1 && MoonBridge.isNativeAudioAvailable();
+    }
+
+    @Override
+    public int setup(MoonBridge.AudioConfiguration audioConfiguration, int sampleRate, int samplesPerFrame) {
+        // With float output, Opus decodes straight to float and the samples are passed through
+        // to the mixer untouched, avoiding int16 quantization and conversion for surround streams.
+        int err = MoonBridge.nativeAudioInit(audioConfiguration.channelCount, sampleRate, samplesPerFrame,
+                targetBufferMs, floatOutput);
+        if (err == 0) {
+            LimeLog.info("Using native "+(floatOutput ? "float" : "int16")+" audio output with target buffer: "+targetBufferMs+" ms");
+            usingNativeOutput = true;
+            return 0;
+        }
+
+        LimeLog.warning("Native audio output failed to initialize: "+err);
+        return fallbackRenderer.setup(audioConfiguration, sampleRate, samplesPerFrame);
+    }
+
+    @Override
+    public void start() {
+        if (usingNativeOutput) {
+            MoonBridge.nativeAudioStart();
+        }
+        else {
+            fallbackRenderer.start();
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (usingNativeOutput) {
+            MoonBridge.nativeAudioStop();
+        }
+        else {
+            fallbackRenderer.stop();
+        }
+    }
+
+    @Override
+    public void playDecodedAudio(short[] audioData) {
+        // Only called if we fell back to AudioTrack
+        fallbackRenderer.playDecodedAudio(audioData);
+    }
+
+    @Override
+    public void cleanup() {
+        if (usingNativeOutput) {
+            LimeLog.info("Native audio underruns: "+MoonBridge.getNativeAudioUnderruns()+
+                    ", dropped packets: "+MoonBridge.getNativeAudioDroppedPackets());
+            MoonBridge.nativeAudioCleanup();
+        }
+        else {
+            fallbackRenderer.cleanup();
+        }
+    }
+
+    @Override
+    public int getBufferedAudioMs() {
+        return usingNativeOutput ? MoonBridge.getNativeAudioBufferedMs() : fallbackRenderer.getBufferedAudioMs();
+    }
+
+    @Override
+    public int getAudioUnderruns() {
+        return usingNativeOutput ? MoonBridge.getNativeAudioUnderruns() : fallbackRenderer.getAudioUnderruns();
+    }
+
+    @Override
+    public int getDroppedAudioPackets() {
+        return usingNativeOutput ? MoonBridge.getNativeAudioDroppedPackets() : fallbackRenderer.getDroppedAudioPackets();
+    }
+}
@@ -26,6 +26,7 @@ import android.os.VibrationEffect;
 import android.os.Vibrator;
 import android.os.VibratorManager;
 import android.util.SparseArray;
+import android.util.SparseIntArray;
 import android.view.InputDevice;
 import android.view.InputEvent;
 import android.view.KeyEvent;
@@ -52,7 +53,7 @@ import org.cgutman.shieldcontrollerextensions.SceConnectionType;
 import org.cgutman.shieldcontrollerextensions.SceManager;
 
 import java.lang.reflect.InvocationTargetException;
-import java.util.Map;
+import java.util.ArrayList;
 
 public class ControllerHandler implements InputManager.InputDeviceListener, UsbDriverListener {
 
@@ -70,46 +71,53 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
 
     private static final int BATTERY_RECHECK_INTERVAL_MS = 120 * 1000;
 
-    private static final Map<Integer, Integer> ANDROID_TO_LI_BUTTON_MAP = Map.ofEntries(
-            Map.entry(KeyEvent.KEYCODE_BUTTON_A, ControllerPacket.A_FLAG),
-            Map.entry(KeyEvent.KEYCODE_BUTTON_B, ControllerPacket.B_FLAG),
-            Map.entry(KeyEvent.KEYCODE_BUTTON_X, ControllerPacket.X_FLAG),
-            Map.entry(KeyEvent.KEYCODE_BUTTON_Y, ControllerPacket.Y_FLAG),
-            Map.entry(KeyEvent.KEYCODE_DPAD_UP, ControllerPacket.UP_FLAG),
-            Map.entry(KeyEvent.KEYCODE_DPAD_DOWN, ControllerPacket.DOWN_FLAG),
-            Map.entry(KeyEvent.KEYCODE_DPAD_LEFT, ControllerPacket.LEFT_FLAG),
-            Map.entry(KeyEvent.KEYCODE_DPAD_RIGHT, ControllerPacket.RIGHT_FLAG),
-            Map.entry(KeyEvent.KEYCODE_DPAD_UP_LEFT, ControllerPacket.UP_FLAG | ControllerPacket.LEFT_FLAG),
-            Map.entry(KeyEvent.KEYCODE_DPAD_UP_RIGHT, ControllerPacket.UP_FLAG | ControllerPacket.RIGHT_FLAG),
-            Map.entry(KeyEvent.KEYCODE_DPAD_DOWN_LEFT, ControllerPacket.DOWN_FLAG | ControllerPacket.LEFT_FLAG),
-            Map.entry(KeyEvent.KEYCODE_DPAD_DOWN_RIGHT, ControllerPacket.DOWN_FLAG | ControllerPacket.RIGHT_FLAG),
-            Map.entry(KeyEvent.KEYCODE_BUTTON_L1, ControllerPacket.LB_FLAG),
-            Map.entry(KeyEvent.KEYCODE_BUTTON_R1, ControllerPacket.RB_FLAG),
-            Map.entry(KeyEvent.KEYCODE_BUTTON_THUMBL, ControllerPacket.LS_CLK_FLAG),
-            Map.entry(KeyEvent.KEYCODE_BUTTON_THUMBR, ControllerPacket.RS_CLK_FLAG),
-            Map.entry(KeyEvent.KEYCODE_BUTTON_START, ControllerPacket.PLAY_FLAG),
-            Map.entry(KeyEvent.KEYCODE_MENU, ControllerPacket.PLAY_FLAG),
-            Map.entry(KeyEvent.KEYCODE_BUTTON_SELECT, ControllerPacket.BACK_FLAG),
-            Map.entry(KeyEvent.KEYCODE_BACK, ControllerPacket.BACK_FLAG),
-            Map.entry(KeyEvent.KEYCODE_BUTTON_MODE, ControllerPacket.SPECIAL_BUTTON_FLAG),
-
-            // This is the Xbox Series X Share button
-            Map.entry(KeyEvent.KEYCODE_MEDIA_RECORD, ControllerPacket.MISC_FLAG),
-
-            // This is a weird one, but it's what Android does prior to 4.10 kernels
-            // where DualShock/DualSense touchpads weren't mapped as separate devices.
-            // https://android.googlesource.com/platform/frameworks/base/+/master/data/keyboards/Vendor_054c_Product_0ce6_fallback.kl
-            // https://android.googlesource.com/platform/frameworks/base/+/master/data/keyboards/Vendor_054c_Product_09cc.kl
-            Map.entry(KeyEvent.KEYCODE_BUTTON_1, ControllerPacket.TOUCHPAD_FLAG)
-
-            // FIXME: Paddles?
-    );
+    // Maps Android keycodes to the button flags they should report as supported
+    private static final SparseIntArray ANDROID_TO_LI_BUTTON_MAP = new SparseIntArray();
+    static {
+        ANDROID_TO_LI_BUTTON_MAP.put(KeyEvent.KEYCODE_BUTTON_A, ControllerPacket.A_FLAG);
+        ANDROID_TO_LI_BUTTON_MAP.put(KeyEvent.KEYCODE_BUTTON_B, ControllerPacket.B_FLAG);
+        ANDROID_TO_LI_BUTTON_MAP.put(KeyEvent.KEYCODE_BUTTON_X, ControllerPacket.X_FLAG);
+        ANDROID_TO_LI_BUTTON_MAP.put(KeyEvent.KEYCODE_BUTTON_Y, ControllerPacket.Y_FLAG);
+        ANDROID_TO_LI_BUTTON_MAP.put(KeyEvent.KEYCODE_DPAD_UP, ControllerPacket.UP_FLAG);
+        ANDROID_TO_LI_BUTTON_MAP.put(KeyEvent.KEYCODE_DPAD_DOWN, ControllerPacket.DOWN_FLAG);
+        ANDROID_TO_LI_BUTTON_MAP.put(KeyEvent.KEYCODE_DPAD_LEFT, ControllerPacket.LEFT_FLAG);
+        ANDROID_TO_LI_BUTTON_MAP.put(KeyEvent.KEYCODE_DPAD_RIGHT, ControllerPacket.RIGHT_FLAG);
+        ANDROID_TO_LI_BUTTON_MAP.put(KeyEvent.KEYCODE_DPAD_UP_LEFT, ControllerPacket.UP_FLAG | ControllerPacket.LEFT_FLAG);
+        ANDROID_TO_LI_BUTTON_MAP.put(KeyEvent.KEYCODE_DPAD_UP_RIGHT, ControllerPacket.UP_FLAG | ControllerPacket.RIGHT_FLAG);
+        ANDROID_TO_LI_BUTTON_MAP.put(KeyEvent.KEYCODE_DPAD_DOWN_LEFT, ControllerPacket.DOWN_FLAG | ControllerPacket.LEFT_FLAG);
+        ANDROID_TO_LI_BUTTON_MAP.put(KeyEvent.KEYCODE_DPAD_DOWN_RIGHT, ControllerPacket.DOWN_FLAG | ControllerPacket.RIGHT_FLAG);
+        ANDROID_TO_LI_BUTTON_MAP.put(KeyEvent.KEYCODE_BUTTON_L1, ControllerPacket.LB_FLAG);
+        ANDROID_TO_LI_BUTTON_MAP.put(KeyEvent.KEYCODE_BUTTON_R1, ControllerPacket.RB_FLAG);
+        ANDROID_TO_LI_BUTTON_MAP.put(KeyEvent.KEYCODE_BUTTON_THUMBL, ControllerPacket.LS_CLK_FLAG);
+        ANDROID_TO_LI_BUTTON_MAP.put(KeyEvent.KEYCODE_BUTTON_THUMBR, ControllerPacket.RS_CLK_FLAG);
+        ANDROID_TO_LI_BUTTON_MAP.put(KeyEvent.KEYCODE_BUTTON_START, ControllerPacket.PLAY_FLAG);
+        ANDROID_TO_LI_BUTTON_MAP.put(KeyEvent.KEYCODE_MENU, ControllerPacket.PLAY_FLAG);
+        ANDROID_TO_LI_BUTTON_MAP.put(KeyEvent.KEYCODE_BUTTON_SELECT, ControllerPacket.BACK_FLAG);
+        ANDROID_TO_LI_BUTTON_MAP.put(KeyEvent.KEYCODE_BACK, ControllerPacket.BACK_FLAG);
+        ANDROID_TO_LI_BUTTON_MAP.put(KeyEvent.KEYCODE_BUTTON_MODE, ControllerPacket.SPECIAL_BUTTON_FLAG);
+
+        // This is the Xbox Series X Share button
+        ANDROID_TO_LI_BUTTON_MAP.put(KeyEvent.KEYCODE_MEDIA_RECORD, ControllerPacket.MISC_FLAG);
+
+        // This is a weird one, but it's what Android does prior to 4.10 kernels
+        // where DualShock/DualSense touchpads weren't mapped as separate devices.
+        // https://android.googlesource.com/platform/frameworks/base/+/master/data/keyboards/Vendor_054c_Product_0ce6_fallback.kl
+        // https://android.googlesource.com/platform/frameworks/base/+/master/data/keyboards/Vendor_054c_Product_09cc.kl
+        ANDROID_TO_LI_BUTTON_MAP.put(KeyEvent.KEYCODE_BUTTON_1, ControllerPacket.TOUCHPAD_FLAG);
+
+        // FIXME: Paddles?
+    }
 
     private final Vector2d inputVector = new Vector2d();
 
     private final SparseArray<InputDeviceContext> inputDeviceContexts = new SparseArray<>();
     private final SparseArray<UsbDeviceContext> usbDeviceContexts = new SparseArray<>();
 
+    // Device contexts with an assigned controller number, indexed by that number. Controllers
+    // that are split into multiple devices have multiple contexts with the same number, which
+    // we must aggregate each time we send input. This doesn't include the default context.
+    private final SparseArray<ArrayList<GenericControllerContext>> contextsByControllerNumber = new SparseArray<>();
+
     private final NvConnection conn;
     private final Activity activityContext;
     private final double stickDeadzone;
@@ -241,6 +249,7 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
             releaseControllerNumber(context);
             context.destroy();
             inputDeviceContexts.remove(deviceId);
+            removeFromControllerIndex(context);
         }
     }
 
@@ -265,6 +274,12 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
         InputDeviceContext newContext = createInputDeviceContextForDevice(device);
         newContext.migrateContext(existingContext);
         inputDeviceContexts.put(deviceId, newContext);
+
+        // The new context takes over the old one's controller number
+        removeFromControllerIndex(existingContext);
+        if (newContext.assignedControllerNumber) {
+            addToControllerIndex(newContext);
+        }
     }
 
     public void stop() {
@@ -426,6 +441,26 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
         }
     }
 
+    private void addToControllerIndex(GenericControllerContext context) {
+        ArrayList<GenericControllerContext> contexts = contextsByControllerNumber.get(context.controllerNumber);
+        if (contexts == null) {
+            contexts = new ArrayList<>();
+            contextsByControllerNumber.put(context.controllerNumber, contexts);
+        }
+        contexts.add(context);
+    }
+
+    private void removeFromControllerIndex(GenericControllerContext context) {
+        if (!context.assignedControllerNumber) {
+            return;
+        }
+
+        ArrayList<GenericControllerContext> contexts = contextsByControllerNumber.get(context.controllerNumber);
+        if (contexts != null) {
+            contexts.remove(context);
+        }
+    }
+
     private boolean isAssociatedJoystick(InputDevice originalDevice, InputDevice possibleAssociatedJoystick) {
         if (possibleAssociatedJoystick == null) {
             return false;
@@ -559,6 +594,7 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
 
         LimeLog.info("Assigned as controller "+context.controllerNumber);
         context.assignedControllerNumber = true;
+        addToControllerIndex(context);
 
         // Report attributes of this new controller to the host
         context.sendControllerArrival();
@@ -1212,28 +1248,13 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
         // In order to properly handle controllers that are split into multiple devices,
         // we must aggregate all controllers with the same controller number into a single
         // device before we send it.
-        for (int i = 0; i < inputDeviceContexts.size(); i++) {
-            GenericControllerContext context = inputDeviceContexts.valueAt(i);
-            if (context.assignedControllerNumber &&
-                    context.controllerNumber == controllerNumber &&
-                    context.mouseEmulationActive == originalContext.mouseEmulationActive) {
-                inputMap |= context.inputMap;
-                leftTrigger |= maxByMagnitude(leftTrigger, context.leftTrigger);
-                rightTrigger |= maxByMagnitude(rightTrigger, context.rightTrigger);
-                leftStickX |= maxByMagnitude(leftStickX, context.leftStickX);
-                leftStickY |= maxByMagnitude(leftStickY, context.leftStickY);
-                rightStickX |= maxByMagnitude(rightStickX, context.rightStickX);
-                rightStickY |= maxByMagnitude(rightStickY, context.rightStickY);
-            }
-        }
-        for (int i = 0; i < usbDeviceContexts.size(); i++) {
-            GenericControllerContext context = usbDeviceContexts.valueAt(i);
-            if (context.assignedControllerNumber &&
-                    context.controllerNumber == controllerNumber &&
-                    context.mouseEmulationActive == originalContext.mouseEmulationActive) {
-                inputMap |= context.inputMap;
-                leftTrigger |= maxByMagnitude(leftTrigger, context.leftTrigger);
-                rightTrigger |= maxByMagnitude(rightTrigger, context.rightTrigger);
+        ArrayList<GenericControllerContext> contexts = contextsByControllerNumber.get(controllerNumber);
+        for (int i = 0; contexts != null && i < contexts.size(); i++) {
+            GenericControllerContext context = contexts.get(i);
+            if (context.mouseEmulationActive == originalContext.mouseEmulationActive) {
+                inputMap |= context.getReportedInputMap();
+                leftTrigger |= maxByMagnitude(leftTrigger, context.getReportedLeftTrigger());
+                rightTrigger |= maxByMagnitude(rightTrigger, context.getReportedRightTrigger());
                 leftStickX |= maxByMagnitude(leftStickX, context.leftStickX);
                 leftStickY |= maxByMagnitude(leftStickY, context.leftStickY);
                 rightStickX |= maxByMagnitude(rightStickX, context.rightStickX);
@@ -1241,9 +1262,9 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
             }
         }
         if (defaultContext.controllerNumber == controllerNumber) {
-            inputMap |= defaultContext.inputMap;
-            leftTrigger |= maxByMagnitude(leftTrigger, defaultContext.leftTrigger);
-            rightTrigger |= maxByMagnitude(rightTrigger, defaultContext.rightTrigger);
+            inputMap |= defaultContext.getReportedInputMap();
+            leftTrigger |= maxByMagnitude(leftTrigger, defaultContext.getReportedLeftTrigger());
+            rightTrigger |= maxByMagnitude(rightTrigger, defaultContext.getReportedRightTrigger());
             leftStickX |= maxByMagnitude(leftStickX, defaultContext.leftStickX);
             leftStickY |= maxByMagnitude(leftStickY, defaultContext.leftStickY);
             rightStickX |= maxByMagnitude(rightStickX, defaultContext.rightStickX);
@@ -2342,25 +2363,10 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
             keyCode = handleFlipFaceButtons(keyCode);
         }
 
-        // If the button hasn't been down long enough, sleep for a bit before sending the up event
-        // This allows "instant" button presses (like OUYA's virtual menu button) to work. This
-        // path should not be triggered during normal usage.
-        int buttonDownTime = (int)(event.getEventTime() - event.getDownTime());
-        if (buttonDownTime < ControllerHandler.MINIMUM_BUTTON_DOWN_TIME_MS)
-        {
-            // Since our sleep time is so short (<= 25 ms), it shouldn't cause a problem doing this
-            // in the UI thread.
-            try {
-                Thread.sleep(ControllerHandler.MINIMUM_BUTTON_DOWN_TIME_MS - buttonDownTime);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-
-                // InterruptedException clears the thread's interrupt status. Since we can't
-                // handle that here, we will re-interrupt the thread to set the interrupt
-                // status back to true.
-                Thread.currentThread().interrupt();
-            }
-        }
+        // Remember what was down, so we can tell what this event released
+        int previousInputMap = context.inputMap;
+        byte previousLeftTrigger = context.leftTrigger;
+        byte previousRightTrigger = context.rightTrigger;
 
         switch (keyCode) {
         case KeyEvent.KEYCODE_BUTTON_MODE:
@@ -2554,6 +2560,17 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
             }
         }
 
+        // If the button hasn't been down long enough, keep reporting it as held until it has.
+        // This allows "instant" button presses (like OUYA's virtual menu button) to work. This
+        // path should not be triggered during normal usage.
+        int buttonDownTime = (int)(event.getEventTime() - event.getDownTime());
+        if (buttonDownTime < ControllerHandler.MINIMUM_BUTTON_DOWN_TIME_MS) {
+            context.holdReleasedButtons(previousInputMap & ~context.inputMap,
+                    context.leftTrigger == 0 ? previousLeftTrigger : 0,
+                    context.rightTrigger == 0 ? previousRightTrigger : 0,
+                    event.getDownTime() + ControllerHandler.MINIMUM_BUTTON_DOWN_TIME_MS);
+        }
+
         sendControllerInputPacket(context);
 
         if (context.pendingExit && context.inputMap == 0) {
@@ -2863,6 +2880,7 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
             releaseControllerNumber(context);
             context.destroy();
             usbDeviceContexts.remove(controller.getControllerId());
+            removeFromControllerIndex(context);
         }
     }
 
@@ -2899,6 +2917,22 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
         public short leftStickX = 0x0000;
         public short leftStickY = 0x0000;
 
+        // Buttons that were released before the minimum button down time has elapsed. We
+        // report these as held until heldButtonsReleaseTime.
+        public int heldButtonFlags = 0;
+        public byte heldLeftTrigger = 0x00;
+        public byte heldRightTrigger = 0x00;
+        public long heldButtonsReleaseTime;
+
+        public final Runnable releaseHeldButtonsRunnable = new Runnable() {
+            @Override
+            public void run() {
+                heldButtonFlags = 0;
+                heldLeftTrigger = heldRightTrigger = 0;
+                sendControllerInputPacket(GenericControllerContext.this);
+            }
+        };
+
         public boolean mouseEmulationActive;
         public int mouseEmulationLastInputMap;
         public final int mouseEmulationReportPeriod = 50;
@@ -2939,9 +2973,44 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
             }
         }
 
+        // Keeps the released buttons held until releaseTime (in uptime millis). This uses a
+        // delayed callback rather than blocking, so other input keeps flowing in the meantime.
+        public void holdReleasedButtons(int buttonFlags, byte leftTrigger, byte rightTrigger, long releaseTime) {
+            if (buttonFlags == 0 && leftTrigger == 0 && rightTrigger == 0) {
+                return;
+            }
+
+            heldButtonFlags |= buttonFlags;
+            if (leftTrigger != 0) {
+                heldLeftTrigger = leftTrigger;
+            }
+            if (rightTrigger != 0) {
+                heldRightTrigger = rightTrigger;
+            }
+
+            if (releaseTime > heldButtonsReleaseTime) {
+                heldButtonsReleaseTime = releaseTime;
+                mainThreadHandler.removeCallbacks(releaseHeldButtonsRunnable);
+                mainThreadHandler.postAtTime(releaseHeldButtonsRunnable, releaseTime);
+            }
+        }
+
+        public int getReportedInputMap() {
+            return inputMap | heldButtonFlags;
+        }
+
+        public byte getReportedLeftTrigger() {
+            return heldLeftTrigger != 0 ? heldLeftTrigger : leftTrigger;
+        }
+
+        public byte getReportedRightTrigger() {
+            return heldRightTrigger != 0 ? heldRightTrigger : rightTrigger;
+        }
+
         public void destroy() {
             mouseEmulationActive = false;
             mainThreadHandler.removeCallbacks(mouseEmulationRunnable);
+            mainThreadHandler.removeCallbacks(releaseHeldButtonsRunnable);
         }
 
         public void sendControllerArrival() {}
@@ -3091,9 +3160,15 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
             }
 
             int supportedButtonFlags = 0;
-            for (Map.Entry<Integer, Integer> entry : ANDROID_TO_LI_BUTTON_MAP.entrySet()) {
-                if (inputDevice.hasKeys(entry.getKey())[0]) {
-                    supportedButtonFlags |= entry.getValue();
+            // Query all the keys at once rather than making a call for each one
+            int[] keyCodes = new int[ANDROID_TO_LI_BUTTON_MAP.size()];
+            for (int i = 0; i < keyCodes.length; i++) {
+                keyCodes[i] = ANDROID_TO_LI_BUTTON_MAP.keyAt(i);
+            }
+            boolean[] hasKeys = inputDevice.hasKeys(keyCodes);
+            for (int i = 0; i < keyCodes.length; i++) {
+                if (hasKeys[i]) {
+                    supportedButtonFlags |= ANDROID_TO_LI_BUTTON_MAP.valueAt(i);
                 }
             }
 
@@ -3224,6 +3299,12 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
             // Copy state initialized in reportControllerArrival()
             this.needsClickpadEmulation = oldContext.needsClickpadEmulation;
 
+            // Destroying the old context cancelled its pending release of any held buttons,
+            // so take them over and schedule the release here instead. Otherwise they would
+            // stay pressed on the host until the next input from this device.
+            holdReleasedButtons(oldContext.heldButtonFlags, oldContext.heldLeftTrigger,
+                    oldContext.heldRightTrigger, oldContext.heldButtonsReleaseTime);
+
             // Re-enable sensors on the new context
             enableSensors();
 
@@ -0,0 +1,177 @@
+package com.limelight.binding.video;
+
+import com.limelight.LimeLog;
+
+// Chooses the output queue depth and render threshold for the adaptive frame pacing mode.
+//
+// A queue depth of 1 is latest-frame presentation: only the newest decoded frame is kept, so
+// latency is minimal but any jitter in frame arrival shows up as a repeated frame. Deeper queues
+// smooth over that jitter at the cost of one frame of latency per extra slot.
+//
+// We start in the middle and measure how often the display pipeline misses a frame. That is
+// either a frame that was due at vsync but hadn't been decoded yet (and shows up at the next
+// vsync), a frame that we had to drop because the queue overflowed, or a frame that onFrameRendered()
+// reports as presented later than the usual pipeline latency. If misses exceed the target rate,
+// the queue is deepened. If the queue stays clean for several windows, it is made shallower again.
+//
+// Called from the Choreographer thread, the renderer thread, and the onFrameRendered() callback,
+// so everything except the queue depth (which the renderer thread reads per frame) is locked.
+class AdaptiveFramePacer {
+    static final int MIN_QUEUE_DEPTH = 1;
+    static final int MAX_QUEUE_DEPTH = 3;
+    private static final int INITIAL_QUEUE_DEPTH = 2;
+
+    // Keep misses under 1% of rendered frames
+    private static final int TARGET_MISS_RATE_PERMILLE = 10;
+
+    // Number of consecutive clean windows before trying a shallower queue
+    private static final int CLEAN_WINDOWS_BEFORE_DECREASE = 5;
+
+    private static final long WINDOW_LENGTH_NS = 1000000000L;
+
+    // Render targets are remembered for this many frames to match against onFrameRendered()
+    private static final int RENDER_TARGET_HISTORY = 16;
+
+    private final long streamFrameIntervalNs;
+
+    private volatile int queueDepth = INITIAL_QUEUE_DEPTH;
+
+    private long vsyncPeriodNs;
+    private long lastVsyncTimeNs;
+
+    private final long[] targetPresentationTimeUs = new long[RENDER_TARGET_HISTORY];
+    private final long[] targetRenderTimeNs = new long[RENDER_TARGET_HISTORY];
+    private int nextTargetSlot;
+
+    // Usual delay from the vsync we targeted to the frame being presented. This is the
+    // minimum latency seen in the previous window, since a late frame can only be slower.
+    private long pipelineLatencyNs = -1;
+    private long windowMinPipelineLatencyNs = Long.MAX_VALUE;
+
+    private long windowStartNs;
+    private int windowFramesReleased;
+    private int windowUnderruns;
+    private int windowOverflows;
+    private int windowLateFrames;
+    private int consecutiveMissedVsyncs;
+    private int cleanWindows;
+
+    AdaptiveFramePacer(int streamFps, float displayRefreshRate) {
+        this.streamFrameIntervalNs = 1000000000L / streamFps;
+        this.vsyncPeriodNs = (long)(1000000000L / displayRefreshRate);
+    }
+
+    int getQueueDepth() {
+        return queueDepth;
+    }
+
+    // Called on each vsync. Returns the minimum time since the last rendered frame before
+    // another frame should be rendered. Allowing half a vsync of slack ensures we don't skip
+    // a vsync due to jitter in the frame times, while never rendering faster than the stream.
+    synchronized long onVsync(long frameTimeNanos) {
+        if (lastVsyncTimeNs != 0) {
+            long delta = frameTimeNanos - lastVsyncTimeNs;
+
+            // Skipped callbacks will have a delta of several vsync periods, so ignore those
+            if (delta > 0 && delta < vsyncPeriodNs + vsyncPeriodNs / 2) {
+                vsyncPeriodNs += (delta - vsyncPeriodNs) / 16;
+            }
+        }
+        lastVsyncTimeNs = frameTimeNanos;
+
+        if (windowStartNs == 0) {
+            windowStartNs = frameTimeNanos;
+        }
+        else if (frameTimeNanos - windowStartNs >= WINDOW_LENGTH_NS) {
+            evaluateWindow();
+            windowStartNs = frameTimeNanos;
+        }
+
+        return Math.max(streamFrameIntervalNs - vsyncPeriodNs / 2, 0);
+    }
+
+    // Called when a frame was due but none was ready
+    synchronized void onFrameMissed() {
+        consecutiveMissedVsyncs++;
+    }
+
+    // Called when the renderer thread had to drop a frame because the queue was full
+    synchronized void onFrameOverflowed() {
+        windowOverflows++;
+    }
+
+    // Called when a frame is released for rendering at the specified vsync
+    synchronized void onFrameReleased(long presentationTimeUs, long renderTimeNanos) {
+        // A single missed vsync followed by a frame means the frame arrived just too late.
+        // Longer gaps are the host not sending frames (like a static desktop), not jitter.
+        if (consecutiveMissedVsyncs == 1) {
+            windowUnderruns++;
+        }
+        consecutiveMissedVsyncs = 0;
+        windowFramesReleased++;
+
+        targetPresentationTimeUs[nextTargetSlot] = presentationTimeUs;
+        targetRenderTimeNs[nextTargetSlot] = renderTimeNanos;
+        nextTargetSlot = (nextTargetSlot + 1) % RENDER_TARGET_HISTORY;
+    }
+
+    // Called from onFrameRendered() with the time the frame was actually presented
+    synchronized void onFrameRendered(long presentationTimeUs, long renderTimeNanos) {
+        for (int i = 0; i < RENDER_TARGET_HISTORY; i++) {
+            if (targetPresentationTimeUs[i] == presentationTimeUs && targetRenderTimeNs[i] != 0) {
+                long latencyNs = renderTimeNanos - targetRenderTimeNs[i];
+                targetRenderTimeNs[i] = 0;
+
+                if (latencyNs < 0) {
+                    return;
+                }
+
+                windowMinPipelineLatencyNs = Math.min(windowMinPipelineLatencyNs, latencyNs);
+                if (pipelineLatencyNs >= 0 && latencyNs > pipelineLatencyNs + vsyncPeriodNs / 2) {
+                    windowLateFrames++;
+                }
+                return;
+            }
+        }
+    }
+
+    private void evaluateWindow() {
+        if (windowMinPipelineLatencyNs != Long.MAX_VALUE) {
+            pipelineLatencyNs = windowMinPipelineLatencyNs;
+        }
+
+        if (windowFramesReleased > 0) {
+            int misses = windowUnderruns + windowLateFrames;
+
+            // When streaming faster than the display, overflows are expected and extra
+            // buffering wouldn't prevent them.
+            if (streamFrameIntervalNs >= vsyncPeriodNs - vsyncPeriodNs / 20) {
+                misses += windowOverflows;
+            }
+
+            int missRatePermille = misses * 1000 / windowFramesReleased;
+            if (missRatePermille > TARGET_MISS_RATE_PERMILLE) {
+                cleanWindows = 0;
+                if (queueDepth < MAX_QUEUE_DEPTH) {
+                    queueDepth++;
+                    LimeLog.info("Adaptive pacing: increasing queue depth to "+queueDepth+
+                            " (misses: "+missRatePermille/10f+"%)");
+                }
+            }
+            else if (misses == 0 && ++cleanWindows >= CLEAN_WINDOWS_BEFORE_DECREASE) {
+                cleanWindows = 0;
+                if (queueDepth > MIN_QUEUE_DEPTH) {
+                    queueDepth--;
+                    LimeLog.info("Adaptive pacing: decreasing queue depth to "+queueDepth+
+                            " (pipeline latency: "+pipelineLatencyNs/1000000f+" ms)");
+                }
+            }
+        }
+
+        windowFramesReleased = 0;
+        windowUnderruns = 0;
+        windowOverflows = 0;
+        windowLateFrames = 0;
+        windowMinPipelineLatencyNs = Long.MAX_VALUE;
+    }
+}
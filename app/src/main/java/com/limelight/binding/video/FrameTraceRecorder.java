@@ -0,0 +1,210 @@
+package com.limelight.binding.video;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+
+// Records a timeline entry for each submitted frame into preallocated arrays, so
+// tail latency can be analyzed after a session without any per-frame allocations.
+//
+// All timestamps are in microseconds on the CLOCK_MONOTONIC time base, which is shared by
+// SystemClock.uptimeMillis(), System.nanoTime(), the receive/enqueue times reported by
+// moonlight-common-c, and the render times reported by onFrameRendered().
+//
+// Each column is only written by a single thread (submission, output, or render), and entries
+// are only read back after the stream has stopped, so no synchronization is required.
+public class FrameTraceRecorder {
+    public static final int METRIC_NETWORK = 0; // First packet received -> frame reassembled
+    public static final int METRIC_DECODE = 1; // Queued to codec -> dequeued from codec
+    public static final int METRIC_RENDER = 2; // Dequeued from codec -> rendered on display
+    public static final int METRIC_TOTAL = 3; // First packet received -> rendered on display
+
+    // Maximum number of entries to search back when matching codec output to a frame
+    private static final int MAX_LOOKBACK = 64;
+
+    private final int capacity;
+    private final int mask;
+
+    private final int[] frameNumber;
+    private final long[] presentationTimeUs;
+    private final long[] receiveTimeUs;
+    private final long[] enqueueTimeUs;
+    private final long[] queueTimeUs;
+    private final long[] dequeueTimeUs;
+    private final long[] renderTimeUs;
+    private final char[] hostProcessingLatency;
+
+    // Scratch space for percentile computation
+    private final long[] sortBuffer;
+
+    // Total number of frames recorded (only written by the submission thread)
+    private volatile long recordedFrames;
+
+    public FrameTraceRecorder(int capacity) {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+            throw new IllegalArgumentException("Capacity must be a power of 2: " + capacity);
+        }
+
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+
+        this.frameNumber = new int[capacity];
+        this.presentationTimeUs = new long[capacity];
+        this.receiveTimeUs = new long[capacity];
+        this.enqueueTimeUs = new long[capacity];
+        this.queueTimeUs = new long[capacity];
+        this.dequeueTimeUs = new long[capacity];
+        this.renderTimeUs = new long[capacity];
+        this.hostProcessingLatency = new char[capacity];
+        this.sortBuffer = new long[capacity];
+    }
+
+    // Called on the submission thread just before the frame is queued to the codec
+    void recordSubmission(int frameNumber, long presentationTimeUs, long receiveTimeMs, long enqueueTimeMs,
+                          char hostProcessingLatency, long queueTimeNs) {
+        int slot = (int)(recordedFrames & mask);
+
+        this.frameNumber[slot] = frameNumber;
+        this.presentationTimeUs[slot] = presentationTimeUs;
+        this.receiveTimeUs[slot] = receiveTimeMs * 1000;
+        this.enqueueTimeUs[slot] = enqueueTimeMs * 1000;
+        this.queueTimeUs[slot] = queueTimeNs / 1000;
+        this.dequeueTimeUs[slot] = 0;
+        this.renderTimeUs[slot] = 0;
+        this.hostProcessingLatency[slot] = hostProcessingLatency;
+
+        // Publish this entry to the output and render threads
+        recordedFrames++;
+    }
+
+    // Called on the renderer thread when the frame is dequeued from the codec
+    void recordOutput(long presentationTimeUs, long dequeueTimeNs) {
+        int slot = findSlot(presentationTimeUs);
+        if (slot >= 0) {
+            dequeueTimeUs[slot] = dequeueTimeNs / 1000;
+        }
+    }
+
+    // Called from onFrameRendered() when the frame is actually displayed
+    void recordRender(long presentationTimeUs, long renderTimeNs) {
+        int slot = findSlot(presentationTimeUs);
+        if (slot >= 0) {
+            renderTimeUs[slot] = renderTimeNs / 1000;
+        }
+    }
+
+    private int findSlot(long presentationTimeUs) {
+        long newest = recordedFrames - 1;
+        long oldest = Math.max(0, Math.max(newest - MAX_LOOKBACK, recordedFrames - capacity));
+
+        // Frames come out in order, so we'll usually find it near the newest entry
+        for (long i = newest; i >= oldest; i--) {
+            int slot = (int)(i & mask);
+            if (this.presentationTimeUs[slot] == presentationTimeUs) {
+                return slot;
+            }
+        }
+
+        return -1;
+    }
+
+    public int getFrameCount() {
+        return (int)Math.min(recordedFrames, capacity);
+    }
+
+    private long getMetricUs(int slot, int metric) {
+        switch (metric) {
+            case METRIC_NETWORK:
+                return enqueueTimeUs[slot] - receiveTimeUs[slot];
+            case METRIC_DECODE:
+                return dequeueTimeUs[slot] != 0 ? dequeueTimeUs[slot] - queueTimeUs[slot] : -1;
+            case METRIC_RENDER:
+                return renderTimeUs[slot] != 0 && dequeueTimeUs[slot] != 0 ? renderTimeUs[slot] - dequeueTimeUs[slot] : -1;
+            case METRIC_TOTAL:
+                return renderTimeUs[slot] != 0 ? renderTimeUs[slot] - receiveTimeUs[slot] : -1;
+            default:
+                throw new IllegalArgumentException("Unknown metric: " + metric);
+        }
+    }
+
+    // Returns the requested percentiles (0-100) of the metric in microseconds. Frames that
+    // don't have the required timestamps (like frames that were never rendered) are skipped.
+    // Returns null if no frames have data for the metric.
+    public synchronized long[] getPercentilesUs(int metric, int... percentiles) {
+        int frames = getFrameCount();
+        int count = 0;
+
+        for (int i = 0; i < frames; i++) {
+            long value = getMetricUs(i, metric);
+            if (value >= 0) {
+                sortBuffer[count++] = value;
+            }
+        }
+
+        if (count == 0) {
+            return null;
+        }
+
+        Arrays.sort(sortBuffer, 0, count);
+
+        long[] values = new long[percentiles.length];
+        for (int i = 0; i < percentiles.length; i++) {
+            // Nearest-rank method
+            int rank = (int)Math.ceil(percentiles[i] / 100.0 * count);
+            values[i] = sortBuffer[Math.max(0, Math.min(count, rank) - 1)];
+        }
+
+        return values;
+    }
+
+    public String getSummary() {
+        String[] names = {"Network", "Decode", "Render", "Total"};
+        StringBuilder sb = new StringBuilder();
+
+        sb.append("Frame trace (").append(getFrameCount()).append(" frames) p50/p95/p99:");
+        for (int metric = METRIC_NETWORK; metric <= METRIC_TOTAL; metric++) {
+            long[] values = getPercentilesUs(metric, 50, 95, 99);
+
+            sb.append(' ').append(names[metric]).append(' ');
+            if (values != null) {
+                sb.append(String.format("%.1f/%.1f/%.1f ms", values[0] / 1000f, values[1] / 1000f, values[2] / 1000f));
+            }
+            else {
+                sb.append("N/A");
+            }
+        }
+
+        return sb.toString();
+    }
+
+    // Writes all recorded frames to a CSV file in the order they were submitted
+    public void writeCsv(File file) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+            writer.write("frame,receive_us,enqueue_us,queue_us,dequeue_us,render_us,host_latency_ms\n");
+
+            long total = recordedFrames;
+            for (long i = Math.max(0, total - capacity); i < total; i++) {
+                int slot = (int)(i & mask);
+
+                writer.write(Integer.toString(frameNumber[slot]));
+                writer.write(',');
+                writer.write(Long.toString(receiveTimeUs[slot]));
+                writer.write(',');
+                writer.write(Long.toString(enqueueTimeUs[slot]));
+                writer.write(',');
+                writer.write(Long.toString(queueTimeUs[slot]));
+                writer.write(',');
+                writer.write(Long.toString(dequeueTimeUs[slot]));
+                writer.write(',');
+                writer.write(Long.toString(renderTimeUs[slot]));
+                writer.write(',');
+
+                // Host processing latency is reported in units of 0.1 ms
+                writer.write(Float.toString(hostProcessingLatency[slot] / 10f));
+                writer.write('\n');
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.limelight.binding.video;
+
+// MediaCodec input buffer indices that the asynchronous codec callback has handed to us
+// and that haven't been filled yet. The callback thread adds indices as the decoder frees
+// them, and the thread submitting decode units takes them in the order they were freed.
+//
+// The number of input buffers is fixed by the decoder, so the ring only grows if a decoder
+// has more than we expected and never allocates after that.
+class InputBufferPool {
+    static final int EMPTY = -1;
+
+    private int[] ring = new int[16];
+    private int head;
+    private int count;
+
+    synchronized void offer(int bufferIndex) {
+        if (count == ring.length) {
+            int[] newRing = new int[ring.length * 2];
+            for (int i = 0; i < count; i++) {
+                newRing[i] = ring[(head + i) % ring.length];
+            }
+            ring = newRing;
+            head = 0;
+        }
+
+        ring[(head + count) % ring.length] = bufferIndex;
+        count++;
+
+        notify();
+    }
+
+    // Returns the oldest buffer index, waiting up to timeoutMs for one to become available.
+    // Returns EMPTY if none became available in time.
+    synchronized int poll(long timeoutMs) {
+        if (count == 0) {
+            try {
+                wait(timeoutMs);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+
+                // InterruptedException clears the thread's interrupt status. Since we can't
+                // handle that here, we will re-interrupt the thread to set the interrupt
+                // status back to true.
+                Thread.currentThread().interrupt();
+            }
+
+            if (count == 0) {
+                return EMPTY;
+            }
+        }
+
+        int bufferIndex = ring[head];
+        head = (head + 1) % ring.length;
+        count--;
+        return bufferIndex;
+    }
+
+    // The indices are invalidated when the decoder is flushed, stopped, or reset
+    synchronized void clear() {
+        head = 0;
+        count = 0;
+    }
+}
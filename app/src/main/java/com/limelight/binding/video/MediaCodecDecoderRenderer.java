@@ -6,7 +6,6 @@ import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jcodec.codecs.h264.H264Utils;
@@ -15,14 +14,12 @@ import org.jcodec.codecs.h264.io.model.VUIParameters;
 
 import com.limelight.BuildConfig;
 import com.limelight.LimeLog;
-import com.limelight.R;
+import com.limelight.binding.audio.AudioStatsProvider;
 import com.limelight.nvstream.av.video.VideoDecoderRenderer;
 import com.limelight.nvstream.jni.MoonBridge;
 import com.limelight.preferences.PreferenceConfiguration;
 
-import android.annotation.TargetApi;
 import android.app.Activity;
-import android.content.Context;
 import android.media.MediaCodec;
 import android.media.MediaCodecInfo;
 import android.media.MediaFormat;
@@ -59,7 +56,6 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
     private int nextInputBufferIndex = -1;
     private ByteBuffer nextInputBuffer;
 
-    private Context context;
     private Activity activity;
     private MediaCodec videoDecoder;
     private Thread rendererThread;
@@ -78,7 +74,11 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
     private int consecutiveCrashCount;
     private String glRenderer;
     private boolean foreground = true;
-    private PerfOverlayListener perfListener;
+    private PerfOverlayUpdater perfOverlayUpdater;
+    private String activeDecoderName;
+    private MediaCodecInfo activeDecoderInfo;
+    private String activeMimeType;
+    private String streamResolution;
 
     private static final int CR_MAX_TRIES = 10;
     private static final int CR_RECOVERY_TYPE_NONE = 0;
@@ -111,18 +111,39 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
     private VideoStats activeWindowVideoStats;
     private VideoStats lastWindowVideoStats;
     private VideoStats globalVideoStats;
+    private FrameTraceRecorder frameTrace;
+    private static final int FRAME_TRACE_CAPACITY = 16384;
 
     private long lastTimestampUs;
     private int lastFrameNumber;
     private int refreshRate;
     private PreferenceConfiguration prefs;
 
-    private LinkedBlockingQueue<Integer> outputBufferQueue = new LinkedBlockingQueue<>();
     private static final int OUTPUT_BUFFER_QUEUE_LIMIT = 2;
+    private static final int OUTPUT_BUFFER_QUEUE_CAPACITY = 4; // Must hold AdaptiveFramePacer.MAX_QUEUE_DEPTH
+    private final OutputBufferRing outputBufferQueue = new OutputBufferRing(OUTPUT_BUFFER_QUEUE_CAPACITY);
     private long lastRenderedFrameTimeNanos;
+    private AdaptiveFramePacer framePacer;
+
+    // Presentation time of each queued output buffer for matching with onFrameRendered()
+    private final long[] outputBufferPresentationTimeUs = new long[64];
     private HandlerThread choreographerHandlerThread;
     private Handler choreographerHandler;
 
+    // With the asynchronous engine, MediaCodec delivers buffers to callbacks on this thread
+    // instead of us polling for them. Free input buffers wait in the pool until a decode unit
+    // arrives, and output buffers are rendered or queued right from the callback.
+    private boolean asyncEngine;
+    private HandlerThread asyncCodecHandlerThread;
+    private Handler asyncCodecHandler;
+    private MediaCodec.Callback asyncCodecCallback;
+    private final InputBufferPool asyncInputBuffers = new InputBufferPool();
+    private volatile int asyncCodecGeneration;
+
+    // Average decode time of the engine we're not using over its streams with this configuration
+    private float otherEngineDecodeTimeMs = -1;
+    private static final int ENGINE_MEASUREMENT_MIN_FRAMES = 600;
+
     private int numSpsIn;
     private int numPpsIn;
     private int numVpsIn;
@@ -137,54 +158,10 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
         return decoder;
     }
 
-    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
-    private boolean decoderCanMeetPerformancePoint(MediaCodecInfo.VideoCapabilities caps, PreferenceConfiguration prefs) {
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
-            MediaCodecInfo.VideoCapabilities.PerformancePoint targetPerfPoint = new MediaCodecInfo.VideoCapabilities.PerformancePoint(prefs.width, prefs.height, prefs.fps);
-            List<MediaCodecInfo.VideoCapabilities.PerformancePoint> perfPoints = caps.getSupportedPerformancePoints();
-            if (perfPoints != null) {
-                for (MediaCodecInfo.VideoCapabilities.PerformancePoint perfPoint : perfPoints) {
-                    // If we find a performance point that covers our target, we're good to go
-                    if (perfPoint.covers(targetPerfPoint)) {
-                        return true;
-                    }
-                }
-
-                // We had performance point data but none met the specified streaming settings
-                return false;
-            }
-
-            // Fall-through to try the Android M API if there's no performance point data
-        }
-
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-            try {
-                // We'll ask the decoder what it can do for us at this resolution and see if our
-                // requested frame rate falls below or inside the range of achievable frame rates.
-                Range<Double> fpsRange = caps.getAchievableFrameRatesFor(prefs.width, prefs.height);
-                if (fpsRange != null) {
-                    return prefs.fps <= fpsRange.getUpper();
-                }
-
-                // Fall-through to try the Android L API if there's no performance point data
-            } catch (IllegalArgumentException e) {
-                // Video size not supported at any frame rate
-                return false;
-            }
-        }
-
-        // As a last resort, we will use areSizeAndRateSupported() which is explicitly NOT a
-        // performance metric, but it can work at least for the purpose of determining if
-        // the codec is going to die when given a stream with the specified settings.
-        return caps.areSizeAndRateSupported(prefs.width, prefs.height, prefs.fps);
-    }
-
     private boolean decoderCanMeetPerformancePointWithHevcAndNotAvc(MediaCodecInfo hevcDecoderInfo, MediaCodecInfo avcDecoderInfo, PreferenceConfiguration prefs) {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-            MediaCodecInfo.VideoCapabilities avcCaps = avcDecoderInfo.getCapabilitiesForType("video/avc").getVideoCapabilities();
-            MediaCodecInfo.VideoCapabilities hevcCaps = hevcDecoderInfo.getCapabilitiesForType("video/hevc").getVideoCapabilities();
-
-            return !decoderCanMeetPerformancePoint(avcCaps, prefs) && decoderCanMeetPerformancePoint(hevcCaps, prefs);
+            return !MediaCodecHelper.decoderCanMeetPerformancePoint(avcDecoderInfo, "video/avc", prefs.width, prefs.height, prefs.fps) &&
+                    MediaCodecHelper.decoderCanMeetPerformancePoint(hevcDecoderInfo, "video/hevc", prefs.width, prefs.height, prefs.fps);
         }
         else {
             // No performance data
@@ -194,10 +171,8 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
 
     private boolean decoderCanMeetPerformancePointWithAv1AndNotHevc(MediaCodecInfo av1DecoderInfo, MediaCodecInfo hevcDecoderInfo, PreferenceConfiguration prefs) {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-            MediaCodecInfo.VideoCapabilities av1Caps = av1DecoderInfo.getCapabilitiesForType("video/av01").getVideoCapabilities();
-            MediaCodecInfo.VideoCapabilities hevcCaps = hevcDecoderInfo.getCapabilitiesForType("video/hevc").getVideoCapabilities();
-
-            return !decoderCanMeetPerformancePoint(hevcCaps, prefs) && decoderCanMeetPerformancePoint(av1Caps, prefs);
+            return !MediaCodecHelper.decoderCanMeetPerformancePoint(hevcDecoderInfo, "video/hevc", prefs.width, prefs.height, prefs.fps) &&
+                    MediaCodecHelper.decoderCanMeetPerformancePoint(av1DecoderInfo, "video/av01", prefs.width, prefs.height, prefs.fps);
         }
         else {
             // No performance data
@@ -207,10 +182,8 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
 
     private boolean decoderCanMeetPerformancePointWithAv1AndNotAvc(MediaCodecInfo av1DecoderInfo, MediaCodecInfo avcDecoderInfo, PreferenceConfiguration prefs) {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-            MediaCodecInfo.VideoCapabilities avcCaps = avcDecoderInfo.getCapabilitiesForType("video/avc").getVideoCapabilities();
-            MediaCodecInfo.VideoCapabilities av1Caps = av1DecoderInfo.getCapabilitiesForType("video/av01").getVideoCapabilities();
-
-            return !decoderCanMeetPerformancePoint(avcCaps, prefs) && decoderCanMeetPerformancePoint(av1Caps, prefs);
+            return !MediaCodecHelper.decoderCanMeetPerformancePoint(avcDecoderInfo, "video/avc", prefs.width, prefs.height, prefs.fps) &&
+                    MediaCodecHelper.decoderCanMeetPerformancePoint(av1DecoderInfo, "video/av01", prefs.width, prefs.height, prefs.fps);
         }
         else {
             // No performance data
@@ -301,18 +274,24 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
                                      String glRenderer, PerfOverlayListener perfListener) {
         //dumpDecoders();
 
-        this.context = activity;
         this.activity = activity;
         this.prefs = prefs;
         this.crashListener = crashListener;
         this.consecutiveCrashCount = consecutiveCrashCount;
         this.glRenderer = glRenderer;
-        this.perfListener = perfListener;
+
+        if (prefs.enablePerfOverlay) {
+            this.perfOverlayUpdater = new PerfOverlayUpdater(activity, perfListener);
+        }
 
         this.activeWindowVideoStats = new VideoStats();
         this.lastWindowVideoStats = new VideoStats();
         this.globalVideoStats = new VideoStats();
 
+        if (prefs.enableFrameTrace) {
+            this.frameTrace = new FrameTraceRecorder(FRAME_TRACE_CAPACITY);
+        }
+
         avcDecoder = findAvcDecoder();
         if (avcDecoder != null) {
             LimeLog.info("Selected AVC decoder: "+avcDecoder.getName());
@@ -398,11 +377,9 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
             return false;
         }
 
-        for (MediaCodecInfo.CodecProfileLevel profileLevel : hevcDecoder.getCapabilitiesForType("video/hevc").profileLevels) {
-            if (profileLevel.profile == MediaCodecInfo.CodecProfileLevel.HEVCProfileMain10HDR10) {
-                LimeLog.info("HEVC decoder "+hevcDecoder.getName()+" supports HEVC Main10 HDR10");
-                return true;
-            }
+        if (MediaCodecHelper.decoderSupportsProfile(hevcDecoder, "video/hevc", MediaCodecInfo.CodecProfileLevel.HEVCProfileMain10HDR10)) {
+            LimeLog.info("HEVC decoder "+hevcDecoder.getName()+" supports HEVC Main10 HDR10");
+            return true;
         }
 
         return false;
@@ -417,11 +394,9 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
             return false;
         }
 
-        for (MediaCodecInfo.CodecProfileLevel profileLevel : av1Decoder.getCapabilitiesForType("video/av01").profileLevels) {
-            if (profileLevel.profile == MediaCodecInfo.CodecProfileLevel.AV1ProfileMain10HDR10) {
-                LimeLog.info("AV1 decoder "+av1Decoder.getName()+" supports AV1 Main 10 HDR10");
-                return true;
-            }
+        if (MediaCodecHelper.decoderSupportsProfile(av1Decoder, "video/av01", MediaCodecInfo.CodecProfileLevel.AV1ProfileMain10HDR10)) {
+            LimeLog.info("AV1 decoder "+av1Decoder.getName()+" supports AV1 Main 10 HDR10");
+            return true;
         }
 
         return false;
@@ -540,6 +515,12 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
 
         Surface renderSurface = renderTarget.getSurface();
 
+        if (asyncEngine) {
+            // This must be set before configure(). Codec recovery may give us a new decoder
+            // instance, so we set it each time rather than once per stream.
+            videoDecoder.setCallback(asyncCodecCallback, asyncCodecHandler);
+        }
+
         videoDecoder.configure(format, renderSurface, null, 0);
 
         float surfaceRefreshRate = this.refreshRate;
@@ -672,10 +653,32 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
             return -3;
         }
 
+        activeDecoderName = selectedDecoderInfo.getName();
+        activeDecoderInfo = selectedDecoderInfo;
+        activeMimeType = mimeType;
+        streamResolution = initialWidth + "x" + initialHeight;
+
+        // The engine is picked once per stream. If we're recreating the decoder during codec
+        // recovery, the threads for the current engine are already running.
+        if (rendererThread == null && asyncCodecHandlerThread == null) {
+            asyncEngine = MediaCodecHelper.decoderShouldUseAsyncEngine(selectedDecoderInfo, mimeType, prefs.decoderEngine,
+                    videoFormat, initialWidth, initialHeight, refreshRate, prefs.bitrate);
+            otherEngineDecodeTimeMs = MediaCodecHelper.getEngineDecodeTimeMs(selectedDecoderInfo, mimeType, !asyncEngine,
+                    videoFormat, initialWidth, initialHeight, refreshRate, prefs.bitrate);
+            LimeLog.info("Using "+(asyncEngine ? "asynchronous" : "blocking")+" decoder engine");
+
+            if (asyncEngine) {
+                startAsyncCodecThread();
+            }
+        }
+
         adaptivePlayback = MediaCodecHelper.decoderSupportsAdaptivePlayback(selectedDecoderInfo, mimeType);
         fusedIdrFrame = MediaCodecHelper.decoderSupportsFusedIdrFrame(selectedDecoderInfo, mimeType);
 
-        for (int tryNumber = 0;; tryNumber++) {
+        // Skip the low latency options that failed last time
+        int firstTryNumber = MediaCodecHelper.getFirstLowLatencyTryNumber(selectedDecoderInfo, mimeType, prefs.enableUltraLowLatency,
+                videoFormat, initialWidth, initialHeight, refreshRate);
+        for (int tryNumber = firstTryNumber;; tryNumber++) {
             LimeLog.info("Decoder configuration try: "+tryNumber);
 
             MediaFormat mediaFormat = createBaseMediaFormat(mimeType);
@@ -686,6 +689,8 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
             // Throw the underlying codec exception on the last attempt if the caller requested it
             if (tryConfigureDecoder(selectedDecoderInfo, mediaFormat, !newFormat && throwOnCodecError)) {
                 // Success!
+                MediaCodecHelper.setWorkingLowLatencyTryNumber(selectedDecoderInfo, mimeType, prefs.enableUltraLowLatency,
+                        videoFormat, initialWidth, initialHeight, refreshRate, tryNumber);
                 break;
             }
 
@@ -695,10 +700,17 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
             }
         }
 
-        if (USE_FRAME_RENDER_TIME && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+        if ((USE_FRAME_RENDER_TIME || frameTrace != null || framePacer != null) && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
             videoDecoder.setOnFrameRenderedListener(new MediaCodec.OnFrameRenderedListener() {
                 @Override
                 public void onFrameRendered(MediaCodec mediaCodec, long presentationTimeUs, long renderTimeNanos) {
+                    if (frameTrace != null) {
+                        frameTrace.recordRender(presentationTimeUs, renderTimeNanos);
+                    }
+                    if (framePacer != null) {
+                        framePacer.onFrameRendered(presentationTimeUs, renderTimeNanos);
+                    }
+
                     long delta = (renderTimeNanos / 1000000L) - (presentationTimeUs / 1000);
                     if (delta >= 0 && delta < 1000) {
                         if (USE_FRAME_RENDER_TIME) {
@@ -719,6 +731,11 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
         this.videoFormat = format;
         this.refreshRate = redrawRate;
 
+        if (prefs.framePacing == PreferenceConfiguration.FRAME_PACING_ADAPTIVE) {
+            framePacer = new AdaptiveFramePacer(redrawRate,
+                    activity.getWindowManager().getDefaultDisplay().getRefreshRate());
+        }
+
         return initializeDecoder(false);
     }
 
@@ -737,6 +754,12 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
                 // If we have no choreographer thread, we can just mark that as quiesced right now.
                 codecRecoveryThreadQuiescedFlags |= CR_FLAG_CHOREOGRAPHER;
             }
+            if (asyncEngine) {
+                // There's no renderer thread with the asynchronous engine. The codec callbacks
+                // can't quiesce themselves since they stop coming when the codec dies, so they
+                // take the codecRecoveryMonitor and skip all work while recovery is pending.
+                codecRecoveryThreadQuiescedFlags |= CR_FLAG_RENDER_THREAD;
+            }
 
             codecRecoveryThreadQuiescedFlags |= quiescenceFlag;
 
@@ -746,12 +769,21 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
                 nextInputBuffer = null;
                 nextInputBufferIndex = -1;
                 outputBufferQueue.clear();
+                asyncInputBuffers.clear();
+
+                // Any codec callback that was already waiting for us to finish has a stale buffer
+                asyncCodecGeneration++;
 
                 // If we just need a flush, do so now with all threads quiesced.
                 if (codecRecoveryType.get() == CR_RECOVERY_TYPE_FLUSH) {
                     LimeLog.warning("Flushing decoder");
                     try {
                         videoDecoder.flush();
+                        if (asyncEngine) {
+                            // In asynchronous mode, the decoder stays paused after a flush
+                            // until we start it again.
+                            videoDecoder.start();
+                        }
                         codecRecoveryType.set(CR_RECOVERY_TYPE_NONE);
                     } catch (IllegalStateException e) {
                         e.printStackTrace();
@@ -996,15 +1028,39 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
         // Don't render unless a new frame is due. This prevents microstutter when streaming
         // at a frame rate that doesn't match the display (such as 60 FPS on 120 Hz).
         long actualFrameTimeDeltaNs = frameTimeNanos - lastRenderedFrameTimeNanos;
-        long expectedFrameTimeDeltaNs = 800000000 / refreshRate; // within 80% of the next frame
+        long expectedFrameTimeDeltaNs;
+        if (framePacer != null) {
+            expectedFrameTimeDeltaNs = framePacer.onVsync(frameTimeNanos);
+        }
+        else {
+            expectedFrameTimeDeltaNs = 800000000 / refreshRate; // within 80% of the next frame
+        }
         if (actualFrameTimeDeltaNs >= expectedFrameTimeDeltaNs) {
             // Render up to one frame when in frame pacing mode.
             //
             // NB: Since the queue limit is 2, we won't starve the decoder of output buffers
             // by holding onto them for too long. This also ensures we will have that 1 extra
             // frame of buffer to smooth over network/rendering jitter.
-            Integer nextOutputBuffer = outputBufferQueue.poll();
-            if (nextOutputBuffer != null) {
+            int nextOutputBuffer = outputBufferQueue.poll();
+            if (framePacer != null) {
+                // If the adaptive pacer has just made the queue shallower, skip to the newest
+                // frames now rather than waiting for the renderer thread to overflow the queue.
+                int queueDepth = framePacer.getQueueDepth();
+                while (nextOutputBuffer != OutputBufferRing.EMPTY && outputBufferQueue.size() >= queueDepth) {
+                    try {
+                        videoDecoder.releaseOutputBuffer(nextOutputBuffer, false);
+                    } catch (IllegalStateException e) {
+                        e.printStackTrace();
+                        handleDecoderException(e);
+                    }
+                    nextOutputBuffer = outputBufferQueue.poll();
+                }
+
+                if (nextOutputBuffer == OutputBufferRing.EMPTY) {
+                    framePacer.onFrameMissed();
+                }
+            }
+            if (nextOutputBuffer != OutputBufferRing.EMPTY) {
                 try {
                     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
                         videoDecoder.releaseOutputBuffer(nextOutputBuffer, frameTimeNanos);
@@ -1015,6 +1071,10 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
 
                     lastRenderedFrameTimeNanos = frameTimeNanos;
                     activeWindowVideoStats.totalFramesRendered++;
+
+                    if (framePacer != null && nextOutputBuffer < outputBufferPresentationTimeUs.length) {
+                        framePacer.onFrameReleased(outputBufferPresentationTimeUs[nextOutputBuffer], frameTimeNanos);
+                    }
                 } catch (IllegalStateException ignored) {
                     try {
                         // Try to avoid leaking the output buffer by releasing it without rendering
@@ -1036,8 +1096,13 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
         Choreographer.getInstance().postFrameCallback(this);
     }
 
+    private boolean usesChoreographerPacing() {
+        return prefs.framePacing == PreferenceConfiguration.FRAME_PACING_BALANCED ||
+                prefs.framePacing == PreferenceConfiguration.FRAME_PACING_ADAPTIVE;
+    }
+
     private void startChoreographerThread() {
-        if (prefs.framePacing != PreferenceConfiguration.FRAME_PACING_BALANCED) {
+        if (!usesChoreographerPacing()) {
             // Not using Choreographer in this pacing mode
             return;
         }
@@ -1072,8 +1137,12 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
 
                             numFramesOut++;
 
-                            // Render the latest frame now if frame pacing isn't in balanced mode
-                            if (prefs.framePacing != PreferenceConfiguration.FRAME_PACING_BALANCED) {
+                            if (frameTrace != null) {
+                                frameTrace.recordOutput(presentationTimeUs, System.nanoTime());
+                            }
+
+                            // Render the latest frame now if frame pacing isn't in balanced or adaptive mode
+                            if (!usesChoreographerPacing()) {
                                 // Get the last output buffer in the queue
                                 while ((outIndex = videoDecoder.dequeueOutputBuffer(info, 0)) >= 0) {
                                     videoDecoder.releaseOutputBuffer(lastIndex, false);
@@ -1082,63 +1151,14 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
 
                                     lastIndex = outIndex;
                                     presentationTimeUs = info.presentationTimeUs;
-                                }
 
-                                if (prefs.framePacing == PreferenceConfiguration.FRAME_PACING_MAX_SMOOTHNESS ||
-                                        prefs.framePacing == PreferenceConfiguration.FRAME_PACING_CAP_FPS) {
-                                    // In max smoothness or cap FPS mode, we want to never drop frames
-                                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-                                        // Use a PTS that will cause this frame to never be dropped
-                                        videoDecoder.releaseOutputBuffer(lastIndex, 0);
-                                    }
-                                    else {
-                                        videoDecoder.releaseOutputBuffer(lastIndex, true);
-                                    }
-                                }
-                                else {
-                                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-                                        // Use a PTS that will cause this frame to be dropped if another comes in within
-                                        // the same V-sync period
-                                        videoDecoder.releaseOutputBuffer(lastIndex, System.nanoTime());
-                                    }
-                                    else {
-                                        videoDecoder.releaseOutputBuffer(lastIndex, true);
+                                    if (frameTrace != null) {
+                                        frameTrace.recordOutput(presentationTimeUs, System.nanoTime());
                                     }
                                 }
-
-                                activeWindowVideoStats.totalFramesRendered++;
-                            }
-                            else {
-                                // For balanced frame pacing case, the Choreographer callback will handle rendering.
-                                // We just put all frames into the output buffer queue and let it handle things.
-
-                                // Discard the oldest buffer if we've exceeded our limit.
-                                //
-                                // NB: We have to do this on the producer side because the consumer may not
-                                // run for a while (if there is a huge mismatch between stream FPS and display
-                                // refresh rate).
-                                if (outputBufferQueue.size() == OUTPUT_BUFFER_QUEUE_LIMIT) {
-                                    try {
-                                        videoDecoder.releaseOutputBuffer(outputBufferQueue.take(), false);
-                                    } catch (InterruptedException e) {
-                                        // We're shutting down, so we can just drop this buffer on the floor
-                                        // and it will be reclaimed when the codec is released.
-                                        return;
-                                    }
-                                }
-
-                                // Add this buffer
-                                outputBufferQueue.add(lastIndex);
                             }
 
-                            // Add delta time to the totals (excluding probable outliers)
-                            long delta = SystemClock.uptimeMillis() - (presentationTimeUs / 1000);
-                            if (delta >= 0 && delta < 1000) {
-                                activeWindowVideoStats.decoderTimeMs += delta;
-                                if (!USE_FRAME_RENDER_TIME) {
-                                    activeWindowVideoStats.totalTimeMs += delta;
-                                }
-                            }
+                            renderOutputBuffer(lastIndex, presentationTimeUs);
                         } else {
                             switch (outIndex) {
                                 case MediaCodec.INFO_TRY_AGAIN_LATER:
@@ -1165,6 +1185,143 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
         rendererThread.start();
     }
 
+    // Renders the output buffer now or queues it for the Choreographer, depending on the
+    // frame pacing mode. This is called on the renderer thread or the codec callback thread.
+    private void renderOutputBuffer(int bufferIndex, long presentationTimeUs) {
+        if (!usesChoreographerPacing()) {
+            if (prefs.framePacing == PreferenceConfiguration.FRAME_PACING_MAX_SMOOTHNESS ||
+                    prefs.framePacing == PreferenceConfiguration.FRAME_PACING_CAP_FPS) {
+                // In max smoothness or cap FPS mode, we want to never drop frames
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                    // Use a PTS that will cause this frame to never be dropped
+                    videoDecoder.releaseOutputBuffer(bufferIndex, 0);
+                }
+                else {
+                    videoDecoder.releaseOutputBuffer(bufferIndex, true);
+                }
+            }
+            else {
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                    // Use a PTS that will cause this frame to be dropped if another comes in within
+                    // the same V-sync period
+                    videoDecoder.releaseOutputBuffer(bufferIndex, System.nanoTime());
+                }
+                else {
+                    videoDecoder.releaseOutputBuffer(bufferIndex, true);
+                }
+            }
+
+            activeWindowVideoStats.totalFramesRendered++;
+        }
+        else {
+            // For balanced and adaptive frame pacing, the Choreographer callback will handle
+            // rendering. We just put all frames into the output buffer queue and let it handle things.
+            int queueLimit = OUTPUT_BUFFER_QUEUE_LIMIT;
+            if (framePacer != null) {
+                queueLimit = framePacer.getQueueDepth();
+                if (bufferIndex < outputBufferPresentationTimeUs.length) {
+                    // Published to the Choreographer thread by the queue insertion below
+                    outputBufferPresentationTimeUs[bufferIndex] = presentationTimeUs;
+                }
+            }
+
+            // Add this buffer and discard the oldest buffer if we've exceeded our limit.
+            //
+            // NB: We have to do this on the producer side because the consumer may not
+            // run for a while (if there is a huge mismatch between stream FPS and display
+            // refresh rate).
+            int droppedIndex = outputBufferQueue.offerDroppingOldest(bufferIndex, queueLimit);
+            if (droppedIndex != OutputBufferRing.EMPTY) {
+                videoDecoder.releaseOutputBuffer(droppedIndex, false);
+                if (framePacer != null) {
+                    framePacer.onFrameOverflowed();
+                }
+            }
+        }
+
+        // Add delta time to the totals (excluding probable outliers)
+        long delta = SystemClock.uptimeMillis() - (presentationTimeUs / 1000);
+        if (delta >= 0 && delta < 1000) {
+            activeWindowVideoStats.decoderTimeMs += delta;
+            if (!USE_FRAME_RENDER_TIME) {
+                activeWindowVideoStats.totalTimeMs += delta;
+            }
+        }
+    }
+
+    private void startAsyncCodecThread() {
+        // This thread takes the place of the renderer thread, so it gets a similar priority
+        asyncCodecHandlerThread = new HandlerThread("Video - Codec Callbacks", Process.THREAD_PRIORITY_DISPLAY);
+        asyncCodecHandlerThread.start();
+        asyncCodecHandler = new Handler(asyncCodecHandlerThread.getLooper());
+
+        asyncCodecCallback = new MediaCodec.Callback() {
+            @Override
+            public void onInputBufferAvailable(MediaCodec codec, int index) {
+                int generation = asyncCodecGeneration;
+                synchronized (codecRecoveryMonitor) {
+                    if (isStaleAsyncCallback(codec, generation)) {
+                        return;
+                    }
+
+                    // This will be picked up by fetchNextInputBuffer()
+                    asyncInputBuffers.offer(index);
+                }
+            }
+
+            @Override
+            public void onOutputBufferAvailable(MediaCodec codec, int index, BufferInfo info) {
+                int generation = asyncCodecGeneration;
+                synchronized (codecRecoveryMonitor) {
+                    if (isStaleAsyncCallback(codec, generation)) {
+                        return;
+                    }
+
+                    numFramesOut++;
+
+                    if (frameTrace != null) {
+                        frameTrace.recordOutput(info.presentationTimeUs, System.nanoTime());
+                    }
+
+                    try {
+                        // Each buffer arrives in its own callback, so there's no need to skip ahead to
+                        // the newest one like the renderer thread does. In lowest latency mode, the
+                        // release timestamp lets SurfaceFlinger drop this frame if a newer one arrives
+                        // before the next V-sync.
+                        renderOutputBuffer(index, info.presentationTimeUs);
+                    } catch (IllegalStateException e) {
+                        handleDecoderException(e);
+                    }
+                }
+            }
+
+            @Override
+            public void onError(MediaCodec codec, CodecException e) {
+                if (codec != videoDecoder) {
+                    return;
+                }
+
+                // If this requires recovery, the input thread will perform it the next
+                // time it tries to get an input buffer.
+                handleDecoderException(e);
+            }
+
+            @Override
+            public void onOutputFormatChanged(MediaCodec codec, MediaFormat format) {
+                LimeLog.info("Output format changed");
+                outputFormat = format;
+                LimeLog.info("New output format: " + outputFormat);
+            }
+        };
+    }
+
+    // Must be called while holding the codecRecoveryMonitor. The generation must be read
+    // before taking the monitor, so we can tell if a recovery happened while we waited for it.
+    private boolean isStaleAsyncCallback(MediaCodec codec, int generation) {
+        return stopping || codec != videoDecoder || generation != asyncCodecGeneration ||
+                codecRecoveryType.get() != CR_RECOVERY_TYPE_NONE;
+    }
+
     private boolean fetchNextInputBuffer() {
         long startTime;
         boolean codecRecovered;
@@ -1179,7 +1336,18 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
         try {
             // If we don't have an input buffer index yet, fetch one now
             while (nextInputBufferIndex < 0 && !stopping) {
-                nextInputBufferIndex = videoDecoder.dequeueInputBuffer(10000);
+                if (asyncEngine) {
+                    nextInputBufferIndex = asyncInputBuffers.poll(10);
+
+                    // The codec callbacks stop when the decoder dies, so we must leave
+                    // to perform the recovery rather than waiting on the pool forever.
+                    if (nextInputBufferIndex < 0 && codecRecoveryType.get() != CR_RECOVERY_TYPE_NONE) {
+                        break;
+                    }
+                }
+                else {
+                    nextInputBufferIndex = videoDecoder.dequeueInputBuffer(10000);
+                }
             }
 
             // Get the backing ByteBuffer for the input buffer index
@@ -1241,7 +1409,14 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
 
     @Override
     public void start() {
-        startRendererThread();
+        if (perfOverlayUpdater != null) {
+            perfOverlayUpdater.start();
+        }
+
+        // With the asynchronous engine, the codec callbacks do the renderer thread's work
+        if (!asyncEngine) {
+            startRendererThread();
+        }
         startChoreographerThread();
     }
 
@@ -1261,6 +1436,11 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
             codecRecoveryMonitor.notifyAll();
         }
 
+        // Stop delivering codec callbacks (if we're using them)
+        if (asyncCodecHandlerThread != null) {
+            asyncCodecHandlerThread.quit();
+        }
+
         // Post a quit message to the Choreographer looper (if we have one)
         if (choreographerHandler != null) {
             choreographerHandler.post(new Runnable() {
@@ -1295,9 +1475,18 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
             }
         }
 
-        // Wait for the renderer thread to shut down
+        if (perfOverlayUpdater != null) {
+            perfOverlayUpdater.stop();
+        }
+
+        // Wait for the renderer thread or codec callback thread to shut down
         try {
-            rendererThread.join();
+            if (rendererThread != null) {
+                rendererThread.join();
+            }
+            if (asyncCodecHandlerThread != null) {
+                asyncCodecHandlerThread.join();
+            }
         } catch (InterruptedException e) {
             e.printStackTrace();
 
@@ -1306,6 +1495,14 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
             // status back to true.
             Thread.currentThread().interrupt();
         }
+
+        // Remember how this engine did on this decoder, so the automatic engine selection
+        // and the performance overlay can compare it with the other engine next time.
+        if (activeDecoderInfo != null && globalVideoStats.totalFramesReceived >= ENGINE_MEASUREMENT_MIN_FRAMES) {
+            MediaCodecHelper.addEngineDecodeTimeMs(activeDecoderInfo, activeMimeType, asyncEngine,
+                    videoFormat, initialWidth, initialHeight, refreshRate, prefs.bitrate,
+                    (float)globalVideoStats.decoderTimeMs / globalVideoStats.totalFramesReceived);
+        }
     }
 
     @Override
@@ -1404,11 +1601,35 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
         }
     }
 
-    @SuppressWarnings("deprecation")
     @Override
     public int submitDecodeUnit(byte[] decodeUnitData, int decodeUnitLength, int decodeUnitType,
                                 int frameNumber, int frameType, char frameHostProcessingLatency,
                                 long receiveTimeMs, long enqueueTimeMs) {
+        return submitDecodeUnitInternal(decodeUnitData, decodeUnitLength, decodeUnitType,
+                frameNumber, frameType, frameHostProcessingLatency, receiveTimeMs, enqueueTimeMs);
+    }
+
+    @Override
+    public int submitZeroCopyDecodeUnit(int decodeUnitLength, int frameNumber, int frameType,
+                                        char frameHostProcessingLatency,
+                                        long receiveTimeMs, long enqueueTimeMs) {
+        // The picture data will be written directly into the input buffer by the native code
+        return submitDecodeUnitInternal(null, decodeUnitLength, MoonBridge.BUFFER_TYPE_PICDATA,
+                frameNumber, frameType, frameHostProcessingLatency, receiveTimeMs, enqueueTimeMs);
+    }
+
+    @Override
+    public boolean supportsZeroCopySubmission() {
+        // On Lollipop and later, getInputBuffer() gives us a direct ByteBuffer that is
+        // safe to write into from native code. Prior to that, we use the byte[] path.
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+    }
+
+    // If decodeUnitData is null, the picture data will be copied from the pending native decode unit
+    @SuppressWarnings("deprecation")
+    private int submitDecodeUnitInternal(byte[] decodeUnitData, int decodeUnitLength, int decodeUnitType,
+                                         int frameNumber, int frameType, char frameHostProcessingLatency,
+                                         long receiveTimeMs, long enqueueTimeMs) {
         if (stopping) {
             // Don't bother if we're stopping
             return MoonBridge.DR_OK;
@@ -1435,42 +1656,11 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
 
         // Flip stats windows roughly every second
         if (SystemClock.uptimeMillis() >= activeWindowVideoStats.measurementStartTimestamp + 1000) {
-            if (prefs.enablePerfOverlay) {
-                VideoStats lastTwo = new VideoStats();
-                lastTwo.add(lastWindowVideoStats);
-                lastTwo.add(activeWindowVideoStats);
-                VideoStatsFps fps = lastTwo.getFps();
-                String decoder;
-
-                if ((videoFormat & MoonBridge.VIDEO_FORMAT_MASK_H264) != 0) {
-                    decoder = avcDecoder.getName();
-                } else if ((videoFormat & MoonBridge.VIDEO_FORMAT_MASK_H265) != 0) {
-                    decoder = hevcDecoder.getName();
-                } else if ((videoFormat & MoonBridge.VIDEO_FORMAT_MASK_AV1) != 0) {
-                    decoder = av1Decoder.getName();
-                } else {
-                    decoder = "(unknown)";
-                }
-
-                float decodeTimeMs = (float)lastTwo.decoderTimeMs / lastTwo.totalFramesReceived;
-                long rttInfo = MoonBridge.getEstimatedRttInfo();
-                StringBuilder sb = new StringBuilder();
-                sb.append(context.getString(R.string.perf_overlay_streamdetails, initialWidth + "x" + initialHeight, fps.totalFps)).append('\n');
-                sb.append(context.getString(R.string.perf_overlay_decoder, decoder)).append('\n');
-                sb.append(context.getString(R.string.perf_overlay_incomingfps, fps.receivedFps)).append('\n');
-                sb.append(context.getString(R.string.perf_overlay_renderingfps, fps.renderedFps)).append('\n');
-                sb.append(context.getString(R.string.perf_overlay_netdrops,
-                        (float)lastTwo.framesLost / lastTwo.totalFrames * 100)).append('\n');
-                sb.append(context.getString(R.string.perf_overlay_netlatency,
-                        (int)(rttInfo >> 32), (int)rttInfo)).append('\n');
-                if (lastTwo.framesWithHostProcessingLatency > 0) {
-                    sb.append(context.getString(R.string.perf_overlay_hostprocessinglatency,
-                            (float)lastTwo.minHostProcessingLatency / 10,
-                            (float)lastTwo.maxHostProcessingLatency / 10,
-                            (float)lastTwo.totalHostProcessingLatency / 10 / lastTwo.framesWithHostProcessingLatency)).append('\n');
-                }
-                sb.append(context.getString(R.string.perf_overlay_dectime, decodeTimeMs));
-                perfListener.onPerfUpdate(sb.toString());
+            if (perfOverlayUpdater != null) {
+                // The overlay text is generated on the stats thread to keep this path allocation-free
+                perfOverlayUpdater.submitSnapshot(lastWindowVideoStats, activeWindowVideoStats,
+                        SystemClock.uptimeMillis(), activeDecoderName, streamResolution,
+                        asyncEngine, otherEngineDecodeTimeMs);
             }
 
             globalVideoStats.add(activeWindowVideoStats);
@@ -1753,8 +1943,29 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
             throw new RendererException(this, exception);
         }
 
-        // Copy data from our buffer list into the input buffer
-        nextInputBuffer.put(decodeUnitData, 0, decodeUnitLength);
+        if (decodeUnitData != null) {
+            // Copy data from our buffer list into the input buffer
+            nextInputBuffer.put(decodeUnitData, 0, decodeUnitLength);
+        }
+        else {
+            // Have the native code write the buffer list straight into the input buffer
+            int bytesWritten = MoonBridge.copyDecodeUnitToBuffer(nextInputBuffer, nextInputBuffer.position());
+            if (bytesWritten != decodeUnitLength) {
+                IllegalStateException exception = new IllegalStateException(
+                        "Zero-copy submission failed: "+bytesWritten+" of "+decodeUnitLength+" bytes written");
+                if (!reportedCrash) {
+                    reportedCrash = true;
+                    crashListener.notifyCrash(exception);
+                }
+                throw new RendererException(this, exception);
+            }
+            nextInputBuffer.position(nextInputBuffer.position() + bytesWritten);
+        }
+
+        if (frameTrace != null) {
+            frameTrace.recordSubmission(frameNumber, timestampUs, receiveTimeMs, enqueueTimeMs,
+                    frameHostProcessingLatency, System.nanoTime());
+        }
 
         if (!queueNextInputBuffer(timestampUs, codecFlags)) {
             return MoonBridge.DR_NEED_IDR;
@@ -1829,6 +2040,18 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
         return (int)(globalVideoStats.decoderTimeMs / globalVideoStats.totalFramesReceived);
     }
 
+    // Audio buffering stats are shown in the performance overlay if it's enabled
+    public void setAudioStatsProvider(AudioStatsProvider audioStatsProvider) {
+        if (perfOverlayUpdater != null) {
+            perfOverlayUpdater.setAudioStatsProvider(audioStatsProvider);
+        }
+    }
+
+    // Returns null if frame tracing is disabled
+    public FrameTraceRecorder getFrameTrace() {
+        return frameTrace;
+    }
+
     static class DecoderHungException extends RuntimeException {
         private int hangTimeMs;
 
@@ -21,8 +21,10 @@ import android.media.MediaCodecInfo.CodecCapabilities;
 import android.media.MediaCodecInfo.CodecProfileLevel;
 import android.media.MediaFormat;
 import android.os.Build;
+import android.util.Range;
 
 import com.limelight.LimeLog;
+import com.limelight.preferences.DecoderPreferences;
 import com.limelight.preferences.PreferenceConfiguration;
 
 public class MediaCodecHelper {
@@ -49,9 +51,16 @@ public class MediaCodecHelper {
     public static final boolean SHOULD_BYPASS_SOFTWARE_BLOCK =
             Build.HARDWARE.equals("ranchu") || Build.HARDWARE.equals("cheets") || Build.BRAND.equals("Android-x86");
 
+    // Decoder configurations between retries of the low latency options we've been skipping
+    private static final int LOW_LATENCY_RETRY_INTERVAL = 20;
+
+    // Streams each decoder engine must be measured over before the automatic selection compares them
+    private static final int ENGINE_MEASUREMENT_MIN_STREAMS = 3;
+
     private static boolean isLowEndSnapdragon = false;
     private static boolean isAdreno620 = false;
     private static boolean initialized = false;
+    private static DecoderPreferences decoderPrefs;
 
     static {
         directSubmitPrefixes = new LinkedList<>();
@@ -425,6 +434,9 @@ public class MediaCodecHelper {
             }
         }
 
+        // Our decoder choices depend on the lists above, so the cache is keyed on the GL renderer too
+        decoderPrefs = DecoderPreferences.readPreferences(context, glRenderer);
+
         initialized = true;
     }
 
@@ -462,6 +474,18 @@ public class MediaCodecHelper {
     }
 
     private static boolean decoderSupportsKnownVendorLowLatencyOption(String decoderName) {
+        // Probing requires creating a codec, so use the result from last time if we have it
+        Boolean cachedSupport = decoderPrefs.getVendorLowLatencySupport(decoderName);
+        if (cachedSupport != null) {
+            return cachedSupport;
+        }
+
+        boolean supported = probeKnownVendorLowLatencyOption(decoderName);
+        decoderPrefs.setVendorLowLatencySupport(decoderName, supported);
+        return supported;
+    }
+
+    private static boolean probeKnownVendorLowLatencyOption(String decoderName) {
         // It's only possible to probe vendor parameters on Android 12 and above.
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
             MediaCodec testCodec = null;
@@ -509,6 +533,93 @@ public class MediaCodecHelper {
                 ) && !isAdreno620;
     }
 
+    // Returns the low latency options try number that worked for this decoder and stream format
+    // last time. Earlier tries failed to configure back then, so there's usually no point in trying
+    // them again. A failure may have been transient though, so once the saved try number has been
+    // used LOW_LATENCY_RETRY_INTERVAL times, we start from the first try again.
+    public static int getFirstLowLatencyTryNumber(MediaCodecInfo decoderInfo, String mimeType, boolean ultraLowLatency,
+                                                  int videoFormat, int width, int height, int fps) {
+        String decoderName = decoderInfo.getName();
+        if (decoderPrefs.getLowLatencyTryUses(decoderName, mimeType, ultraLowLatency, videoFormat, width, height, fps) >= LOW_LATENCY_RETRY_INTERVAL) {
+            LimeLog.info("Retrying all low latency options on "+decoderName);
+            return 0;
+        }
+        return decoderPrefs.getLowLatencyTryNumber(decoderName, mimeType, ultraLowLatency, videoFormat, width, height, fps);
+    }
+
+    public static void setWorkingLowLatencyTryNumber(MediaCodecInfo decoderInfo, String mimeType, boolean ultraLowLatency,
+                                                     int videoFormat, int width, int height, int fps, int tryNumber) {
+        String decoderName = decoderInfo.getName();
+        int savedTryNumber = decoderPrefs.getLowLatencyTryNumber(decoderName, mimeType, ultraLowLatency, videoFormat, width, height, fps);
+        int uses = decoderPrefs.getLowLatencyTryUses(decoderName, mimeType, ultraLowLatency, videoFormat, width, height, fps);
+        if (savedTryNumber != tryNumber || uses >= LOW_LATENCY_RETRY_INTERVAL) {
+            // This is a new result, or we just retried from the first try
+            decoderPrefs.setLowLatencyTryNumber(decoderName, mimeType, ultraLowLatency, videoFormat, width, height, fps, tryNumber, 0);
+        }
+        else if (tryNumber != 0) {
+            // Nothing is skipped when the first try works, so there's nothing to count
+            decoderPrefs.setLowLatencyTryNumber(decoderName, mimeType, ultraLowLatency, videoFormat, width, height, fps, tryNumber, uses + 1);
+        }
+    }
+
+    public static boolean decoderShouldUseAsyncEngine(MediaCodecInfo decoderInfo, String mimeType, int decoderEngine,
+                                                      int videoFormat, int width, int height, int fps, int bitrate) {
+        // We need setCallback() with a Handler, which was added in Marshmallow
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return false;
+        }
+
+        switch (decoderEngine) {
+            case PreferenceConfiguration.DECODER_ENGINE_ASYNC:
+                return true;
+
+            case PreferenceConfiguration.DECODER_ENGINE_AUTO:
+                // Measure the blocking engine first and then the asynchronous engine, each over
+                // several streams with this configuration. Once we have both, stick with whichever
+                // had the lower average decode time.
+                String decoderName = decoderInfo.getName();
+                if (decoderPrefs.getDecodeTimeSamples(decoderName, mimeType, false,
+                        videoFormat, width, height, fps, bitrate) < ENGINE_MEASUREMENT_MIN_STREAMS) {
+                    return false;
+                }
+                else if (decoderPrefs.getDecodeTimeSamples(decoderName, mimeType, true,
+                        videoFormat, width, height, fps, bitrate) < ENGINE_MEASUREMENT_MIN_STREAMS) {
+                    return true;
+                }
+                return decoderPrefs.getDecodeTimeMs(decoderName, mimeType, true, videoFormat, width, height, fps, bitrate) <
+                        decoderPrefs.getDecodeTimeMs(decoderName, mimeType, false, videoFormat, width, height, fps, bitrate);
+
+            default:
+                return false;
+        }
+    }
+
+    // Returns the average decode time over the streams that used the given engine with this
+    // decoder and stream configuration, or -1 if we haven't measured it yet
+    public static float getEngineDecodeTimeMs(MediaCodecInfo decoderInfo, String mimeType, boolean asyncEngine,
+                                              int videoFormat, int width, int height, int fps, int bitrate) {
+        Float decodeTimeMs = decoderPrefs.getDecodeTimeMs(decoderInfo.getName(), mimeType, asyncEngine,
+                videoFormat, width, height, fps, bitrate);
+        return decodeTimeMs != null ? decodeTimeMs : -1;
+    }
+
+    // Adds a stream's average decode time to the running average for the engine
+    public static void addEngineDecodeTimeMs(MediaCodecInfo decoderInfo, String mimeType, boolean asyncEngine,
+                                             int videoFormat, int width, int height, int fps, int bitrate,
+                                             float decodeTimeMs) {
+        String decoderName = decoderInfo.getName();
+        Float averageMs = decoderPrefs.getDecodeTimeMs(decoderName, mimeType, asyncEngine, videoFormat, width, height, fps, bitrate);
+        int samples = averageMs != null ?
+                decoderPrefs.getDecodeTimeSamples(decoderName, mimeType, asyncEngine, videoFormat, width, height, fps, bitrate) : 0;
+        if (averageMs == null) {
+            averageMs = 0f;
+        }
+
+        samples++;
+        decoderPrefs.setDecodeTimeMs(decoderName, mimeType, asyncEngine, videoFormat, width, height, fps, bitrate,
+                averageMs + (decodeTimeMs - averageMs) / samples, samples);
+    }
+
     public static boolean setDecoderLowLatencyOptions(MediaFormat videoFormat, MediaCodecInfo decoderInfo, boolean ultraLowLatency, int tryNumber) {
         // Options here should be tried in the order of most to least risky. The decoder will use
         // the first MediaFormat that doesn't fail in configure().
@@ -661,6 +772,76 @@ public class MediaCodecHelper {
         return setNewOption;
     }
 
+    public static boolean decoderSupportsProfile(MediaCodecInfo decoderInfo, String mimeType, int profile) {
+        Boolean cachedSupport = decoderPrefs.getProfileSupport(decoderInfo.getName(), mimeType, profile);
+        if (cachedSupport != null) {
+            return cachedSupport;
+        }
+
+        boolean supported = false;
+        for (CodecProfileLevel profileLevel : decoderInfo.getCapabilitiesForType(mimeType).profileLevels) {
+            if (profileLevel.profile == profile) {
+                supported = true;
+                break;
+            }
+        }
+
+        decoderPrefs.setProfileSupport(decoderInfo.getName(), mimeType, profile, supported);
+        return supported;
+    }
+
+    public static boolean decoderCanMeetPerformancePoint(MediaCodecInfo decoderInfo, String mimeType, int width, int height, int fps) {
+        Boolean cachedSupport = decoderPrefs.getPerformancePointSupport(decoderInfo.getName(), mimeType, width, height, fps);
+        if (cachedSupport != null) {
+            return cachedSupport;
+        }
+
+        boolean supported = decoderCanMeetPerformancePoint(decoderInfo.getCapabilitiesForType(mimeType).getVideoCapabilities(), width, height, fps);
+        decoderPrefs.setPerformancePointSupport(decoderInfo.getName(), mimeType, width, height, fps, supported);
+        return supported;
+    }
+
+    private static boolean decoderCanMeetPerformancePoint(MediaCodecInfo.VideoCapabilities caps, int width, int height, int fps) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            MediaCodecInfo.VideoCapabilities.PerformancePoint targetPerfPoint = new MediaCodecInfo.VideoCapabilities.PerformancePoint(width, height, fps);
+            List<MediaCodecInfo.VideoCapabilities.PerformancePoint> perfPoints = caps.getSupportedPerformancePoints();
+            if (perfPoints != null) {
+                for (MediaCodecInfo.VideoCapabilities.PerformancePoint perfPoint : perfPoints) {
+                    // If we find a performance point that covers our target, we're good to go
+                    if (perfPoint.covers(targetPerfPoint)) {
+                        return true;
+                    }
+                }
+
+                // We had performance point data but none met the specified streaming settings
+                return false;
+            }
+
+            // Fall-through to try the Android M API if there's no performance point data
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            try {
+                // We'll ask the decoder what it can do for us at this resolution and see if our
+                // requested frame rate falls below or inside the range of achievable frame rates.
+                Range<Double> fpsRange = caps.getAchievableFrameRatesFor(width, height);
+                if (fpsRange != null) {
+                    return fps <= fpsRange.getUpper();
+                }
+
+                // Fall-through to try the Android L API if there's no performance point data
+            } catch (IllegalArgumentException e) {
+                // Video size not supported at any frame rate
+                return false;
+            }
+        }
+
+        // As a last resort, we will use areSizeAndRateSupported() which is explicitly NOT a
+        // performance metric, but it can work at least for the purpose of determining if
+        // the codec is going to die when given a stream with the specified settings.
+        return caps.areSizeAndRateSupported(width, height, fps);
+    }
+
     public static boolean decoderSupportsFusedIdrFrame(MediaCodecInfo decoderInfo, String mimeType) {
         // If adaptive playback is supported, we can submit new CSD together with a keyframe
         try {
@@ -943,7 +1124,41 @@ public class MediaCodecHelper {
         return null;
     }
     
+    private static MediaCodecInfo findDecoderByName(String decoderName) {
+        for (MediaCodecInfo codecInfo : getMediaCodecList()) {
+            if (!codecInfo.isEncoder() && codecInfo.getName().equals(decoderName)) {
+                return codecInfo;
+            }
+        }
+
+        return null;
+    }
+
     public static MediaCodecInfo findProbableSafeDecoder(String mimeType, int requiredProfile) {
+        // If we've already done this search, just look up the decoder we picked last time
+        String cachedDecoderName = decoderPrefs.getDecoderName(mimeType, requiredProfile);
+        if (cachedDecoderName != null) {
+            if (cachedDecoderName.isEmpty()) {
+                LimeLog.info("No decoder for "+mimeType+" (cached)");
+                return null;
+            }
+
+            MediaCodecInfo info = findDecoderByName(cachedDecoderName);
+            if (info != null) {
+                LimeLog.info("Decoder choice for "+mimeType+" is "+info.getName()+" (cached)");
+                return info;
+            }
+
+            // This shouldn't happen without a fingerprint change, but just search again
+            LimeLog.warning("Cached decoder is missing: "+cachedDecoderName);
+        }
+
+        MediaCodecInfo info = searchForProbableSafeDecoder(mimeType, requiredProfile);
+        decoderPrefs.setDecoderName(mimeType, requiredProfile, info != null ? info.getName() : "");
+        return info;
+    }
+
+    private static MediaCodecInfo searchForProbableSafeDecoder(String mimeType, int requiredProfile) {
         // First look for a preferred decoder by name
         MediaCodecInfo info = findPreferredDecoder();
         if (info != null) {
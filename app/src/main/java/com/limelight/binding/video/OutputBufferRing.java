@@ -0,0 +1,86 @@
+package com.limelight.binding.video;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// A fixed-size ring of MediaCodec output buffer indices passed from a single producer
+// (the renderer thread) to a single consumer (the Choreographer thread). Unlike a
+// BlockingQueue<Integer>, this never allocates or takes a lock on the hot path.
+//
+// The only point of contention is when the ring is full and the producer needs to drop
+// the oldest entry. That case is handled by having both sides claim entries with a CAS
+// on the head index, so an entry is always handed to exactly one of them.
+class OutputBufferRing {
+    static final int EMPTY = -1;
+
+    private final int[] ring;
+    private final int mask;
+
+    // Index of the next entry to be consumed
+    private final AtomicLong head = new AtomicLong();
+
+    // Index of the next entry to be produced (only written by the producer)
+    private final AtomicLong tail = new AtomicLong();
+
+    OutputBufferRing(int capacity) {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+            throw new IllegalArgumentException("Capacity must be a power of 2: " + capacity);
+        }
+
+        this.ring = new int[capacity];
+        this.mask = capacity - 1;
+    }
+
+    // Producer only. Adds the buffer index to the ring. If the ring already holds limit entries,
+    // the oldest entry is removed and returned so the caller can release it. Otherwise, returns EMPTY.
+    //
+    // The limit may be less than the capacity. If it is lowered while the ring is fuller than the
+    // new limit, only one entry is dropped per offer and the consumer will drain the remainder.
+    int offerDroppingOldest(int bufferIndex, int limit) {
+        long t = tail.get();
+        long h = head.get();
+        int dropped = EMPTY;
+
+        if (t - h >= Math.min(limit, mask + 1)) {
+            // The ring is full. Try to claim the oldest entry for ourselves. If this fails,
+            // the consumer just took it, so there's room for our new entry now.
+            if (head.compareAndSet(h, h + 1)) {
+                // Nobody can overwrite this slot until we write our own entry below
+                dropped = ring[(int)(h & mask)];
+            }
+        }
+
+        ring[(int)(t & mask)] = bufferIndex;
+
+        // Publish the new entry to the consumer
+        tail.lazySet(t + 1);
+
+        return dropped;
+    }
+
+    // Consumer only. Returns the oldest buffer index or EMPTY if there are none.
+    int poll() {
+        for (;;) {
+            long h = head.get();
+            if (h >= tail.get()) {
+                return EMPTY;
+            }
+
+            int bufferIndex = ring[(int)(h & mask)];
+
+            // If this fails, the producer dropped this entry, so try the next one
+            if (head.compareAndSet(h, h + 1)) {
+                return bufferIndex;
+            }
+        }
+    }
+
+    // Consumer only. Returns the number of entries waiting to be consumed.
+    int size() {
+        return (int)Math.max(tail.get() - head.get(), 0);
+    }
+
+    // Must only be called when both the producer and consumer are quiesced
+    void clear() {
+        head.set(tail.get());
+    }
+}
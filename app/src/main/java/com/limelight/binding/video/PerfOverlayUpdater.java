@@ -0,0 +1,181 @@
+package com.limelight.binding.video;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import com.limelight.R;
+import com.limelight.binding.audio.AudioStatsProvider;
+import com.limelight.nvstream.jni.MoonBridge;
+
+import java.util.Formatter;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Generates the performance overlay text on a low priority thread. The decode thread
+// only copies the stats windows into a preallocated snapshot and signals this thread,
+// so formatting and resource lookups never happen in the video path.
+class PerfOverlayUpdater implements Runnable {
+    private final PerfOverlayListener listener;
+
+    // Format strings are resolved once rather than on each update
+    private final String streamDetailsFormat;
+    private final String decoderFormat;
+    private final String incomingFpsFormat;
+    private final String renderingFpsFormat;
+    private final String netDropsFormat;
+    private final String netLatencyFormat;
+    private final String hostProcessingLatencyFormat;
+    private final String decodeTimeFormat;
+    private final String engineFormat;
+    private final String engineCompareFormat;
+    private final String syncEngineName;
+    private final String asyncEngineName;
+    private final String audioBufferFormat;
+
+    private volatile AudioStatsProvider audioStatsProvider;
+
+    // Written by the decode thread and read by the stats thread while holding the lock
+    private final VideoStats pendingStats = new VideoStats();
+    private long pendingSnapshotTime;
+    private String pendingDecoderName;
+    private String pendingResolution;
+    private boolean pendingAsyncEngine;
+    private float pendingOtherEngineDecodeTimeMs;
+    private final AtomicBoolean updatePending = new AtomicBoolean();
+
+    // Only touched by the stats thread
+    private final VideoStats stats = new VideoStats();
+    private final VideoStatsFps fps = new VideoStatsFps();
+    private final StringBuilder sb = new StringBuilder(512);
+    private final Formatter formatter = new Formatter(sb);
+
+    private HandlerThread handlerThread;
+    private Handler handler;
+
+    PerfOverlayUpdater(Context context, PerfOverlayListener listener) {
+        this.listener = listener;
+
+        this.streamDetailsFormat = context.getString(R.string.perf_overlay_streamdetails);
+        this.decoderFormat = context.getString(R.string.perf_overlay_decoder);
+        this.incomingFpsFormat = context.getString(R.string.perf_overlay_incomingfps);
+        this.renderingFpsFormat = context.getString(R.string.perf_overlay_renderingfps);
+        this.netDropsFormat = context.getString(R.string.perf_overlay_netdrops);
+        this.netLatencyFormat = context.getString(R.string.perf_overlay_netlatency);
+        this.hostProcessingLatencyFormat = context.getString(R.string.perf_overlay_hostprocessinglatency);
+        this.decodeTimeFormat = context.getString(R.string.perf_overlay_dectime);
+        this.engineFormat = context.getString(R.string.perf_overlay_engine);
+        this.engineCompareFormat = context.getString(R.string.perf_overlay_engine_compare);
+        this.syncEngineName = context.getString(R.string.perf_overlay_engine_sync);
+        this.asyncEngineName = context.getString(R.string.perf_overlay_engine_async);
+        this.audioBufferFormat = context.getString(R.string.perf_overlay_audiobuffer);
+    }
+
+    void setAudioStatsProvider(AudioStatsProvider audioStatsProvider) {
+        this.audioStatsProvider = audioStatsProvider;
+    }
+
+    void start() {
+        handlerThread = new HandlerThread("Video - Stats", Process.THREAD_PRIORITY_BACKGROUND);
+        handlerThread.start();
+        handler = new Handler(handlerThread.getLooper());
+    }
+
+    void stop() {
+        if (handlerThread != null) {
+            handlerThread.quit();
+        }
+    }
+
+    // Called on the decode thread when the stats window is flipped. This performs no allocations.
+    //
+    // otherEngineDecodeTimeMs is the average decode time over the streams with this configuration
+    // that used the decoder engine we're not using now, or a negative value if there weren't any.
+    void submitSnapshot(VideoStats lastWindow, VideoStats activeWindow, long snapshotTime,
+                        String decoderName, String resolution,
+                        boolean asyncEngine, float otherEngineDecodeTimeMs) {
+        if (handler == null) {
+            return;
+        }
+
+        synchronized (pendingStats) {
+            pendingStats.clear();
+            pendingStats.add(lastWindow);
+            pendingStats.add(activeWindow);
+            pendingSnapshotTime = snapshotTime;
+            pendingDecoderName = decoderName;
+            pendingResolution = resolution;
+            pendingAsyncEngine = asyncEngine;
+            pendingOtherEngineDecodeTimeMs = otherEngineDecodeTimeMs;
+        }
+
+        // If the stats thread hasn't gotten to the last snapshot yet, it will pick up this one instead
+        if (updatePending.compareAndSet(false, true)) {
+            handler.post(this);
+        }
+    }
+
+    @Override
+    public void run() {
+        String decoderName, resolution;
+        long snapshotTime;
+        boolean asyncEngine;
+        float otherEngineDecodeTimeMs;
+
+        updatePending.set(false);
+
+        synchronized (pendingStats) {
+            stats.copy(pendingStats);
+            snapshotTime = pendingSnapshotTime;
+            decoderName = pendingDecoderName;
+            resolution = pendingResolution;
+            asyncEngine = pendingAsyncEngine;
+            otherEngineDecodeTimeMs = pendingOtherEngineDecodeTimeMs;
+        }
+
+        stats.getFps(snapshotTime, fps);
+
+        float decodeTimeMs = (float)stats.decoderTimeMs / stats.totalFramesReceived;
+        long rttInfo = MoonBridge.getEstimatedRttInfo();
+
+        sb.setLength(0);
+        formatter.format(streamDetailsFormat, resolution, fps.totalFps);
+        sb.append('\n');
+        formatter.format(decoderFormat, decoderName);
+        sb.append('\n');
+        formatter.format(incomingFpsFormat, fps.receivedFps);
+        sb.append('\n');
+        formatter.format(renderingFpsFormat, fps.renderedFps);
+        sb.append('\n');
+        formatter.format(netDropsFormat, (float)stats.framesLost / stats.totalFrames * 100);
+        sb.append('\n');
+        formatter.format(netLatencyFormat, (int)(rttInfo >> 32), (int)rttInfo);
+        sb.append('\n');
+        if (stats.framesWithHostProcessingLatency > 0) {
+            formatter.format(hostProcessingLatencyFormat,
+                    (float)stats.minHostProcessingLatency / 10,
+                    (float)stats.maxHostProcessingLatency / 10,
+                    (float)stats.totalHostProcessingLatency / 10 / stats.framesWithHostProcessingLatency);
+            sb.append('\n');
+        }
+        formatter.format(decodeTimeFormat, decodeTimeMs);
+        sb.append('\n');
+        if (otherEngineDecodeTimeMs >= 0) {
+            // Show the other engine's decode time next to ours, so they can be compared
+            formatter.format(engineCompareFormat, asyncEngine ? asyncEngineName : syncEngineName,
+                    asyncEngine ? syncEngineName : asyncEngineName, otherEngineDecodeTimeMs);
+        }
+        else {
+            formatter.format(engineFormat, asyncEngine ? asyncEngineName : syncEngineName);
+        }
+
+        AudioStatsProvider audioStats = audioStatsProvider;
+        if (audioStats != null) {
+            sb.append('\n');
+            formatter.format(audioBufferFormat, audioStats.getBufferedAudioMs(),
+                    audioStats.getAudioUnderruns(), audioStats.getDroppedAudioPackets());
+        }
+
+        listener.onPerfUpdate(sb.toString());
+    }
+}
@@ -73,15 +73,22 @@ class VideoStats {
     }
 
     VideoStatsFps getFps() {
-        float elapsed = (SystemClock.uptimeMillis() - this.measurementStartTimestamp) / (float) 1000;
-
         VideoStatsFps fps = new VideoStatsFps();
+        getFps(SystemClock.uptimeMillis(), fps);
+        return fps;
+    }
+
+    void getFps(long measurementEndTimestamp, VideoStatsFps fps) {
+        float elapsed = (measurementEndTimestamp - this.measurementStartTimestamp) / (float) 1000;
+
         if (elapsed > 0) {
             fps.totalFps = this.totalFrames / elapsed;
             fps.receivedFps = this.totalFramesReceived / elapsed;
             fps.renderedFps = this.totalFramesRendered / elapsed;
         }
-        return fps;
+        else {
+            fps.totalFps = fps.receivedFps = fps.renderedFps = 0;
+        }
     }
 }
 
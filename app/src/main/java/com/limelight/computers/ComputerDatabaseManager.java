@@ -5,6 +5,7 @@ import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
+import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
@@ -138,6 +139,21 @@ public class ComputerDatabaseManager {
         return -1 != computerDb.insertWithOnConflict(COMPUTER_TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
     }
 
+    // Writes all of the computers in a single transaction
+    public void updateComputers(Collection<ComputerDetails> computers) {
+        computerDb.beginTransaction();
+        try {
+            for (ComputerDetails details : computers) {
+                if (!updateComputer(details)) {
+                    LimeLog.warning("Failed to write computer: "+details.name);
+                }
+            }
+            computerDb.setTransactionSuccessful();
+        } finally {
+            computerDb.endTransaction();
+        }
+    }
+
     private ComputerDetails getComputerFromCursor(Cursor c) {
         ComputerDetails details = new ComputerDetails();
 
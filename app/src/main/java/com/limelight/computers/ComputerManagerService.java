@@ -1,14 +1,14 @@
 package com.limelight.computers;
 
 import java.io.IOException;
-import java.io.OutputStream;
-import java.io.StringReader;
 import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -18,12 +18,14 @@ import com.limelight.binding.PlatformBinding;
 import com.limelight.discovery.DiscoveryService;
 import com.limelight.nvstream.NvConnection;
 import com.limelight.nvstream.http.ComputerDetails;
+import com.limelight.nvstream.http.LimelightCryptoProvider;
 import com.limelight.nvstream.http.NvApp;
 import com.limelight.nvstream.http.NvHTTP;
+import com.limelight.nvstream.http.NvHTTPRegistry;
 import com.limelight.nvstream.http.PairingManager;
 import com.limelight.nvstream.mdns.MdnsComputer;
 import com.limelight.nvstream.mdns.MdnsDiscoveryListener;
-import com.limelight.utils.CacheHelper;
+import com.limelight.utils.AppListCache;
 import com.limelight.utils.NetHelper;
 import com.limelight.utils.ServerHelper;
 
@@ -44,23 +46,31 @@ import org.xmlpull.v1.XmlPullParserException;
 
 public class ComputerManagerService extends Service {
     private static final int SERVERINFO_POLLING_PERIOD_MS = 1500;
+    private static final int SERVERINFO_FAST_POLLING_PERIOD_MS = 1000;
+    private static final int SERVERINFO_MAX_ONLINE_POLLING_PERIOD_MS = 5000;
+    private static final int SERVERINFO_MAX_OFFLINE_POLLING_PERIOD_MS = 10000;
     private static final int APPLIST_POLLING_PERIOD_MS = 30000;
     private static final int APPLIST_FAILED_POLLING_RETRY_MS = 2000;
     private static final int MDNS_QUERY_PERIOD_MS = 1000;
     private static final int OFFLINE_POLL_TRIES = 3;
     private static final int INITIAL_POLL_TRIES = 2;
     private static final int EMPTY_LIST_THRESHOLD = 3;
+    private static final int POLL_SHUTDOWN_TIMEOUT_MS = 1000;
     private static final int POLL_DATA_TTL_MS = 30000;
 
     private final ComputerManagerBinder binder = new ComputerManagerBinder();
 
     private ComputerDatabaseManager dbManager;
+    private ComputerStore computerStore;
     private final AtomicInteger dbRefCount = new AtomicInteger(0);
 
     private IdentityManager idManager;
+    private LimelightCryptoProvider cryptoProvider;
+    private final NvHTTPRegistry httpRegistry = new NvHTTPRegistry();
     private final LinkedList<PollingTuple> pollingTuples = new LinkedList<>();
     private ComputerManagerListener listener = null;
     private final AtomicInteger activePolls = new AtomicInteger(0);
+    private ComputerPollScheduler pollScheduler;
     private boolean pollingActive = false;
     private final Lock defaultNetworkLock = new ReentrantLock();
 
@@ -92,8 +102,19 @@ public class ComputerManagerService extends Service {
             return false;
         }
 
-        final int pollTriesBeforeOffline = details.state == ComputerDetails.State.UNKNOWN ?
-                INITIAL_POLL_TRIES : OFFLINE_POLL_TRIES;
+        // A PC that's already offline doesn't need its failures confirmed again
+        final int pollTriesBeforeOffline;
+        switch (details.state) {
+            case UNKNOWN:
+                pollTriesBeforeOffline = INITIAL_POLL_TRIES;
+                break;
+            case OFFLINE:
+                pollTriesBeforeOffline = 0;
+                break;
+            default:
+                pollTriesBeforeOffline = OFFLINE_POLL_TRIES;
+                break;
+        }
 
         activePolls.incrementAndGet();
 
@@ -117,23 +138,22 @@ public class ComputerManagerService extends Service {
 
         // If it's online, update our persistent state
         if (details.state == ComputerDetails.State.ONLINE) {
-            ComputerDetails existingComputer = dbManager.getComputerByUUID(details.uuid);
+            boolean existingComputer = computerStore.containsComputer(details.uuid);
 
-            // Check if it's in the database because it could have been
+            // Check if it's in the store because it could have been
             // removed after this was issued
-            if (!newPc && existingComputer == null) {
+            if (!newPc && !existingComputer) {
                 // It's gone
                 releaseLocalDatabaseReference();
                 return false;
             }
 
-            // If we already have an entry for this computer in the DB, we must
-            // combine the existing data with this new data (which may be partially available
-            // due to detecting the PC via mDNS) without the saved external address. If we
-            // write to the DB without doing this first, we can overwrite our existing data.
-            if (existingComputer != null) {
-                existingComputer.update(details);
-                dbManager.updateComputer(existingComputer);
+            // If we already have an entry for this computer, the store will combine the
+            // existing data with this new data (which may be partially available due to
+            // detecting the PC via mDNS) so we don't overwrite the saved external address.
+            // It only writes to the DB if the persistent fields actually changed.
+            if (existingComputer) {
+                computerStore.updateComputer(details);
             }
             else {
                 try {
@@ -148,7 +168,7 @@ public class ComputerManagerService extends Service {
                     }
                 } catch (UnknownHostException ignored) {}
 
-                dbManager.updateComputer(details);
+                computerStore.updateComputer(details);
             }
         }
 
@@ -161,36 +181,106 @@ public class ComputerManagerService extends Service {
         return true;
     }
 
-    private Thread createPollingThread(final PollingTuple tuple) {
-        Thread t = new Thread() {
-            @Override
-            public void run() {
+    private class PollTask implements Runnable {
+        private final PollingTuple tuple;
 
-                int offlineCount = 0;
-                while (!isInterrupted() && pollingActive && tuple.thread == this) {
-                    try {
-                        // Only allow one request to the machine at a time
-                        synchronized (tuple.networkLock) {
-                            // Check if this poll has modified the details
-                            if (!runPoll(tuple.computer, false, offlineCount)) {
-                                LimeLog.warning(tuple.computer.name + " is offline (try " + offlineCount + ")");
-                                offlineCount++;
-                            } else {
-                                tuple.lastSuccessfulPollMs = SystemClock.elapsedRealtime();
-                                offlineCount = 0;
-                            }
-                        }
+        PollTask(PollingTuple tuple) {
+            this.tuple = tuple;
+        }
 
-                        // Wait until the next polling interval
-                        Thread.sleep(SERVERINFO_POLLING_PERIOD_MS);
-                    } catch (InterruptedException e) {
-                        break;
+        @Override
+        public void run() {
+            if (!pollingActive || tuple.pollTask != this) {
+                return;
+            }
+
+            boolean changed;
+            try {
+                // Only allow one request to the machine at a time
+                synchronized (tuple.networkLock) {
+                    ComputerDetails.State oldState = tuple.computer.state;
+                    PairingManager.PairState oldPairState = tuple.computer.pairState;
+                    int oldRunningGameId = tuple.computer.runningGameId;
+
+                    // Check if this poll has modified the details
+                    if (!runPoll(tuple.computer, false, tuple.offlineCount)) {
+                        LimeLog.warning(tuple.computer.name + " is offline (try " + tuple.offlineCount + ")");
+                        tuple.offlineCount++;
+                    } else {
+                        tuple.lastSuccessfulPollMs = SystemClock.elapsedRealtime();
+                        tuple.offlineCount = 0;
                     }
+
+                    changed = tuple.computer.state != oldState ||
+                            tuple.computer.pairState != oldPairState ||
+                            tuple.computer.runningGameId != oldRunningGameId;
                 }
+            } catch (InterruptedException e) {
+                // Polling was stopped
+                return;
             }
-        };
-        t.setName("Polling thread for " + tuple.computer.name);
-        return t;
+
+            pollScheduler.notifyPollCompleted();
+
+            synchronized (pollingTuples) {
+                // Schedule the next poll unless we've been stopped or replaced in the meantime
+                if (pollingActive && tuple.pollTask == this) {
+                    tuple.pollFuture = pollScheduler.schedulePoll(this, getNextPollDelayMs(tuple, changed));
+                }
+            }
+        }
+    }
+
+    private static long getNextPollDelayMs(PollingTuple tuple, boolean changed) {
+        if (changed || tuple.offlineCount != 0) {
+            // Things are in flux (or we're confirming an online or unknown PC has gone
+            // offline), so poll quickly to pick up the rest of the change promptly. A PC
+            // that's already offline never has unconfirmed failures, so it backs off below.
+            tuple.pollIntervalMs = SERVERINFO_FAST_POLLING_PERIOD_MS;
+        }
+        else {
+            // The PC is stable, so back off gradually. There's little point polling
+            // PCs that are offline as often as online ones, but we still want to notice
+            // a PC coming online in a reasonable amount of time.
+            int maxIntervalMs = tuple.computer.state == ComputerDetails.State.ONLINE ?
+                    SERVERINFO_MAX_ONLINE_POLLING_PERIOD_MS : SERVERINFO_MAX_OFFLINE_POLLING_PERIOD_MS;
+            tuple.pollIntervalMs = Math.min(Math.max(tuple.pollIntervalMs * 3 / 2, SERVERINFO_POLLING_PERIOD_MS), maxIntervalMs);
+        }
+
+        return tuple.pollIntervalMs;
+    }
+
+    // Must be called with pollingTuples locked
+    private void startPollingComputer(PollingTuple tuple, long delayMs) {
+        stopPollingComputer(tuple);
+
+        tuple.pollTask = new PollTask(tuple);
+        tuple.pollIntervalMs = SERVERINFO_POLLING_PERIOD_MS;
+        tuple.pollFuture = pollScheduler.schedulePoll(tuple.pollTask, delayMs);
+    }
+
+    // Must be called with pollingTuples locked
+    private void stopPollingComputer(PollingTuple tuple) {
+        if (tuple.pollFuture != null) {
+            // Interrupt the poll if it's running
+            tuple.pollFuture.cancel(true);
+            tuple.pollFuture = null;
+        }
+        tuple.pollTask = null;
+    }
+
+    // Must be called with pollingTuples locked
+    private void pollComputerNow(PollingTuple tuple) {
+        if (pollingActive && tuple.pollTask != null) {
+            // Don't interrupt a poll that's already running. The old task will notice
+            // it has been replaced and not reschedule itself when it's done.
+            if (tuple.pollFuture != null) {
+                tuple.pollFuture.cancel(false);
+            }
+            tuple.pollTask = new PollTask(tuple);
+            tuple.pollIntervalMs = SERVERINFO_FAST_POLLING_PERIOD_MS;
+            tuple.pollFuture = pollScheduler.schedulePoll(tuple.pollTask, 0);
+        }
     }
 
     public class ComputerManagerBinder extends Binder {
@@ -204,6 +294,8 @@ public class ComputerManagerService extends Service {
             // Start mDNS autodiscovery too
             discoveryBinder.startDiscovery(MDNS_QUERY_PERIOD_MS);
 
+            pollScheduler.resetStats();
+
             synchronized (pollingTuples) {
                 for (PollingTuple tuple : pollingTuples) {
                     // Enforce the poll data TTL
@@ -215,10 +307,9 @@ public class ComputerManagerService extends Service {
                     // Report this computer initially
                     listener.notifyComputerUpdated(tuple.computer);
 
-                    // This polling thread might already be there
-                    if (tuple.thread == null) {
-                        tuple.thread = createPollingThread(tuple);
-                        tuple.thread.start();
+                    // This computer might already be polling
+                    if (tuple.pollTask == null) {
+                        startPollingComputer(tuple, 0);
                     }
                 }
             }
@@ -278,6 +369,19 @@ public class ComputerManagerService extends Service {
             return idManager.getUniqueId();
         }
 
+        // Returns the first computer with this name. Names aren't unique, so prefer getComputer().
+        public ComputerDetails getComputerByName(String name) {
+            synchronized (pollingTuples) {
+                for (PollingTuple tuple : pollingTuples) {
+                    if (name.equals(tuple.computer.name)) {
+                        return tuple.computer;
+                    }
+                }
+            }
+
+            return null;
+        }
+
         public ComputerDetails getComputer(String uuid) {
             synchronized (pollingTuples) {
                 for (PollingTuple tuple : pollingTuples) {
@@ -299,6 +403,9 @@ public class ComputerManagerService extends Service {
                         synchronized (tuple.networkLock) {
                             tuple.computer.state = ComputerDetails.State.UNKNOWN;
                         }
+
+                        // Find out the real state as soon as possible
+                        pollComputerNow(tuple);
                     }
                 }
             }
@@ -316,13 +423,10 @@ public class ComputerManagerService extends Service {
         pollingActive = false;
         synchronized (pollingTuples) {
             for (PollingTuple tuple : pollingTuples) {
-                if (tuple.thread != null) {
-                    // Interrupt and remove the thread
-                    tuple.thread.interrupt();
-                    tuple.thread = null;
-                }
+                stopPollingComputer(tuple);
             }
         }
+        pollScheduler.logStats();
 
         // Remove the listener
         listener = null;
@@ -443,10 +547,9 @@ public class ComputerManagerService extends Service {
                     // Update the saved computer with potentially new details
                     tuple.computer.update(details);
 
-                    // Start a polling thread if polling is active
-                    if (pollingActive && tuple.thread == null) {
-                        tuple.thread = createPollingThread(tuple);
-                        tuple.thread.start();
+                    // Start polling if polling is active
+                    if (pollingActive && tuple.pollTask == null) {
+                        startPollingComputer(tuple, 0);
                     }
 
                     // Found an entry so we're done
@@ -455,13 +558,10 @@ public class ComputerManagerService extends Service {
             }
 
             // If we got here, we didn't find an entry
-            PollingTuple tuple = new PollingTuple(details, null);
-            if (pollingActive) {
-                tuple.thread = createPollingThread(tuple);
-            }
+            PollingTuple tuple = new PollingTuple(details);
             pollingTuples.add(tuple);
-            if (tuple.thread != null) {
-                tuple.thread.start();
+            if (pollingActive) {
+                startPollingComputer(tuple, 0);
             }
         }
     }
@@ -491,11 +591,13 @@ public class ComputerManagerService extends Service {
         if (fakeDetails.state == ComputerDetails.State.ONLINE) {
             LimeLog.info("New PC ("+fakeDetails.name+") is UUID "+fakeDetails.uuid);
 
-            // Start a polling thread for this machine
+            // Start polling this machine
             addTuple(fakeDetails);
             return true;
         }
         else {
+            // Nothing will poll these addresses, so don't keep clients around for them
+            httpRegistry.remove(fakeDetails);
             return false;
         }
     }
@@ -506,18 +608,16 @@ public class ComputerManagerService extends Service {
         }
 
         // Remove it from the database
-        dbManager.deleteComputer(computer);
+        computerStore.removeComputer(computer);
 
         synchronized (pollingTuples) {
             // Remove the computer from the computer list
             for (PollingTuple tuple : pollingTuples) {
                 if (tuple.computer.uuid.equals(computer.uuid)) {
-                    if (tuple.thread != null) {
-                        // Interrupt the thread on this entry
-                        tuple.thread.interrupt();
-                        tuple.thread = null;
-                    }
+                    // Stop polling this entry
+                    stopPollingComputer(tuple);
                     pollingTuples.remove(tuple);
+                    httpRegistry.remove(tuple.computer);
                     break;
                 }
             }
@@ -549,8 +649,8 @@ public class ComputerManagerService extends Service {
             boolean portMatchesActiveAddress = details.state == ComputerDetails.State.ONLINE &&
                     details.activeAddress != null && address.port == details.activeAddress.port;
 
-            NvHTTP http = new NvHTTP(address, portMatchesActiveAddress ? details.httpsPort : 0, idManager.getUniqueId(), details.serverCert,
-                    PlatformBinding.getCryptoProvider(ComputerManagerService.this));
+            NvHTTP http = httpRegistry.get(address, portMatchesActiveAddress ? details.httpsPort : 0, idManager.getUniqueId(), details.serverCert,
+                    cryptoProvider);
 
             // If this PC is currently online at this address, extend the timeouts to allow more time for the PC to respond.
             boolean isLikelyOnline = details.state == ComputerDetails.State.ONLINE && address.equals(details.activeAddress);
@@ -583,7 +683,7 @@ public class ComputerManagerService extends Service {
         public ComputerDetails existingDetails;
 
         public boolean complete;
-        public Thread pollingThread;
+        public Future<?> pollingFuture;
         public ComputerDetails returnedDetails;
 
         public ParallelPollTuple(ComputerDetails.AddressTuple address, ComputerDetails existingDetails) {
@@ -592,13 +692,13 @@ public class ComputerManagerService extends Service {
         }
 
         public void interrupt() {
-            if (pollingThread != null) {
-                pollingThread.interrupt();
+            if (pollingFuture != null) {
+                pollingFuture.cancel(true);
             }
         }
     }
 
-    private void startParallelPollThread(ParallelPollTuple tuple, HashSet<ComputerDetails.AddressTuple> uniqueAddresses) {
+    private void startParallelPoll(ParallelPollTuple tuple, HashSet<ComputerDetails.AddressTuple> uniqueAddresses) {
         // Don't bother starting a polling thread for an address that doesn't exist
         // or if the address has already been polled with an earlier tuple
         if (tuple.address == null || !uniqueAddresses.add(tuple.address)) {
@@ -607,21 +707,25 @@ public class ComputerManagerService extends Service {
             return;
         }
 
-        tuple.pollingThread = new Thread() {
-            @Override
-            public void run() {
-                ComputerDetails details = tryPollIp(tuple.existingDetails, tuple.address);
+        try {
+            tuple.pollingFuture = pollScheduler.submitProbe(new Runnable() {
+                @Override
+                public void run() {
+                    ComputerDetails details = tryPollIp(tuple.existingDetails, tuple.address);
 
-                synchronized (tuple) {
-                    tuple.complete = true; // Done
-                    tuple.returnedDetails = details; // Polling result
+                    synchronized (tuple) {
+                        tuple.complete = true; // Done
+                        tuple.returnedDetails = details; // Polling result
 
-                    tuple.notify();
+                        tuple.notify();
+                    }
                 }
-            }
-        };
-        tuple.pollingThread.setName("Parallel Poll - "+tuple.address+" - "+tuple.existingDetails.name);
-        tuple.pollingThread.start();
+            });
+        } catch (RejectedExecutionException e) {
+            // The service is being destroyed
+            tuple.complete = true;
+            tuple.returnedDetails = null;
+        }
     }
 
     private ComputerDetails parallelPollPc(ComputerDetails details) throws InterruptedException {
@@ -633,10 +737,10 @@ public class ComputerManagerService extends Service {
         // These must be started in order of precedence for the deduplication algorithm
         // to result in the correct behavior.
         HashSet<ComputerDetails.AddressTuple> uniqueAddresses = new HashSet<>();
-        startParallelPollThread(localInfo, uniqueAddresses);
-        startParallelPollThread(manualInfo, uniqueAddresses);
-        startParallelPollThread(remoteInfo, uniqueAddresses);
-        startParallelPollThread(ipv6Info, uniqueAddresses);
+        startParallelPoll(localInfo, uniqueAddresses);
+        startParallelPoll(manualInfo, uniqueAddresses);
+        startParallelPoll(remoteInfo, uniqueAddresses);
+        startParallelPoll(ipv6Info, uniqueAddresses);
 
         try {
             // Check local first
@@ -705,7 +809,11 @@ public class ComputerManagerService extends Service {
         LimeLog.info("Parallel poll for "+details.name+" returned address: "+details.activeAddress);
 
         if (polledDetails != null) {
+            ComputerDetails.AddressTuple[] oldAddresses = NvHTTPRegistry.getAddresses(details);
             details.update(polledDetails);
+
+            // Don't keep clients around for addresses the PC doesn't have anymore
+            httpRegistry.removeStaleAddresses(oldAddresses, details);
             return true;
         }
         else {
@@ -721,6 +829,10 @@ public class ComputerManagerService extends Service {
 
         // Lookup or generate this device's UID
         idManager = new IdentityManager(this);
+        cryptoProvider = PlatformBinding.getCryptoProvider(this);
+
+        // Computer polling runs on a shared set of threads
+        pollScheduler = new ComputerPollScheduler();
 
         // Initialize the DB
         dbManager = new ComputerDatabaseManager(this);
@@ -731,7 +843,8 @@ public class ComputerManagerService extends Service {
             return;
         }
 
-        for (ComputerDetails computer : dbManager.getAllComputers()) {
+        computerStore = new ComputerStore(dbManager);
+        for (ComputerDetails computer : computerStore.getAllComputers()) {
             // Add tuples for each computer
             addTuple(computer);
         }
@@ -750,6 +863,9 @@ public class ComputerManagerService extends Service {
                             if (listener != null) {
                                 listener.notifyComputerUpdated(tuple.computer);
                             }
+
+                            // PCs may be reachable now, so don't wait for the next backed off poll
+                            pollComputerNow(tuple);
                         }
                     }
                 }
@@ -785,10 +901,30 @@ public class ComputerManagerService extends Service {
             unbindService(discoveryServiceConnection);
         }
 
-        // FIXME: Should await termination here but we have timeout issues in HttpURLConnection
+        pollScheduler.shutdown();
 
-        // Remove the initial DB reference
-        releaseLocalDatabaseReference();
+        // Waiting for polls and writing to the DB can take a while, so do it off the main thread
+        new Thread() {
+            @Override
+            public void run() {
+                // Give in-flight polls a chance to finish so their updates make the final flush below.
+                // We can't wait indefinitely because a poll may be stuck in a connection timeout, but
+                // any poll that finishes later still has its update written synchronously by the store.
+                if (!pollScheduler.awaitTermination(POLL_SHUTDOWN_TIMEOUT_MS)) {
+                    LimeLog.warning("Polls still running after "+POLL_SHUTDOWN_TIMEOUT_MS+" ms");
+                }
+
+                // Drop our HTTP clients and any connections they're keeping alive
+                LimeLog.info("NvHTTP registry: "+httpRegistry.getStats());
+                httpRegistry.clear();
+
+                // Write out any pending changes before we close the DB
+                computerStore.shutdown();
+
+                // Remove the initial DB reference
+                releaseLocalDatabaseReference();
+            }
+        }.start();
     }
 
     @Override
@@ -849,6 +985,13 @@ public class ComputerManagerService extends Service {
                 @Override
                 public void run() {
                     int emptyAppListResponses = 0;
+                    String cachedAppListHash = null;
+                    boolean loadedCachedAppListHash = false;
+
+                    // Hash of the last app list this poller reported. This can't come from the
+                    // shared ComputerDetails, since a new poller must always report the first
+                    // app list it gets even if an earlier poller already reported the same one.
+                    String reportedAppListHash = null;
                     do {
                         // Can't poll if it's not online or paired
                         if (computer.state != ComputerDetails.State.ONLINE ||
@@ -864,11 +1007,17 @@ public class ComputerManagerService extends Service {
                             continue;
                         }
 
+                        // Grab the hash of the app list we have on disk so we can avoid rewriting it
+                        if (!loadedCachedAppListHash) {
+                            cachedAppListHash = AppListCache.readCachedAppListHash(getCacheDir(), computer.uuid);
+                            loadedCachedAppListHash = true;
+                        }
+
                         PollingTuple tuple = getPollingTuple(computer);
 
                         try {
-                            NvHTTP http = new NvHTTP(ServerHelper.getCurrentAddressFromComputer(computer), computer.httpsPort, idManager.getUniqueId(),
-                                    computer.serverCert, PlatformBinding.getCryptoProvider(ComputerManagerService.this));
+                            NvHTTP http = httpRegistry.get(ServerHelper.getCurrentAddressFromComputer(computer), computer.httpsPort, idManager.getUniqueId(),
+                                    computer.serverCert, cryptoProvider);
 
                             String appList;
                             if (tuple != null) {
@@ -884,7 +1033,15 @@ public class ComputerManagerService extends Service {
                                 appList = http.getAppListRaw();
                             }
 
-                            List<NvApp> list = NvHTTP.getAppListByReader(new StringReader(appList));
+                            // If the app list hasn't changed since we last reported it, there's
+                            // nothing to parse, save, or notify anyone about.
+                            String appListHash = AppListCache.getHash(appList);
+                            if (appListHash.equals(reportedAppListHash)) {
+                                receivedAppList = true;
+                                continue;
+                            }
+
+                            List<NvApp> list = AppListCache.getParsedAppList(appList, appListHash);
                             if (list.isEmpty()) {
                                 LimeLog.warning("Empty app list received from "+computer.uuid);
 
@@ -894,13 +1051,14 @@ public class ComputerManagerService extends Service {
                             }
                             if (!appList.isEmpty() &&
                                     (!list.isEmpty() || emptyAppListResponses >= EMPTY_LIST_THRESHOLD)) {
-                                // Open the cache file
-                                try (final OutputStream cacheOut = CacheHelper.openCacheFileForOutput(
-                                        getCacheDir(), "applist", computer.uuid)
-                                ) {
-                                    CacheHelper.writeStringToOutputStream(cacheOut, appList);
-                                } catch (IOException e) {
-                                    e.printStackTrace();
+                                // Update the cache file if it doesn't have this list already
+                                if (!appListHash.equals(cachedAppListHash)) {
+                                    try {
+                                        AppListCache.writeCachedAppList(getCacheDir(), computer.uuid, appList, appListHash);
+                                        cachedAppListHash = appListHash;
+                                    } catch (IOException e) {
+                                        e.printStackTrace();
+                                    }
                                 }
 
                                 // Reset empty count if it wasn't empty this time
@@ -910,6 +1068,7 @@ public class ComputerManagerService extends Service {
 
                                 // Update the computer
                                 computer.rawAppList = appList;
+                                reportedAppListHash = appListHash;
                                 receivedAppList = true;
 
                                 // Notify that the app list has been updated
@@ -946,14 +1105,16 @@ public class ComputerManagerService extends Service {
 }
 
 class PollingTuple {
-    public Thread thread;
+    public Runnable pollTask;
+    public Future<?> pollFuture;
     public final ComputerDetails computer;
     public final Object networkLock;
     public long lastSuccessfulPollMs;
+    public int offlineCount;
+    public int pollIntervalMs;
 
-    public PollingTuple(ComputerDetails computer, Thread thread) {
+    public PollingTuple(ComputerDetails computer) {
         this.computer = computer;
-        this.thread = thread;
         this.networkLock = new Object();
     }
 }
@@ -0,0 +1,134 @@
+package com.limelight.computers;
+
+import android.os.SystemClock;
+
+import com.limelight.LimeLog;
+
+import java.util.Locale;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Runs serverinfo polls for all computers on a small shared set of threads instead of
+// a dedicated thread per computer plus a new thread for each address probed by each poll.
+class ComputerPollScheduler {
+    // Polls block on network I/O while holding a computer's network lock, so we
+    // need a few threads to keep an unreachable PC from holding up the others.
+    private static final int POLL_THREADS = 4;
+
+    // Each poll probes up to 4 addresses in parallel
+    private static final int PROBE_THREADS = 8;
+
+    private static final int IDLE_THREAD_TIMEOUT_MS = 10000;
+
+    private final ScheduledThreadPoolExecutor pollExecutor;
+    private final ThreadPoolExecutor probeExecutor;
+
+    private final AtomicLong pollCount = new AtomicLong();
+    private final AtomicLong probeCount = new AtomicLong();
+    private long statsStartTimeMs = SystemClock.elapsedRealtime();
+
+    ComputerPollScheduler() {
+        pollExecutor = new ScheduledThreadPoolExecutor(POLL_THREADS, new NamedThreadFactory("Computer Poll"));
+        pollExecutor.setKeepAliveTime(IDLE_THREAD_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        pollExecutor.allowCoreThreadTimeOut(true);
+        pollExecutor.setRemoveOnCancelPolicy(true);
+
+        probeExecutor = new ThreadPoolExecutor(PROBE_THREADS, PROBE_THREADS,
+                IDLE_THREAD_TIMEOUT_MS, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new NamedThreadFactory("Parallel Poll"));
+        probeExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    // Returns null if we've been shut down. A poll that was already running when the
+    // service was destroyed will try to reschedule itself when it finishes.
+    ScheduledFuture<?> schedulePoll(Runnable poll, long delayMs) {
+        if (pollExecutor.isShutdown()) {
+            return null;
+        }
+
+        try {
+            return pollExecutor.schedule(poll, delayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // We were shut down after the check above
+            return null;
+        }
+    }
+
+    Future<?> submitProbe(Runnable probe) {
+        probeCount.incrementAndGet();
+        return probeExecutor.submit(probe);
+    }
+
+    void notifyPollCompleted() {
+        pollCount.incrementAndGet();
+    }
+
+    int getThreadCount() {
+        return pollExecutor.getPoolSize() + probeExecutor.getPoolSize();
+    }
+
+    synchronized void resetStats() {
+        pollCount.set(0);
+        probeCount.set(0);
+        statsStartTimeMs = SystemClock.elapsedRealtime();
+    }
+
+    synchronized void logStats() {
+        long elapsedMs = Math.max(SystemClock.elapsedRealtime() - statsStartTimeMs, 1);
+        LimeLog.info(String.format((Locale)null,
+                "Computer polling: %.2f polls/sec, %.2f probes/sec, %d threads (peak %d poll, %d probe)",
+                pollCount.get() * 1000.0 / elapsedMs,
+                probeCount.get() * 1000.0 / elapsedMs,
+                getThreadCount(),
+                pollExecutor.getLargestPoolSize(),
+                probeExecutor.getLargestPoolSize()));
+    }
+
+    void shutdown() {
+        pollExecutor.shutdownNow();
+        probeExecutor.shutdownNow();
+    }
+
+    // Waits for running polls and probes to finish after shutdown(). Returns false if
+    // they are still running when the timeout expires.
+    boolean awaitTermination(long timeoutMs) {
+        long deadlineMs = SystemClock.elapsedRealtime() + timeoutMs;
+        try {
+            return pollExecutor.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS) &&
+                    probeExecutor.awaitTermination(Math.max(deadlineMs - SystemClock.elapsedRealtime(), 0), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+
+            // InterruptedException clears the thread's interrupt status. Since we can't
+            // handle that here, we will re-interrupt the thread to set the interrupt
+            // status back to true.
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+        private final String name;
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        NamedThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r);
+            t.setName(name+" - "+threadCount.incrementAndGet());
+            return t;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.limelight.computers;
+
+import com.limelight.LimeLog;
+import com.limelight.nvstream.http.ComputerDetails;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Holds the persistent state of our computers in memory and writes it back to the database.
+//
+// Polling merges new details into the store every few seconds, but the persistent fields
+// almost never change, so we track which fields actually changed and only write those rows.
+// Changed rows are written behind in a single transaction on a background thread. New
+// computers and server certificate changes (from pairing) are written immediately, since
+// losing those would require the user to add or pair the PC again.
+class ComputerStore {
+    private static final int FIELD_NAME = 0x1;
+    private static final int FIELD_ADDRESSES = 0x2;
+    private static final int FIELD_MAC_ADDRESS = 0x4;
+    private static final int FIELD_SERVER_CERT = 0x8;
+    private static final int FIELD_ALL = FIELD_NAME | FIELD_ADDRESSES | FIELD_MAC_ADDRESS | FIELD_SERVER_CERT;
+
+    private static final int WRITE_BEHIND_DELAY_MS = 10000;
+
+    private final ComputerDatabaseManager dbManager;
+    private final ScheduledThreadPoolExecutor writer;
+
+    // Protected by the store's lock
+    private final HashMap<String, Entry> entries = new HashMap<>();
+    private boolean writeScheduled;
+    private boolean stopped;
+
+    // Stats
+    private int cleanUpdates;
+    private int rowsWritten;
+    private int transactions;
+
+    private static class Entry {
+        ComputerDetails details;
+        int dirtyFields;
+
+        Entry(ComputerDetails details) {
+            this.details = details;
+        }
+    }
+
+    private final Runnable writeTask = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (ComputerStore.this) {
+                writeScheduled = false;
+                writeDirtyEntries();
+            }
+        }
+    };
+
+    ComputerStore(ComputerDatabaseManager dbManager) {
+        this.dbManager = dbManager;
+
+        writer = new ScheduledThreadPoolExecutor(1);
+        writer.setKeepAliveTime(WRITE_BEHIND_DELAY_MS, TimeUnit.MILLISECONDS);
+        writer.allowCoreThreadTimeOut(true);
+
+        for (ComputerDetails computer : dbManager.getAllComputers()) {
+            entries.put(computer.uuid, new Entry(copyPersistentState(computer)));
+        }
+    }
+
+    // Returns a copy of each stored computer that the caller is free to modify
+    synchronized List<ComputerDetails> getAllComputers() {
+        ArrayList<ComputerDetails> computers = new ArrayList<>(entries.size());
+        for (Entry entry : entries.values()) {
+            computers.add(copyPersistentState(entry.details));
+        }
+        return computers;
+    }
+
+    synchronized boolean containsComputer(String uuid) {
+        return entries.containsKey(uuid);
+    }
+
+    // Merges the details into the stored computer, adding it if it's not there already
+    synchronized void updateComputer(ComputerDetails details) {
+        Entry entry = entries.get(details.uuid);
+        if (entry == null) {
+            entry = new Entry(copyPersistentState(details));
+            entry.dirtyFields = FIELD_ALL;
+            entries.put(details.uuid, entry);
+        }
+        else {
+            // Merge the same way we did when reading the row back from the database
+            ComputerDetails merged = copyPersistentState(entry.details);
+            merged.update(details);
+            merged = copyPersistentState(merged);
+
+            int changedFields = getChangedFields(entry.details, merged);
+            if (changedFields == 0) {
+                cleanUpdates++;
+                return;
+            }
+
+            entry.details = merged;
+            entry.dirtyFields |= changedFields;
+        }
+
+        if ((entry.dirtyFields & FIELD_SERVER_CERT) != 0 || stopped) {
+            // This is a new computer or it was just paired, so write it now. We'll write
+            // any other pending changes in the same transaction. Once the writer is stopped,
+            // everything is written immediately so late updates from polls aren't lost.
+            writeDirtyEntries();
+        }
+        else if (!writeScheduled) {
+            writeScheduled = true;
+            writer.schedule(writeTask, WRITE_BEHIND_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    synchronized void removeComputer(ComputerDetails details) {
+        entries.remove(details.uuid);
+        dbManager.deleteComputer(details);
+    }
+
+    // Writes any pending changes and stops the writer. Updates after this are written
+    // synchronously by the caller, which must hold its own database reference to make them.
+    synchronized void shutdown() {
+        writeDirtyEntries();
+        stopped = true;
+        writer.shutdownNow();
+
+        LimeLog.info("Computer store: "+rowsWritten+" rows written in "+transactions+
+                " transactions, "+cleanUpdates+" unchanged updates skipped");
+    }
+
+    private void writeDirtyEntries() {
+        ArrayList<ComputerDetails> dirtyComputers = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (entry.dirtyFields != 0) {
+                dirtyComputers.add(entry.details);
+                entry.dirtyFields = 0;
+            }
+        }
+
+        if (dirtyComputers.isEmpty()) {
+            return;
+        }
+
+        dbManager.updateComputers(dirtyComputers);
+        rowsWritten += dirtyComputers.size();
+        transactions++;
+    }
+
+    private static int getChangedFields(ComputerDetails a, ComputerDetails b) {
+        int changedFields = 0;
+
+        if (!Objects.equals(a.name, b.name)) {
+            changedFields |= FIELD_NAME;
+        }
+        if (!addressesEqual(a.localAddress, b.localAddress) ||
+                !addressesEqual(a.remoteAddress, b.remoteAddress) ||
+                !addressesEqual(a.manualAddress, b.manualAddress) ||
+                !addressesEqual(a.ipv6Address, b.ipv6Address)) {
+            changedFields |= FIELD_ADDRESSES;
+        }
+        if (!Objects.equals(a.macAddress, b.macAddress)) {
+            changedFields |= FIELD_MAC_ADDRESS;
+        }
+        if (a.serverCert != b.serverCert && (a.serverCert == null || !a.serverCert.equals(b.serverCert))) {
+            changedFields |= FIELD_SERVER_CERT;
+        }
+
+        return changedFields;
+    }
+
+    private static boolean addressesEqual(ComputerDetails.AddressTuple a, ComputerDetails.AddressTuple b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    // Copies only what we persist. The address tuples are copied too because
+    // ComputerDetails.update() can modify the remote address in place.
+    private static ComputerDetails copyPersistentState(ComputerDetails details) {
+        ComputerDetails copy = new ComputerDetails();
+        copy.uuid = details.uuid;
+        copy.name = details.name;
+        copy.localAddress = copyAddress(details.localAddress);
+        copy.remoteAddress = copyAddress(details.remoteAddress);
+        copy.manualAddress = copyAddress(details.manualAddress);
+        copy.ipv6Address = copyAddress(details.ipv6Address);
+        copy.macAddress = details.macAddress;
+        copy.serverCert = details.serverCert;
+        copy.externalPort = details.externalPort;
+        return copy;
+    }
+
+    private static ComputerDetails.AddressTuple copyAddress(ComputerDetails.AddressTuple address) {
+        if (address == null) {
+            return null;
+        }
+
+        return new ComputerDetails.AddressTuple(address.address, address.port);
+    }
+}
@@ -3,6 +3,7 @@ package com.limelight.grid;
 import android.content.Context;
 import android.graphics.BitmapFactory;
 import android.view.View;
+import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.ProgressBar;
 import android.widget.TextView;
@@ -15,14 +16,17 @@ import com.limelight.grid.assets.DiskAssetLoader;
 import com.limelight.grid.assets.MemoryAssetLoader;
 import com.limelight.grid.assets.NetworkAssetLoader;
 import com.limelight.nvstream.http.ComputerDetails;
+import com.limelight.nvstream.http.NvApp;
 import com.limelight.preferences.AppPreferences;
 import com.limelight.preferences.PreferenceConfiguration;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 @SuppressWarnings("unchecked")
@@ -31,6 +35,9 @@ public class AppGridAdapter extends GenericGridAdapter<AppView.AppObject> {
     private static final int SMALL_WIDTH_DP = 100;
     private static final int LARGE_WIDTH_DP = 150;
 
+    // Number of tiles on each side of a displayed tile to prefetch art for
+    private static final int PREFETCH_DISTANCE = 8;
+
     private final ComputerDetails computer;
     private final String uniqueId;
     private final boolean showHiddenApps;
@@ -38,6 +45,8 @@ public class AppGridAdapter extends GenericGridAdapter<AppView.AppObject> {
     private CachedAppAssetLoader loader;
     private Set<Integer> hiddenAppIds = new HashSet<>();
     private ArrayList<AppView.AppObject> allApps = new ArrayList<>();
+    private final HashMap<Integer, AppView.AppObject> appsById = new HashMap<>();
+    private final AppListDiffer appListDiffer = new AppListDiffer();
 
     public AppGridAdapter(Context context, PreferenceConfiguration prefs, ComputerDetails computer, String uniqueId, boolean showHiddenApps) {
         super(context, getLayoutIdForPreferences(prefs));
@@ -122,43 +131,150 @@ public class AppGridAdapter extends GenericGridAdapter<AppView.AppObject> {
         loader.freeCacheMemory();
     }
 
-    private static void sortList(List<AppView.AppObject> list) {
-        Collections.sort(list, new Comparator<AppView.AppObject>() {
-            @Override
-            public int compare(AppView.AppObject lhs, AppView.AppObject rhs) {
-                return lhs.app.getAppName().toLowerCase().compareTo(rhs.app.getAppName().toLowerCase());
+    private static final Comparator<AppView.AppObject> APP_NAME_COMPARATOR = new Comparator<AppView.AppObject>() {
+        @Override
+        public int compare(AppView.AppObject lhs, AppView.AppObject rhs) {
+            return lhs.app.getAppName().toLowerCase().compareTo(rhs.app.getAppName().toLowerCase());
+        }
+    };
+
+    // Merges the sorted apps into the sorted list in a single pass
+    private static void mergeSortedApps(ArrayList<AppView.AppObject> list, List<AppView.AppObject> sortedApps) {
+        if (sortedApps.isEmpty()) {
+            return;
+        }
+
+        ArrayList<AppView.AppObject> mergedList = new ArrayList<>(list.size() + sortedApps.size());
+        int i = 0, j = 0;
+        while (i < list.size() && j < sortedApps.size()) {
+            if (APP_NAME_COMPARATOR.compare(sortedApps.get(j), list.get(i)) < 0) {
+                mergedList.add(sortedApps.get(j++));
             }
-        });
+            else {
+                mergedList.add(list.get(i++));
+            }
+        }
+        mergedList.addAll(list.subList(i, list.size()));
+        mergedList.addAll(sortedApps.subList(j, sortedApps.size()));
+
+        list.clear();
+        list.addAll(mergedList);
+    }
+
+    // This may be called on any thread. The changes must be applied with applyAppListChanges()
+    // in the same order they were computed.
+    public AppListDiffer.Changes diffAppList(List<NvApp> appList) {
+        return appListDiffer.diff(appList);
     }
 
-    public void addApp(AppView.AppObject app) {
-        // Update hidden state
-        app.isHidden = hiddenAppIds.contains(app.app.getAppId());
+    // Applies changes computed by diffAppList() and returns the apps that were removed, or
+    // null if the adapter was cleared since the changes were computed. This must be called on
+    // the UI thread, and the caller must call notifyDataSetChanged() if it returns non-null.
+    public List<AppView.AppObject> applyAppListChanges(AppListDiffer.Changes changes) {
+        if (!appListDiffer.isCurrent(changes)) {
+            // These were computed against the list we cleared. The next diff will
+            // be against an empty list, so it will add everything back correctly.
+            return null;
+        }
+
+        ArrayList<AppView.AppObject> removedApps = new ArrayList<>();
+        ArrayList<AppView.AppObject> insertedApps = new ArrayList<>();
+
+        for (Integer appId : changes.removedAppIds) {
+            AppView.AppObject app = appsById.remove(appId);
+            if (app != null) {
+                removedApps.add(app);
+            }
+        }
 
-        // Always add the app to the all apps list
-        allApps.add(app);
-        sortList(allApps);
+        // Renamed apps are taken out and inserted again since their sort position may change
+        for (Map.Entry<Integer, String> entry : changes.renamedApps.entrySet()) {
+            AppView.AppObject app = appsById.get(entry.getKey());
+            if (app != null) {
+                app.app.setAppName(entry.getValue());
+                insertedApps.add(app);
+            }
+        }
 
-        // Add the app to the adapter data if it's not hidden
-        if (showHiddenApps || !app.isHidden) {
-            // Queue a request to fetch this bitmap into cache
-            loader.queueCacheLoad(app.app);
+        if (!removedApps.isEmpty() || !insertedApps.isEmpty()) {
+            filterRemovedAndRenamedApps(allApps, changes);
+            filterRemovedAndRenamedApps(itemList, changes);
+        }
 
-            // Add the app to our sorted list
-            itemList.add(app);
-            sortList(itemList);
+        for (NvApp newApp : changes.addedApps) {
+            // Parsed app lists are shared, so we take our own copy that we can rename later
+            AppView.AppObject app = new AppView.AppObject(new NvApp(newApp.getAppName(), newApp.getAppId(), newApp.isHdrSupported()));
+            app.isHidden = hiddenAppIds.contains(newApp.getAppId());
+            appsById.put(newApp.getAppId(), app);
+            insertedApps.add(app);
         }
+
+        // Only the inserted apps need sorting since the existing lists are already sorted
+        Collections.sort(insertedApps, APP_NAME_COMPARATOR);
+
+        ArrayList<AppView.AppObject> visibleInsertedApps = new ArrayList<>(insertedApps.size());
+        for (AppView.AppObject app : insertedApps) {
+            // Add the app to the adapter data if it's not hidden
+            if (showHiddenApps || !app.isHidden) {
+                // Queue a request to fetch this bitmap into cache
+                loader.queueCacheLoad(app.app);
+
+                visibleInsertedApps.add(app);
+            }
+        }
+
+        mergeSortedApps(allApps, insertedApps);
+        mergeSortedApps(itemList, visibleInsertedApps);
+
+        return removedApps;
     }
 
-    public void removeApp(AppView.AppObject app) {
-        itemList.remove(app);
-        allApps.remove(app);
+    private void filterRemovedAndRenamedApps(ArrayList<AppView.AppObject> list, AppListDiffer.Changes changes) {
+        int j = 0;
+        for (int i = 0; i < list.size(); i++) {
+            AppView.AppObject app = list.get(i);
+            if (!changes.removedAppIds.contains(app.app.getAppId()) &&
+                    !changes.renamedApps.containsKey(app.app.getAppId())) {
+                list.set(j++, app);
+            }
+        }
+        list.subList(j, list.size()).clear();
     }
 
     @Override
     public void clear() {
         super.clear();
         allApps.clear();
+        appsById.clear();
+        appListDiffer.reset();
+    }
+
+    @Override
+    public long getItemId(int i) {
+        // App IDs are stable across app list updates, unlike positions
+        return itemList.get(i).app.getAppId();
+    }
+
+    @Override
+    public boolean hasStableIds() {
+        return true;
+    }
+
+    @Override
+    public View getView(int i, View convertView, ViewGroup viewGroup) {
+        // Prefetch art for the tiles near this one, so it's ready when they scroll into view.
+        // Tiles are requested in the direction of scrolling, so this also drops the prefetches
+        // for tiles that have been scrolled past.
+        ArrayList<NvApp> prefetchApps = new ArrayList<>();
+        int prefetchEnd = Math.min(i + PREFETCH_DISTANCE, itemList.size() - 1);
+        for (int j = Math.max(i - PREFETCH_DISTANCE, 0); j <= prefetchEnd; j++) {
+            if (j != i) {
+                prefetchApps.add(itemList.get(j).app);
+            }
+        }
+        loader.setPrefetches(prefetchApps);
+
+        return super.getView(i, convertView, viewGroup);
     }
 
     @Override
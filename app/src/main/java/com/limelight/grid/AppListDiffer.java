@@ -0,0 +1,78 @@
+package com.limelight.grid;
+
+import com.limelight.nvstream.http.NvApp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+// Computes the changes between the app list we've handed to the adapter and a new app list
+// from the host. Apps are keyed by ID so this runs in linear time regardless of the size of
+// the lists, and it's designed to run on a background thread so the UI thread only has to
+// merge the result into the adapter.
+public class AppListDiffer {
+    // App ID to name for the last list we diffed against
+    private HashMap<Integer, String> currentApps = new HashMap<>();
+
+    // Incremented on each reset, so changes computed before the adapter was cleared
+    // can be recognized and thrown away instead of bringing back the cleared apps
+    private int generation;
+
+    public static class Changes {
+        final ArrayList<NvApp> addedApps = new ArrayList<>();
+        final HashMap<Integer, String> renamedApps = new HashMap<>();
+        final HashSet<Integer> removedAppIds = new HashSet<>();
+        final int generation;
+
+        Changes(int generation) {
+            this.generation = generation;
+        }
+
+        public boolean isEmpty() {
+            return addedApps.isEmpty() && renamedApps.isEmpty() && removedAppIds.isEmpty();
+        }
+
+        public List<NvApp> getAddedApps() {
+            return addedApps;
+        }
+    }
+
+    synchronized Changes diff(List<NvApp> appList) {
+        Changes changes = new Changes(generation);
+        HashMap<Integer, String> newApps = new HashMap<>();
+
+        for (NvApp app : appList) {
+            // If the host sends a duplicate ID, only the first one is used
+            if (newApps.containsKey(app.getAppId())) {
+                continue;
+            }
+            newApps.put(app.getAppId(), app.getAppName());
+
+            if (!currentApps.containsKey(app.getAppId())) {
+                changes.addedApps.add(app);
+            }
+            else if (!currentApps.get(app.getAppId()).equals(app.getAppName())) {
+                changes.renamedApps.put(app.getAppId(), app.getAppName());
+            }
+        }
+
+        for (Integer appId : currentApps.keySet()) {
+            if (!newApps.containsKey(appId)) {
+                changes.removedAppIds.add(appId);
+            }
+        }
+
+        currentApps = newApps;
+        return changes;
+    }
+
+    synchronized void reset() {
+        currentApps.clear();
+        generation++;
+    }
+
+    synchronized boolean isCurrent(Changes changes) {
+        return changes.generation == generation;
+    }
+}
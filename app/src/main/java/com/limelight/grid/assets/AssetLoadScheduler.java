@@ -0,0 +1,411 @@
+package com.limelight.grid.assets;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.limelight.LimeLog;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Schedules box art loads through the disk and network stages in priority order.
+//
+// Requests for the same app are coalesced into a single job that takes the highest priority
+// of its requesters. Jobs are cancelled when nobody wants their result anymore, such as when
+// the view that requested it has been recycled for another app. Network retries wait on a
+// timer rather than sleeping in a worker thread.
+class AssetLoadScheduler {
+    static final int PRIORITY_VISIBLE = 0;
+    static final int PRIORITY_PREFETCH = 1;
+    static final int PRIORITY_BACKGROUND = 2;
+
+    private static final int DISK_THREADS = 3;
+    private static final int NETWORK_THREADS = 3;
+    private static final int IDLE_THREAD_TIMEOUT_MS = 10000;
+
+    private static final int MAX_NETWORK_TRIES = 3;
+
+    // Log the load metrics each time this many tiles have been displayed
+    private static final int METRICS_LOG_INTERVAL = 50;
+
+    interface Listener {
+        // Called on the UI thread when the art isn't on disk and must come from the network
+        void onNetworkLoadStarted();
+
+        // Called on the UI thread when the load has finished. The bitmap is null on failure.
+        void onLoadComplete(ScaledBitmap bitmap);
+    }
+
+    private final DiskAssetLoader diskLoader;
+    private final NetworkAssetLoader networkLoader;
+    private final MemoryAssetLoader memoryLoader;
+    private final int tileWidth;
+    private final int tileHeight;
+
+    private final ThreadPoolExecutor diskExecutor;
+    private final ThreadPoolExecutor networkExecutor;
+    private final ScheduledThreadPoolExecutor retryTimer;
+    private final Handler uiHandler = new Handler(Looper.getMainLooper());
+
+    // All job state is protected by the scheduler's lock
+    private final HashMap<CachedAppAssetLoader.LoaderTuple, Job> jobs = new HashMap<>();
+    private long nextSequence;
+    private int pendingRetries;
+
+    // Metrics
+    private int coalescedRequests;
+    private int firstPixelSamples;
+    private long totalTimeToFirstPixelMs;
+    private long maxTimeToFirstPixelMs;
+
+    private enum Stage {
+        DISK,
+        NETWORK,
+    }
+
+    private class Job implements Runnable, Comparable<Job> {
+        final CachedAppAssetLoader.LoaderTuple tuple;
+        final ArrayList<Listener> listeners = new ArrayList<>();
+
+        long sequence;
+        int priority;
+        Stage stage = Stage.DISK;
+        int networkTries;
+        boolean prefetchRequested;
+        boolean backgroundRequested;
+        boolean cancelled;
+
+        // Background cache warming only needs the art on disk, not decoded
+        volatile boolean wantsBitmap;
+
+        Job(CachedAppAssetLoader.LoaderTuple tuple) {
+            this.tuple = tuple;
+        }
+
+        @Override
+        public int compareTo(Job other) {
+            if (priority != other.priority) {
+                return Integer.compare(priority, other.priority);
+            }
+
+            // FIFO within a priority level
+            return Long.compare(sequence, other.sequence);
+        }
+
+        @Override
+        public void run() {
+            synchronized (AssetLoadScheduler.this) {
+                if (cancelled) {
+                    return;
+                }
+            }
+
+            if (stage == Stage.DISK) {
+                runDiskStage(this);
+            }
+            else {
+                runNetworkStage(this);
+            }
+        }
+    }
+
+    AssetLoadScheduler(DiskAssetLoader diskLoader, NetworkAssetLoader networkLoader,
+                       MemoryAssetLoader memoryLoader, int tileWidth, int tileHeight) {
+        this.diskLoader = diskLoader;
+        this.networkLoader = networkLoader;
+        this.memoryLoader = memoryLoader;
+        this.tileWidth = tileWidth;
+        this.tileHeight = tileHeight;
+
+        diskExecutor = new ThreadPoolExecutor(DISK_THREADS, DISK_THREADS,
+                IDLE_THREAD_TIMEOUT_MS, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>());
+        diskExecutor.allowCoreThreadTimeOut(true);
+
+        networkExecutor = new ThreadPoolExecutor(NETWORK_THREADS, NETWORK_THREADS,
+                IDLE_THREAD_TIMEOUT_MS, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>());
+        networkExecutor.allowCoreThreadTimeOut(true);
+
+        retryTimer = new ScheduledThreadPoolExecutor(1);
+        retryTimer.setKeepAliveTime(IDLE_THREAD_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        retryTimer.allowCoreThreadTimeOut(true);
+    }
+
+    // Requests a load of the tuple. A listener is only allowed for PRIORITY_VISIBLE requests.
+    synchronized void request(CachedAppAssetLoader.LoaderTuple tuple, int priority, Listener listener, boolean wantsBitmap) {
+        Job job = jobs.get(tuple);
+        boolean newJob = job == null;
+        if (newJob) {
+            job = new Job(tuple);
+            jobs.put(tuple, job);
+        }
+
+        // Only count requests that were actually saved a load by joining an existing job,
+        // not repeats of a request the job already has
+        boolean newRequester = false;
+        if (listener != null) {
+            if (!job.listeners.contains(listener)) {
+                job.listeners.add(listener);
+                newRequester = true;
+            }
+        }
+        else if (priority == PRIORITY_PREFETCH) {
+            newRequester = !job.prefetchRequested;
+            job.prefetchRequested = true;
+        }
+        else if (priority == PRIORITY_BACKGROUND) {
+            newRequester = !job.backgroundRequested;
+            job.backgroundRequested = true;
+        }
+        if (!newJob && newRequester) {
+            coalescedRequests++;
+        }
+        if (wantsBitmap) {
+            job.wantsBitmap = true;
+        }
+
+        if (job.sequence == 0) {
+            // This is a new job
+            job.sequence = ++nextSequence;
+            job.priority = priority;
+            diskExecutor.execute(job);
+        }
+        else if (priority < job.priority) {
+            setJobPriority(job, priority);
+        }
+    }
+
+    // Makes the tuples the only prefetches. Prefetches for any other tuples are dropped, which
+    // demotes or cancels their jobs if nothing else wants them.
+    synchronized void setPrefetches(Set<CachedAppAssetLoader.LoaderTuple> tuples) {
+        for (Job job : new ArrayList<>(jobs.values())) {
+            if (job.prefetchRequested && !tuples.contains(job.tuple)) {
+                job.prefetchRequested = false;
+                updateJobAfterCancellation(job);
+            }
+        }
+
+        for (CachedAppAssetLoader.LoaderTuple tuple : tuples) {
+            request(tuple, PRIORITY_PREFETCH, null, true);
+        }
+    }
+
+    // Cancels the listener's interest in the tuple
+    synchronized void cancel(CachedAppAssetLoader.LoaderTuple tuple, Listener listener) {
+        Job job = jobs.get(tuple);
+        if (job != null && job.listeners.remove(listener)) {
+            updateJobAfterCancellation(job);
+        }
+    }
+
+    synchronized void cancelForegroundLoads() {
+        for (Job job : new ArrayList<>(jobs.values())) {
+            job.listeners.clear();
+            job.prefetchRequested = false;
+            updateJobAfterCancellation(job);
+        }
+    }
+
+    synchronized void cancelBackgroundLoads() {
+        for (Job job : new ArrayList<>(jobs.values())) {
+            job.backgroundRequested = false;
+            updateJobAfterCancellation(job);
+        }
+    }
+
+    private void updateJobAfterCancellation(Job job) {
+        if (!job.listeners.isEmpty()) {
+            // Still visible somewhere
+            return;
+        }
+
+        if (job.prefetchRequested) {
+            setJobPriority(job, PRIORITY_PREFETCH);
+        }
+        else if (job.backgroundRequested) {
+            setJobPriority(job, PRIORITY_BACKGROUND);
+        }
+        else {
+            // Nobody wants this anymore
+            job.cancelled = true;
+            jobs.remove(job.tuple);
+            getExecutorForStage(job.stage).remove(job);
+        }
+    }
+
+    private ThreadPoolExecutor getExecutorForStage(Stage stage) {
+        return stage == Stage.DISK ? diskExecutor : networkExecutor;
+    }
+
+    private void setJobPriority(Job job, int priority) {
+        if (job.priority == priority) {
+            return;
+        }
+
+        // The priority can't change while the job is in the queue, so pull it out first.
+        // If it's not queued, it's running or waiting to retry and will be queued with
+        // the new priority next time.
+        ThreadPoolExecutor executor = getExecutorForStage(job.stage);
+        boolean wasQueued = executor.remove(job);
+        job.priority = priority;
+        if (wasQueued) {
+            executor.execute(job);
+        }
+    }
+
+    private void runDiskStage(Job job) {
+        if (job.wantsBitmap) {
+            ScaledBitmap bmp = diskLoader.loadBitmapFromCache(job.tuple, tileWidth, tileHeight);
+            if (bmp != null) {
+                memoryLoader.populateCache(job.tuple, bmp);
+                completeJob(job, bmp);
+                return;
+            }
+        }
+        else if (diskLoader.checkCacheExists(job.tuple)) {
+            completeJobWithoutBitmap(job);
+            return;
+        }
+
+        // We'll need to get it from the network
+        synchronized (this) {
+            if (job.cancelled) {
+                return;
+            }
+
+            job.stage = Stage.NETWORK;
+            networkExecutor.execute(job);
+
+            if (!job.listeners.isEmpty()) {
+                final ArrayList<Listener> listeners = new ArrayList<>(job.listeners);
+                uiHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (Listener listener : listeners) {
+                            listener.onNetworkLoadStarted();
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+    private void runNetworkStage(final Job job) {
+        InputStream in = networkLoader.getBitmapStream(job.tuple);
+        if (in != null) {
+            // Write the stream straight to disk
+            diskLoader.populateCacheWithStream(job.tuple, in);
+
+            // Close the network input stream
+            try {
+                in.close();
+            } catch (IOException ignored) {}
+
+            if (!job.wantsBitmap) {
+                completeJobWithoutBitmap(job);
+                return;
+            }
+
+            // If the cached bitmap is valid, return it. Otherwise, we'll try the load again
+            ScaledBitmap bmp = diskLoader.loadBitmapFromCache(job.tuple, tileWidth, tileHeight);
+            if (bmp != null) {
+                memoryLoader.populateCache(job.tuple, bmp);
+                completeJob(job, bmp);
+                return;
+            }
+        }
+
+        synchronized (this) {
+            if (job.cancelled) {
+                return;
+            }
+
+            if (++job.networkTries >= MAX_NETWORK_TRIES) {
+                completeJob(job, null);
+                return;
+            }
+
+            // Wait 1 second with a bit of fuzz without tying up a network thread
+            pendingRetries++;
+            retryTimer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (AssetLoadScheduler.this) {
+                        pendingRetries--;
+                        if (!job.cancelled) {
+                            networkExecutor.execute(job);
+                        }
+                    }
+                }
+            }, (long) (1000 + (Math.random() * 500)), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void completeJobWithoutBitmap(Job job) {
+        if (job.cancelled) {
+            return;
+        }
+
+        if (job.wantsBitmap) {
+            // Someone wants to display this while we were checking the disk cache,
+            // so go back and decode it for them.
+            job.stage = Stage.DISK;
+            diskExecutor.execute(job);
+            return;
+        }
+
+        completeJob(job, null);
+    }
+
+    private synchronized void completeJob(Job job, final ScaledBitmap bitmap) {
+        if (job.cancelled) {
+            return;
+        }
+
+        job.cancelled = true;
+        jobs.remove(job.tuple);
+
+        if (!job.listeners.isEmpty()) {
+            final ArrayList<Listener> listeners = new ArrayList<>(job.listeners);
+            uiHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    for (Listener listener : listeners) {
+                        listener.onLoadComplete(bitmap);
+                    }
+                }
+            });
+        }
+    }
+
+    synchronized int getQueueDepth() {
+        return diskExecutor.getQueue().size() + networkExecutor.getQueue().size() + pendingRetries;
+    }
+
+    // Called on the UI thread when a requested tile has been displayed
+    synchronized void recordTimeToFirstPixel(long requestTimeMs) {
+        long timeToFirstPixelMs = SystemClock.uptimeMillis() - requestTimeMs;
+
+        firstPixelSamples++;
+        totalTimeToFirstPixelMs += timeToFirstPixelMs;
+        maxTimeToFirstPixelMs = Math.max(maxTimeToFirstPixelMs, timeToFirstPixelMs);
+
+        if (firstPixelSamples == METRICS_LOG_INTERVAL) {
+            LimeLog.info("Box art time to first pixel: avg "+(totalTimeToFirstPixelMs / firstPixelSamples)+
+                    " ms, max "+maxTimeToFirstPixelMs+" ms, queue depth: "+getQueueDepth()+
+                    ", coalesced requests: "+coalescedRequests);
+
+            firstPixelSamples = 0;
+            totalTimeToFirstPixelMs = 0;
+            maxTimeToFirstPixelMs = 0;
+            coalescedRequests = 0;
+        }
+    }
+}
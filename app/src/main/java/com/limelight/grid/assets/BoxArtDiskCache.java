@@ -0,0 +1,420 @@
+package com.limelight.grid.assets;
+
+import com.limelight.LimeLog;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// A size-bounded LRU cache of box art files stored as boxart/<computer uuid>/<name>.
+//
+// The cache keeps an index of every file and its size in memory, so lookups never touch the
+// filesystem. The index is persisted as an append-only journal that is compacted when it
+// grows too large. Files are written under a temporary name and renamed into place once
+// complete, so a crash can never leave a partially written file that looks valid. The index
+// is loaded on a background thread as soon as the cache is first created.
+class BoxArtDiskCache {
+    private static final String JOURNAL_NAME = "journal";
+    private static final String JOURNAL_TMP_NAME = "journal.tmp";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private static final String JOURNAL_PUT = "PUT";
+    private static final String JOURNAL_READ = "READ";
+    private static final String JOURNAL_DEL = "DEL";
+
+    // Compact the journal when it has this many more lines than there are entries
+    private static final int JOURNAL_COMPACT_THRESHOLD = 500;
+
+    private static BoxArtDiskCache instance;
+
+    private final File rootDir;
+    private final long maxSize;
+
+    // Keyed by <computer uuid>/<name> in access order
+    private final LinkedHashMap<String, Long> index = new LinkedHashMap<>(0, 0.75f, true);
+    private long size;
+
+    private boolean initialized;
+    private Writer journalWriter;
+    private int journalLines;
+
+    private BoxArtDiskCache(File rootDir, long maxSize) {
+        this.rootDir = rootDir;
+        this.maxSize = maxSize;
+    }
+
+    // The cache is shared by all users in the process so they agree on the index
+    static synchronized BoxArtDiskCache getInstance(File cacheDir, long maxSize) {
+        if (instance == null) {
+            final BoxArtDiskCache cache = new BoxArtDiskCache(new File(cacheDir, "boxart"), maxSize);
+
+            // Load the index now rather than on whichever thread (possibly the UI thread)
+            // happens to use the cache first. Callers arriving before this finishes will
+            // wait on the lock for it.
+            new Thread() {
+                @Override
+                public void run() {
+                    synchronized (cache) {
+                        cache.initialize();
+                    }
+                }
+            }.start();
+
+            instance = cache;
+        }
+        return instance;
+    }
+
+    private static String makeKey(String computerUuid, String name) {
+        return computerUuid+"/"+name;
+    }
+
+    File getFile(String computerUuid, String name) {
+        return new File(new File(rootDir, computerUuid), name);
+    }
+
+    // Returns the file if it's in the cache and marks it as recently used, otherwise null
+    synchronized File get(String computerUuid, String name) {
+        initialize();
+
+        String key = makeKey(computerUuid, name);
+        if (index.get(key) == null) {
+            return null;
+        }
+
+        // Reads only affect the eviction order, so losing a few in a crash is harmless.
+        // They are left buffered until the next change to the index is written out.
+        appendJournal(JOURNAL_READ, key, false);
+        return getFile(computerUuid, name);
+    }
+
+    synchronized boolean contains(String computerUuid, String name) {
+        initialize();
+        return index.containsKey(makeKey(computerUuid, name));
+    }
+
+    // Returns a new temporary file to write the entry into. The temporary file must be passed
+    // to either commitWrite() or abortWrite() when the write is finished.
+    synchronized File beginWrite(String computerUuid, String name) throws IOException {
+        // Initialize first, so we don't clean up this temporary file as leftover from a crash
+        initialize();
+
+        File dir = new File(rootDir, computerUuid);
+        dir.mkdirs();
+        return File.createTempFile(name+".", TMP_SUFFIX, dir);
+    }
+
+    synchronized boolean commitWrite(String computerUuid, String name, File tmpFile) {
+        initialize();
+
+        File file = getFile(computerUuid, name);
+        if (!tmpFile.renameTo(file)) {
+            LimeLog.warning("Unable to commit cache file: "+file);
+            tmpFile.delete();
+            return false;
+        }
+
+        String key = makeKey(computerUuid, name);
+        long fileSize = file.length();
+        Long oldSize = index.put(key, fileSize);
+        if (oldSize != null) {
+            size -= oldSize;
+        }
+        size += fileSize;
+
+        appendJournal(JOURNAL_PUT, key+" "+fileSize, true);
+        trimToSize();
+        return true;
+    }
+
+    void abortWrite(File tmpFile) {
+        tmpFile.delete();
+    }
+
+    synchronized void remove(String computerUuid, String name) {
+        initialize();
+        removeEntry(makeKey(computerUuid, name));
+    }
+
+    // Removes all of a computer's entries with names starting with the prefix
+    synchronized void removeMatching(String computerUuid, String namePrefix) {
+        initialize();
+
+        String keyPrefix = makeKey(computerUuid, namePrefix);
+        ArrayList<String> keysToRemove = new ArrayList<>();
+        for (String key : index.keySet()) {
+            if (key.startsWith(keyPrefix)) {
+                keysToRemove.add(key);
+            }
+        }
+        for (String key : keysToRemove) {
+            removeEntry(key);
+        }
+    }
+
+    synchronized void removeAllForComputer(String computerUuid) {
+        removeMatching(computerUuid, "");
+
+        // Catch any leftover temporary files too
+        File[] files = new File(rootDir, computerUuid).listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+    }
+
+    private void removeEntry(String key) {
+        Long oldSize = index.remove(key);
+        if (oldSize == null) {
+            return;
+        }
+
+        size -= oldSize;
+        new File(rootDir, key).delete();
+        appendJournal(JOURNAL_DEL, key, true);
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> it = index.entrySet().iterator();
+        while (size > maxSize && it.hasNext()) {
+            // The first entry is the least recently used
+            Map.Entry<String, Long> entry = it.next();
+            it.remove();
+
+            size -= entry.getValue();
+            new File(rootDir, entry.getKey()).delete();
+            appendJournal(JOURNAL_DEL, entry.getKey(), true);
+        }
+    }
+
+    private void initialize() {
+        if (initialized) {
+            return;
+        }
+        initialized = true;
+
+        readJournal();
+        reconcileWithFilesystem();
+        trimToSize();
+
+        // Start with a clean journal that reflects what we found
+        rewriteJournal();
+
+        LimeLog.info("Box art disk cache: "+index.size()+" entries, "+size+" bytes");
+    }
+
+    private void readJournal() {
+        File journal = new File(rootDir, JOURNAL_NAME);
+        if (!journal.exists()) {
+            return;
+        }
+
+        try (final BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(journal), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = readJournalLine(reader)) != null) {
+                if (!replayJournalLine(line)) {
+                    // Anything after a bad record can't be trusted either. The journal is
+                    // rewritten from the index once we're done, which drops the rest.
+                    LimeLog.warning("Stopping box art cache journal replay at bad record: "+line);
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Returns the next newline-terminated line, or null at the end of the journal. A final line
+    // without a newline was only partially written before a crash, so it's treated as absent.
+    private static String readJournalLine(Reader reader) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = reader.read()) != -1) {
+            if (c == '\n') {
+                return line.toString();
+            }
+            line.append((char) c);
+        }
+
+        if (line.length() != 0) {
+            LimeLog.warning("Ignoring partial box art cache journal record: "+line);
+        }
+        return null;
+    }
+
+    // Applies a journal record to the index, returning false if the record is malformed
+    private boolean replayJournalLine(String line) {
+        String[] parts = line.split(" ", -1);
+        if (parts.length < 2 || !isValidKey(parts[1])) {
+            return false;
+        }
+
+        if (parts.length == 3 && parts[0].equals(JOURNAL_PUT)) {
+            long fileSize;
+            try {
+                fileSize = Long.parseLong(parts[2]);
+            } catch (NumberFormatException e) {
+                return false;
+            }
+            if (fileSize < 0) {
+                return false;
+            }
+
+            index.put(parts[1], fileSize);
+            return true;
+        }
+        else if (parts.length == 2 && parts[0].equals(JOURNAL_READ)) {
+            // This updates the access order
+            index.get(parts[1]);
+            return true;
+        }
+        else if (parts.length == 2 && parts[0].equals(JOURNAL_DEL)) {
+            index.remove(parts[1]);
+            return true;
+        }
+        else {
+            return false;
+        }
+    }
+
+    // Keys are always <computer uuid>/<name> with neither part empty
+    private static boolean isValidKey(String key) {
+        int separator = key.indexOf('/');
+        return separator > 0 && separator < key.length() - 1 && key.indexOf('/', separator + 1) < 0;
+    }
+
+    // Checks the journal against the files that are actually present. This only lists the
+    // directories, so we only need to stat files that the journal doesn't know about.
+    private void reconcileWithFilesystem() {
+        HashSet<String> presentKeys = new HashSet<>();
+        LinkedHashMap<String, Long> untrackedEntries = new LinkedHashMap<>();
+
+        File[] computerDirs = rootDir.listFiles();
+        if (computerDirs != null) {
+            for (File computerDir : computerDirs) {
+                String[] names = computerDir.list();
+                if (names == null) {
+                    // Not a directory
+                    continue;
+                }
+
+                for (String name : names) {
+                    File file = new File(computerDir, name);
+                    if (name.endsWith(TMP_SUFFIX)) {
+                        // Incomplete write from before a crash
+                        file.delete();
+                        continue;
+                    }
+
+                    String key = makeKey(computerDir.getName(), name);
+                    presentKeys.add(key);
+
+                    if (!index.containsKey(key)) {
+                        // This was written without being recorded in the journal (by an older
+                        // version or if we crashed at just the wrong time)
+                        untrackedEntries.put(key, file.length());
+                    }
+                }
+            }
+        }
+
+        // Adopt untracked files as the least recently used entries
+        if (!untrackedEntries.isEmpty()) {
+            untrackedEntries.putAll(index);
+            index.clear();
+            index.putAll(untrackedEntries);
+        }
+
+        size = 0;
+        Iterator<Map.Entry<String, Long>> it = index.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Long> entry = it.next();
+            if (!presentKeys.contains(entry.getKey())) {
+                // The file is gone
+                it.remove();
+            }
+            else {
+                size += entry.getValue();
+            }
+        }
+    }
+
+    private void rewriteJournal() {
+        closeJournal();
+
+        rootDir.mkdirs();
+        File journalTmp = new File(rootDir, JOURNAL_TMP_NAME);
+        try (final Writer writer = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(journalTmp), StandardCharsets.UTF_8))) {
+            for (Map.Entry<String, Long> entry : index.entrySet()) {
+                writer.write(JOURNAL_PUT+" "+entry.getKey()+" "+entry.getValue()+"\n");
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            journalTmp.delete();
+            return;
+        }
+
+        if (!journalTmp.renameTo(new File(rootDir, JOURNAL_NAME))) {
+            LimeLog.warning("Unable to replace box art cache journal");
+            journalTmp.delete();
+            return;
+        }
+
+        journalLines = index.size();
+        try {
+            journalWriter = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(new File(rootDir, JOURNAL_NAME), true), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void closeJournal() {
+        if (journalWriter != null) {
+            try {
+                journalWriter.close();
+            } catch (IOException ignored) {}
+            journalWriter = null;
+        }
+    }
+
+    // Appends a record to the journal. Unflushed records are written out with the next flushed
+    // one, or when the writer's buffer fills.
+    private void appendJournal(String op, String args, boolean flush) {
+        if (journalLines - index.size() > JOURNAL_COMPACT_THRESHOLD) {
+            // This writes the current state, so there's nothing to append
+            rewriteJournal();
+            return;
+        }
+
+        if (journalWriter == null) {
+            return;
+        }
+
+        try {
+            journalWriter.write(op+" "+args+"\n");
+            if (flush) {
+                journalWriter.flush();
+            }
+            journalLines++;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
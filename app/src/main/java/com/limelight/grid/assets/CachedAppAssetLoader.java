@@ -4,7 +4,7 @@ import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
-import android.os.AsyncTask;
+import android.os.SystemClock;
 import android.view.View;
 import android.view.animation.Animation;
 import android.view.animation.AnimationUtils;
@@ -15,45 +15,18 @@ import com.limelight.R;
 import com.limelight.nvstream.http.ComputerDetails;
 import com.limelight.nvstream.http.NvApp;
 
-import java.io.IOException;
-import java.io.InputStream;
 import java.lang.ref.WeakReference;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.HashSet;
+import java.util.List;
 
 public class CachedAppAssetLoader {
-    private static final int MAX_CONCURRENT_DISK_LOADS = 3;
-    private static final int MAX_CONCURRENT_NETWORK_LOADS = 3;
-    private static final int MAX_CONCURRENT_CACHE_LOADS = 1;
-
-    private static final int MAX_PENDING_CACHE_LOADS = 100;
-    private static final int MAX_PENDING_NETWORK_LOADS = 40;
-    private static final int MAX_PENDING_DISK_LOADS = 40;
-
-    private final ThreadPoolExecutor cacheExecutor = new ThreadPoolExecutor(
-            MAX_CONCURRENT_CACHE_LOADS, MAX_CONCURRENT_CACHE_LOADS,
-            Long.MAX_VALUE, TimeUnit.DAYS,
-            new LinkedBlockingQueue<Runnable>(MAX_PENDING_CACHE_LOADS),
-            new ThreadPoolExecutor.DiscardOldestPolicy());
-
-    private final ThreadPoolExecutor foregroundExecutor = new ThreadPoolExecutor(
-            MAX_CONCURRENT_DISK_LOADS, MAX_CONCURRENT_DISK_LOADS,
-            Long.MAX_VALUE, TimeUnit.DAYS,
-            new LinkedBlockingQueue<Runnable>(MAX_PENDING_DISK_LOADS),
-            new ThreadPoolExecutor.DiscardOldestPolicy());
-
-    private final ThreadPoolExecutor networkExecutor = new ThreadPoolExecutor(
-            MAX_CONCURRENT_NETWORK_LOADS, MAX_CONCURRENT_NETWORK_LOADS,
-            Long.MAX_VALUE, TimeUnit.DAYS,
-            new LinkedBlockingQueue<Runnable>(MAX_PENDING_NETWORK_LOADS),
-            new ThreadPoolExecutor.DiscardOldestPolicy());
+    // Standard box art is 300x400
+    private static final int STANDARD_ASSET_WIDTH = 300;
+    private static final int STANDARD_ASSET_HEIGHT = 400;
 
     private final ComputerDetails computer;
-    private final double scalingDivider;
-    private final NetworkAssetLoader networkLoader;
     private final MemoryAssetLoader memoryLoader;
-    private final DiskAssetLoader diskLoader;
+    private final AssetLoadScheduler scheduler;
     private final Bitmap placeholderBitmap;
     private final Bitmap noAppImageBitmap;
 
@@ -61,164 +34,81 @@ public class CachedAppAssetLoader {
                                 NetworkAssetLoader networkLoader, MemoryAssetLoader memoryLoader,
                                 DiskAssetLoader diskLoader, Bitmap noAppImageBitmap) {
         this.computer = computer;
-        this.scalingDivider = scalingDivider;
-        this.networkLoader = networkLoader;
         this.memoryLoader = memoryLoader;
-        this.diskLoader = diskLoader;
         this.noAppImageBitmap = noAppImageBitmap;
         this.placeholderBitmap = Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888);
+        this.scheduler = new AssetLoadScheduler(diskLoader, networkLoader, memoryLoader,
+                (int) Math.round(STANDARD_ASSET_WIDTH / scalingDivider),
+                (int) Math.round(STANDARD_ASSET_HEIGHT / scalingDivider));
     }
 
     public void cancelBackgroundLoads() {
-        Runnable r;
-        while ((r = cacheExecutor.getQueue().poll()) != null) {
-            cacheExecutor.remove(r);
-        }
+        scheduler.cancelBackgroundLoads();
     }
 
     public void cancelForegroundLoads() {
-        Runnable r;
-
-        while ((r = foregroundExecutor.getQueue().poll()) != null) {
-            foregroundExecutor.remove(r);
-        }
-
-        while ((r = networkExecutor.getQueue().poll()) != null) {
-            networkExecutor.remove(r);
-        }
+        scheduler.cancelForegroundLoads();
     }
 
     public void freeCacheMemory() {
         memoryLoader.clearCache();
     }
 
-    private ScaledBitmap doNetworkAssetLoad(LoaderTuple tuple, LoaderTask task) {
-        // Try 3 times
-        for (int i = 0; i < 3; i++) {
-            // Check again whether we've been cancelled or the image view is gone
-            if (task != null && (task.isCancelled() || task.imageViewRef.get() == null)) {
-                return null;
-            }
-
-            InputStream in = networkLoader.getBitmapStream(tuple);
-            if (in != null) {
-                // Write the stream straight to disk
-                diskLoader.populateCacheWithStream(tuple, in);
-
-                // Close the network input stream
-                try {
-                    in.close();
-                } catch (IOException ignored) {}
-
-                // If there's a task associated with this load, we should return the bitmap
-                if (task != null) {
-                    // If the cached bitmap is valid, return it. Otherwise, we'll try the load again
-                    ScaledBitmap bmp = diskLoader.loadBitmapFromCache(tuple, (int) scalingDivider);
-                    if (bmp != null) {
-                        return bmp;
-                    }
-                }
-                else {
-                    // Otherwise it's a background load and we return nothing
-                    return null;
-                }
-            }
-
-            // Wait 1 second with a bit of fuzz
-            try {
-                Thread.sleep((int) (1000 + (Math.random() * 500)));
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-
-                // InterruptedException clears the thread's interrupt status. Since we can't
-                // handle that here, we will re-interrupt the thread to set the interrupt
-                // status back to true.
-                Thread.currentThread().interrupt();
-
-                return null;
-            }
-        }
-
-        return null;
-    }
-
-    private class LoaderTask extends AsyncTask<LoaderTuple, Void, ScaledBitmap> {
+    private class LoaderRequest implements AssetLoadScheduler.Listener {
         private final WeakReference<ImageView> imageViewRef;
         private final WeakReference<TextView> textViewRef;
-        private final boolean diskOnly;
+        private final LoaderTuple tuple;
+        private final long requestTimeMs;
 
-        private LoaderTuple tuple;
+        private boolean cancelled;
 
-        public LoaderTask(ImageView imageView, TextView textView, boolean diskOnly) {
+        public LoaderRequest(ImageView imageView, TextView textView, LoaderTuple tuple) {
             this.imageViewRef = new WeakReference<>(imageView);
             this.textViewRef = new WeakReference<>(textView);
-            this.diskOnly = diskOnly;
+            this.tuple = tuple;
+            this.requestTimeMs = SystemClock.uptimeMillis();
         }
 
-        @Override
-        protected ScaledBitmap doInBackground(LoaderTuple... params) {
-            tuple = params[0];
-
-            // Check whether it has been cancelled or the views are gone
-            if (isCancelled() || imageViewRef.get() == null || textViewRef.get() == null) {
-                return null;
-            }
-
-            ScaledBitmap bmp = diskLoader.loadBitmapFromCache(tuple, (int) scalingDivider);
-            if (bmp == null) {
-                if (!diskOnly) {
-                    // Try to load the asset from the network
-                    bmp = doNetworkAssetLoad(tuple, this);
-                } else {
-                    // Report progress to display the placeholder and spin
-                    // off the network-capable task
-                    publishProgress();
-                }
-            }
-
-            // Cache the bitmap
-            if (bmp != null) {
-                memoryLoader.populateCache(tuple, bmp);
-            }
-
-            return bmp;
+        public void cancel() {
+            cancelled = true;
+            scheduler.cancel(tuple, this);
         }
 
         @Override
-        protected void onProgressUpdate(Void... nothing) {
+        public void onNetworkLoadStarted() {
             // Do nothing if cancelled
-            if (isCancelled()) {
+            if (cancelled) {
                 return;
             }
 
-            // If the current loader task for this view isn't us, do nothing
+            // If the current loader request for this view isn't us, do nothing
             final ImageView imageView = imageViewRef.get();
             final TextView textView = textViewRef.get();
-            if (getLoaderTask(imageView) == this) {
-                // Set off another loader task on the network executor. This time our AsyncDrawable
-                // will use the app image placeholder bitmap, rather than an empty bitmap.
-                LoaderTask task = new LoaderTask(imageView, textView, false);
-                AsyncDrawable asyncDrawable = new AsyncDrawable(imageView.getResources(), noAppImageBitmap, task);
+            if (imageView != null && textView != null && getLoaderRequest(imageView) == this) {
+                // Display the app image placeholder bitmap while we wait for the network,
+                // rather than an empty bitmap.
+                AsyncDrawable asyncDrawable = new AsyncDrawable(imageView.getResources(), noAppImageBitmap, this);
                 imageView.setImageDrawable(asyncDrawable);
                 imageView.startAnimation(AnimationUtils.loadAnimation(imageView.getContext(), R.anim.boxart_fadein));
                 imageView.setVisibility(View.VISIBLE);
                 textView.setVisibility(View.VISIBLE);
-                task.executeOnExecutor(networkExecutor, tuple);
             }
         }
 
         @Override
-        protected void onPostExecute(final ScaledBitmap bitmap) {
+        public void onLoadComplete(final ScaledBitmap bitmap) {
             // Do nothing if cancelled
-            if (isCancelled()) {
+            if (cancelled) {
                 return;
             }
 
             final ImageView imageView = imageViewRef.get();
             final TextView textView = textViewRef.get();
-            if (getLoaderTask(imageView) == this) {
+            if (imageView != null && textView != null && getLoaderRequest(imageView) == this) {
                 // Fade in the box art
                 if (bitmap != null) {
+                    scheduler.recordTimeToFirstPixel(requestTimeMs);
+
                     // Show the text if it's a placeholder
                     textView.setVisibility(isBitmapPlaceholder(bitmap) ? View.VISIBLE : View.GONE);
 
@@ -253,45 +143,44 @@ public class CachedAppAssetLoader {
     }
 
     static class AsyncDrawable extends BitmapDrawable {
-        private final WeakReference<LoaderTask> loaderTaskReference;
+        private final WeakReference<LoaderRequest> loaderRequestReference;
 
         public AsyncDrawable(Resources res, Bitmap bitmap,
-                             LoaderTask loaderTask) {
+                             LoaderRequest loaderRequest) {
             super(res, bitmap);
-            loaderTaskReference = new WeakReference<>(loaderTask);
+            loaderRequestReference = new WeakReference<>(loaderRequest);
         }
 
-        public LoaderTask getLoaderTask() {
-            return loaderTaskReference.get();
+        public LoaderRequest getLoaderRequest() {
+            return loaderRequestReference.get();
         }
     }
 
-    private static LoaderTask getLoaderTask(ImageView imageView) {
+    private static LoaderRequest getLoaderRequest(ImageView imageView) {
         if (imageView == null) {
             return null;
         }
 
         final Drawable drawable = imageView.getDrawable();
 
-        // If our drawable is in play, get the loader task
+        // If our drawable is in play, get the loader request
         if (drawable instanceof AsyncDrawable) {
             final AsyncDrawable asyncDrawable = (AsyncDrawable) drawable;
-            return asyncDrawable.getLoaderTask();
+            return asyncDrawable.getLoaderRequest();
         }
 
         return null;
     }
 
     private static boolean cancelPendingLoad(LoaderTuple tuple, ImageView imageView) {
-        final LoaderTask loaderTask = getLoaderTask(imageView);
-
-        // Check if any task was pending for this image view
-        if (loaderTask != null && !loaderTask.isCancelled()) {
-            final LoaderTuple taskTuple = loaderTask.tuple;
-
-            // Cancel the task if it's not already loading the same data
-            if (taskTuple == null || !taskTuple.equals(tuple)) {
-                loaderTask.cancel(true);
+        final LoaderRequest loaderRequest = getLoaderRequest(imageView);
+
+        // Check if any request was pending for this image view
+        if (loaderRequest != null && !loaderRequest.cancelled) {
+            // Cancel the request if it's not already loading the same data. This
+            // happens when the view is recycled for another app while scrolling.
+            if (!loaderRequest.tuple.equals(tuple)) {
+                loaderRequest.cancel();
             } else {
                 // It's already loading what we want
                 return false;
@@ -305,30 +194,31 @@ public class CachedAppAssetLoader {
     public void queueCacheLoad(NvApp app) {
         final LoaderTuple tuple = new LoaderTuple(computer, app);
 
-        if (memoryLoader.loadBitmapFromCache(tuple) != null) {
+        if (memoryLoader.isBitmapCached(tuple)) {
             // It's in memory which means it must also be on disk
             return;
         }
 
-        // Queue a fetch in the cache executor
-        cacheExecutor.execute(new Runnable() {
-            @Override
-            public void run() {
-                // Check if the image is cached on disk
-                if (diskLoader.checkCacheExists(tuple)) {
-                    return;
-                }
+        // Make sure the asset is on disk, fetching it from the network if needed
+        scheduler.request(tuple, AssetLoadScheduler.PRIORITY_BACKGROUND, null, false);
+    }
 
-                // Try to load the asset from the network and cache result on disk
-                doNetworkAssetLoad(tuple, null);
+    // Loads the assets into the memory cache ahead of them being displayed. This replaces any
+    // previous prefetches, so apps that have moved out of range don't use up the workers.
+    public void setPrefetches(List<NvApp> apps) {
+        HashSet<LoaderTuple> tuples = new HashSet<>();
+        for (NvApp app : apps) {
+            LoaderTuple tuple = new LoaderTuple(computer, app);
+            if (!memoryLoader.isBitmapCached(tuple)) {
+                tuples.add(tuple);
             }
-        });
+        }
+
+        scheduler.setPrefetches(tuples);
     }
 
     private boolean isBitmapPlaceholder(ScaledBitmap bitmap) {
-        return (bitmap == null) ||
-                (bitmap.originalWidth == 130 && bitmap.originalHeight == 180) || // GFE 2.0
-                (bitmap.originalWidth == 628 && bitmap.originalHeight == 888); // GFE 3.0
+        return (bitmap == null) || bitmap.isPlaceholder();
     }
 
     public boolean populateImageView(NvApp app, ImageView imgView, TextView textView) {
@@ -356,16 +246,16 @@ public class CachedAppAssetLoader {
             return true;
         }
 
-        // If it's not in memory, create an async task to load it. This task will be attached
-        // via AsyncDrawable to this view.
-        final LoaderTask task = new LoaderTask(imgView, textView, true);
-        final AsyncDrawable asyncDrawable = new AsyncDrawable(imgView.getResources(), placeholderBitmap, task);
+        // If it's not in memory, create an async request to load it. This request will be
+        // attached via AsyncDrawable to this view.
+        final LoaderRequest request = new LoaderRequest(imgView, textView, tuple);
+        final AsyncDrawable asyncDrawable = new AsyncDrawable(imgView.getResources(), placeholderBitmap, request);
         textView.setVisibility(View.INVISIBLE);
         imgView.setVisibility(View.INVISIBLE);
         imgView.setImageDrawable(asyncDrawable);
 
-        // Run the task on our foreground executor
-        task.executeOnExecutor(foregroundExecutor, tuple);
+        // Visible tiles go ahead of everything else
+        scheduler.request(tuple, AssetLoadScheduler.PRIORITY_VISIBLE, request, true);
         return false;
     }
 
@@ -388,6 +278,11 @@ public class CachedAppAssetLoader {
             return computer.uuid.equals(other.computer.uuid) && app.getAppId() == other.app.getAppId();
         }
 
+        @Override
+        public int hashCode() {
+            return computer.uuid.hashCode() * 31 + app.getAppId();
+        }
+
         @Override
         public String toString() {
             return "("+computer.uuid+", "+app.getAppId()+")";
@@ -10,7 +10,9 @@ import android.os.Build;
 import com.limelight.LimeLog;
 import com.limelight.utils.CacheHelper;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -19,21 +21,24 @@ public class DiskAssetLoader {
     // 5 MB
     private static final long MAX_ASSET_SIZE = 5 * 1024 * 1024;
 
-    // Standard box art is 300x400
-    private static final int STANDARD_ASSET_WIDTH = 300;
-    private static final int STANDARD_ASSET_HEIGHT = 400;
+    // 100 MB for all box art
+    private static final long MAX_CACHE_SIZE = 100 * 1024 * 1024;
 
     private final boolean isLowRamDevice;
-    private final File cacheDir;
+    private final BoxArtDiskCache diskCache;
 
     public DiskAssetLoader(Context context) {
-        this.cacheDir = context.getCacheDir();
+        this.diskCache = BoxArtDiskCache.getInstance(context.getCacheDir(), MAX_CACHE_SIZE);
         this.isLowRamDevice =
                 ((ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE)).isLowRamDevice();
     }
 
+    private static String getAssetName(int appId) {
+        return appId + ".png";
+    }
+
     public boolean checkCacheExists(CachedAppAssetLoader.LoaderTuple tuple) {
-        return CacheHelper.cacheFileExists(cacheDir, "boxart", tuple.computer.uuid, tuple.app.getAppId() + ".png");
+        return diskCache.contains(tuple.computer.uuid, getAssetName(tuple.app.getAppId()));
     }
 
     // https://developer.android.com/topic/performance/graphics/load-bitmap.html
@@ -58,22 +63,97 @@ public class DiskAssetLoader {
         return inSampleSize;
     }
 
-    public ScaledBitmap loadBitmapFromCache(CachedAppAssetLoader.LoaderTuple tuple, int sampleSize) {
-        File file = getFile(tuple.computer.uuid, tuple.app.getAppId());
+    // Thumbnails for each tile size are stored next to the original art
+    private static String getThumbnailName(int appId, int width, int height) {
+        return appId + "-" + width + "x" + height + ".png";
+    }
 
-        // Don't bother with anything if it doesn't exist
-        if (!file.exists()) {
+    private static String getThumbnailPrefix(int appId) {
+        return appId + "-";
+    }
+
+    // Returns the bitmap in the form we want to hold it in memory
+    private Bitmap toDisplayBitmap(Bitmap bmp) {
+        // Hardware bitmaps live only in graphics memory and are never uploaded again
+        if (!isLowRamDevice && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            Bitmap hwBmp = bmp.copy(Bitmap.Config.HARDWARE, false);
+            if (hwBmp != null) {
+                bmp.recycle();
+                return hwBmp;
+            }
+        }
+        return bmp;
+    }
+
+    private ScaledBitmap loadThumbnail(CachedAppAssetLoader.LoaderTuple tuple, int width, int height) {
+        String name = getThumbnailName(tuple.app.getAppId(), width, height);
+        File file = diskCache.get(tuple.computer.uuid, name);
+        if (file == null) {
             return null;
         }
 
-        // Make sure the cached asset doesn't exceed the maximum size
-        if (file.length() > MAX_ASSET_SIZE) {
-            LimeLog.warning("Removing cached tuple exceeding size threshold: "+tuple);
-            file.delete();
+        // The thumbnail is already the exact size we want, so there's no scaling to do here
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        if (isLowRamDevice) {
+            options.inPreferredConfig = Bitmap.Config.RGB_565;
+            options.inDither = true;
+        }
+        else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            options.inPreferredConfig = Bitmap.Config.HARDWARE;
+        }
+
+        Bitmap bmp = BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+        if (bmp == null) {
+            LimeLog.warning("Removing corrupt thumbnail for tuple: "+tuple);
+            diskCache.remove(tuple.computer.uuid, name);
             return null;
         }
 
-        Bitmap bmp;
+        // We never create thumbnails for placeholder art, so the thumbnail's size will do
+        return new ScaledBitmap(bmp.getWidth(), bmp.getHeight(), bmp);
+    }
+
+    private void saveThumbnail(CachedAppAssetLoader.LoaderTuple tuple, Bitmap bmp) {
+        String name = getThumbnailName(tuple.app.getAppId(), bmp.getWidth(), bmp.getHeight());
+        File tmpFile;
+        try {
+            tmpFile = diskCache.beginWrite(tuple.computer.uuid, name);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        boolean success = false;
+        try (final OutputStream out = new BufferedOutputStream(new FileOutputStream(tmpFile))) {
+            success = bmp.compress(Bitmap.CompressFormat.PNG, 100, out);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        if (!success || !diskCache.commitWrite(tuple.computer.uuid, name, tmpFile)) {
+            LimeLog.warning("Unable to save thumbnail for tuple: "+tuple);
+            diskCache.abortWrite(tmpFile);
+        }
+    }
+
+    // Loads the box art scaled to the specified tile size. The first load at a given size
+    // decodes the original art and saves a thumbnail of the tile size, so later loads only
+    // need to decode the much smaller thumbnail.
+    public ScaledBitmap loadBitmapFromCache(CachedAppAssetLoader.LoaderTuple tuple, int width, int height) {
+        ScaledBitmap thumbnail = loadThumbnail(tuple, width, height);
+        if (thumbnail != null) {
+            return thumbnail;
+        }
+
+        File file = diskCache.get(tuple.computer.uuid, getAssetName(tuple.app.getAppId()));
+
+        // Don't bother with anything if it's not cached
+        if (file == null) {
+            return null;
+        }
+
+        // We decode to a software bitmap here, so we can save the thumbnail from it
+        ScaledBitmap scaledBitmap;
 
         // For OSes prior to P, we have to use the ugly BitmapFactory API
         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.P) {
@@ -88,79 +168,100 @@ public class DiskAssetLoader {
 
             LimeLog.info("Tuple "+tuple+" has cached art of size: "+decodeOnlyOptions.outWidth+"x"+decodeOnlyOptions.outHeight);
 
-            // Load the image scaled to the appropriate size
+            // Load the image subsampled as close as possible to the tile size
             BitmapFactory.Options options = new BitmapFactory.Options();
-            options.inSampleSize = calculateInSampleSize(decodeOnlyOptions,
-                    STANDARD_ASSET_WIDTH / sampleSize,
-                    STANDARD_ASSET_HEIGHT / sampleSize);
+            options.inSampleSize = calculateInSampleSize(decodeOnlyOptions, width, height);
             if (isLowRamDevice) {
                 options.inPreferredConfig = Bitmap.Config.RGB_565;
                 options.inDither = true;
             }
-            else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                options.inPreferredConfig = Bitmap.Config.HARDWARE;
+
+            Bitmap bmp = BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+            if (bmp == null) {
+                return null;
             }
 
-            bmp = BitmapFactory.decodeFile(file.getAbsolutePath(), options);
-            if (bmp != null) {
-                LimeLog.info("Tuple "+tuple+" decoded from disk cache with sample size: "+options.inSampleSize);
-                return new ScaledBitmap(decodeOnlyOptions.outWidth, decodeOnlyOptions.outHeight, bmp);
+            LimeLog.info("Tuple "+tuple+" decoded from disk cache with sample size: "+options.inSampleSize);
+
+            // Scale the rest of the way to the tile size
+            if (bmp.getWidth() != width || bmp.getHeight() != height) {
+                Bitmap tileBmp = Bitmap.createScaledBitmap(bmp, width, height, true);
+                if (tileBmp != bmp) {
+                    bmp.recycle();
+                }
+                bmp = tileBmp;
             }
+
+            scaledBitmap = new ScaledBitmap(decodeOnlyOptions.outWidth, decodeOnlyOptions.outHeight, bmp);
         }
         else {
             // On P, we can get a bitmap back in one step with ImageDecoder
-            final ScaledBitmap scaledBitmap = new ScaledBitmap();
+            scaledBitmap = new ScaledBitmap();
+            final ScaledBitmap decodingBitmap = scaledBitmap;
             try {
                 scaledBitmap.bitmap = ImageDecoder.decodeBitmap(ImageDecoder.createSource(file), new ImageDecoder.OnHeaderDecodedListener() {
                     @Override
                     public void onHeaderDecoded(ImageDecoder imageDecoder, ImageDecoder.ImageInfo imageInfo, ImageDecoder.Source source) {
-                        scaledBitmap.originalWidth = imageInfo.getSize().getWidth();
-                        scaledBitmap.originalHeight = imageInfo.getSize().getHeight();
+                        decodingBitmap.originalWidth = imageInfo.getSize().getWidth();
+                        decodingBitmap.originalHeight = imageInfo.getSize().getHeight();
 
-                        imageDecoder.setTargetSize(STANDARD_ASSET_WIDTH, STANDARD_ASSET_HEIGHT);
+                        imageDecoder.setTargetSize(width, height);
+                        imageDecoder.setAllocator(ImageDecoder.ALLOCATOR_SOFTWARE);
                         if (isLowRamDevice) {
                             imageDecoder.setMemorySizePolicy(ImageDecoder.MEMORY_POLICY_LOW_RAM);
                         }
                     }
                 });
-                return scaledBitmap;
             } catch (IOException e) {
                 e.printStackTrace();
                 return null;
             }
         }
 
-        return null;
+        // Placeholders are identified by their original size, which a thumbnail wouldn't preserve
+        if (!scaledBitmap.isPlaceholder()) {
+            saveThumbnail(tuple, scaledBitmap.bitmap);
+        }
+
+        scaledBitmap.bitmap = toDisplayBitmap(scaledBitmap.bitmap);
+        return scaledBitmap;
     }
 
     public File getFile(String computerUuid, int appId) {
-        return CacheHelper.openPath(false, cacheDir, "boxart", computerUuid, appId + ".png");
+        return diskCache.getFile(computerUuid, getAssetName(appId));
     }
 
     public void deleteAssetsForComputer(String computerUuid) {
-        File dir = CacheHelper.openPath(false, cacheDir, "boxart", computerUuid);
-        File[] files = dir.listFiles();
-        if (files != null) {
-            for (File f : files) {
-                f.delete();
-            }
-        }
+        diskCache.removeAllForComputer(computerUuid);
     }
 
     public void populateCacheWithStream(CachedAppAssetLoader.LoaderTuple tuple, InputStream input) {
+        String name = getAssetName(tuple.app.getAppId());
+        File tmpFile;
+        try {
+            tmpFile = diskCache.beginWrite(tuple.computer.uuid, name);
+        } catch (IOException e) {
+            e.printStackTrace();
+            LimeLog.warning("Unable to populate cache with tuple: "+tuple);
+            return;
+        }
+
         boolean success = false;
-        try (final OutputStream out = CacheHelper.openCacheFileForOutput(
-                cacheDir, "boxart", tuple.computer.uuid, tuple.app.getAppId() + ".png")
-        ) {
+        try (final OutputStream out = new BufferedOutputStream(new FileOutputStream(tmpFile))) {
             CacheHelper.writeInputStreamToOutputStream(input, out, MAX_ASSET_SIZE);
             success = true;
         } catch (IOException e) {
             e.printStackTrace();
-        } finally {
-            if (!success) {
-                LimeLog.warning("Unable to populate cache with tuple: "+tuple);
-                CacheHelper.deleteCacheFile(cacheDir, "boxart", tuple.computer.uuid, tuple.app.getAppId() + ".png");
-            }
+        }
+
+        // The file only becomes visible in the cache once it's completely written
+        if (!success || !diskCache.commitWrite(tuple.computer.uuid, name, tmpFile)) {
+            LimeLog.warning("Unable to populate cache with tuple: "+tuple);
+            diskCache.abortWrite(tmpFile);
+        }
+        else {
+            // Thumbnails of any previous art are stale now
+            diskCache.removeMatching(tuple.computer.uuid, getThumbnailPrefix(tuple.app.getAppId()));
         }
     }
 }
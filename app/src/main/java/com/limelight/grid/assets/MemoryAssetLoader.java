@@ -1,32 +1,65 @@
 package com.limelight.grid.assets;
 
+import android.graphics.Bitmap;
+import android.os.Build;
 import android.util.LruCache;
 
 import com.limelight.LimeLog;
 
-import java.lang.ref.SoftReference;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class MemoryAssetLoader {
     private static final int maxMemory = (int) (Runtime.getRuntime().maxMemory() / 1024);
-    private static final LruCache<String, ScaledBitmap> memoryCache = new LruCache<String, ScaledBitmap>(maxMemory / 16) {
-        @Override
-        protected int sizeOf(String key, ScaledBitmap bitmap) {
-            // Sizeof returns kilobytes
-            return bitmap.bitmap.getByteCount() / 1024;
+
+    // Bitmaps with pixel data on the Java heap count against the heap limit
+    private static final BitmapLruCache heapCache = new BitmapLruCache(maxMemory / 16);
+
+    // Hardware bitmaps only hold a small object on the heap and keep their pixels in graphics
+    // memory, so counting them against the heap budget would be wrong. They still consume
+    // real memory, so they get their own (larger) budget. Since box art is now decoded at
+    // the tile size, this fits far more tiles than before.
+    private static final BitmapLruCache hardwareCache = new BitmapLruCache(maxMemory / 4);
+
+    private static class BitmapLruCache extends LruCache<String, ScaledBitmap> {
+        // LruCache.get() counts as a use, so we track the keys separately to be able
+        // to check for an entry without promoting it over the ones actually displayed
+        private final Set<String> keys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+        BitmapLruCache(int maxSizeKb) {
+            super(maxSizeKb);
+        }
+
+        boolean containsKey(String key) {
+            return keys.contains(key);
+        }
+
+        // LruCache.put() is final, so all puts must go through here to track the key
+        void putBitmap(String key, ScaledBitmap bitmap) {
+            // Add the key first, in case the entry is evicted as soon as it's put
+            keys.add(key);
+            put(key, bitmap);
         }
 
         @Override
         protected void entryRemoved(boolean evicted, String key, ScaledBitmap oldValue, ScaledBitmap newValue) {
-            super.entryRemoved(evicted, key, oldValue, newValue);
-
-            if (evicted) {
-                // Keep a soft reference around to the bitmap as long as we can
-                evictionCache.put(key, new SoftReference<>(oldValue));
+            // A replaced entry is still in the cache
+            if (newValue == null) {
+                keys.remove(key);
             }
         }
-    };
-    private static final HashMap<String, SoftReference<ScaledBitmap>> evictionCache = new HashMap<>();
+
+        @Override
+        protected int sizeOf(String key, ScaledBitmap bitmap) {
+            // Sizeof returns kilobytes
+            return bitmap.bitmap.getAllocationByteCount() / 1024;
+        }
+    }
+
+    private static boolean isHardwareBitmap(Bitmap bitmap) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && bitmap.getConfig() == Bitmap.Config.HARDWARE;
+    }
 
     private static String constructKey(CachedAppAssetLoader.LoaderTuple tuple) {
         return tuple.computer.uuid+"-"+tuple.app.getAppId();
@@ -35,40 +68,35 @@ public class MemoryAssetLoader {
     public ScaledBitmap loadBitmapFromCache(CachedAppAssetLoader.LoaderTuple tuple) {
         final String key = constructKey(tuple);
 
-        ScaledBitmap bmp = memoryCache.get(key);
+        ScaledBitmap bmp = hardwareCache.get(key);
+        if (bmp == null) {
+            bmp = heapCache.get(key);
+        }
         if (bmp != null) {
             LimeLog.info("LRU cache hit for tuple: "+tuple);
-            return bmp;
         }
 
-        SoftReference<ScaledBitmap> bmpRef = evictionCache.get(key);
-        if (bmpRef != null) {
-            bmp = bmpRef.get();
-            if (bmp != null) {
-                LimeLog.info("Eviction cache hit for tuple: "+tuple);
-
-                // Put this entry back into the LRU cache
-                evictionCache.remove(key);
-                memoryCache.put(key, bmp);
-
-                return bmp;
-            }
-            else {
-                // The data is gone, so remove the dangling SoftReference now
-                evictionCache.remove(key);
-            }
-        }
+        return bmp;
+    }
 
-        return null;
+    // Returns whether the tuple's bitmap is in memory without affecting the eviction order,
+    // for checks that don't use the bitmap
+    public boolean isBitmapCached(CachedAppAssetLoader.LoaderTuple tuple) {
+        final String key = constructKey(tuple);
+        return hardwareCache.containsKey(key) || heapCache.containsKey(key);
     }
 
     public void populateCache(CachedAppAssetLoader.LoaderTuple tuple, ScaledBitmap bitmap) {
-        memoryCache.put(constructKey(tuple), bitmap);
+        if (isHardwareBitmap(bitmap.bitmap)) {
+            hardwareCache.putBitmap(constructKey(tuple), bitmap);
+        }
+        else {
+            heapCache.putBitmap(constructKey(tuple), bitmap);
+        }
     }
 
     public void clearCache() {
-        // We must evict first because that will push all items into the eviction cache
-        memoryCache.evictAll();
-        evictionCache.clear();
+        heapCache.evictAll();
+        hardwareCache.evictAll();
     }
 }
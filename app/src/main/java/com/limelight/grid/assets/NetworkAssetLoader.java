@@ -4,27 +4,31 @@ import android.content.Context;
 
 import com.limelight.LimeLog;
 import com.limelight.binding.PlatformBinding;
+import com.limelight.nvstream.http.LimelightCryptoProvider;
 import com.limelight.nvstream.http.NvHTTP;
+import com.limelight.nvstream.http.NvHTTPRegistry;
 import com.limelight.utils.ServerHelper;
 
 import java.io.IOException;
 import java.io.InputStream;
 
 public class NetworkAssetLoader {
-    private final Context context;
+    private final LimelightCryptoProvider cryptoProvider;
     private final String uniqueId;
 
+    // Box art loads reuse connections to the host for as long as this loader is around
+    private final NvHTTPRegistry httpRegistry = new NvHTTPRegistry();
+
     public NetworkAssetLoader(Context context, String uniqueId) {
-        this.context = context;
+        this.cryptoProvider = PlatformBinding.getCryptoProvider(context);
         this.uniqueId = uniqueId;
     }
 
     public InputStream getBitmapStream(CachedAppAssetLoader.LoaderTuple tuple) {
         InputStream in = null;
         try {
-            NvHTTP http = new NvHTTP(ServerHelper.getCurrentAddressFromComputer(tuple.computer),
-                    tuple.computer.httpsPort, uniqueId, tuple.computer.serverCert,
-                    PlatformBinding.getCryptoProvider(context));
+            NvHTTP http = httpRegistry.get(ServerHelper.getCurrentAddressFromComputer(tuple.computer),
+                    tuple.computer.httpsPort, uniqueId, tuple.computer.serverCert, cryptoProvider);
             in = http.getBoxArt(tuple.app);
         } catch (IOException ignored) {}
 
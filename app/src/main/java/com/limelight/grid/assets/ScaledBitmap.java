@@ -15,4 +15,10 @@ public class ScaledBitmap {
         this.originalHeight = originalHeight;
         this.bitmap = bitmap;
     }
+
+    // GFE sends placeholder art for apps without box art
+    public boolean isPlaceholder() {
+        return (originalWidth == 130 && originalHeight == 180) || // GFE 2.0
+                (originalWidth == 628 && originalHeight == 888); // GFE 3.0
+    }
 }
@@ -37,7 +37,10 @@ import com.limelight.nvstream.http.LimelightCryptoProvider;
 import com.limelight.nvstream.http.NvApp;
 import com.limelight.nvstream.http.NvHTTP;
 import com.limelight.nvstream.http.PairingManager;
+import com.limelight.nvstream.http.ServerInfo;
 import com.limelight.nvstream.input.MouseButtonPacket;
+import com.limelight.nvstream.input.MouseMotionBatcher;
+import com.limelight.nvstream.input.TouchEventBatch;
 import com.limelight.nvstream.jni.MoonBridge;
 
 public class NvConnection {
@@ -48,6 +51,7 @@ public class NvConnection {
     private static Semaphore connectionAllowed = new Semaphore(1);
     private final boolean isMonkey;
     private final Context appContext;
+    private final MouseMotionBatcher mouseMotionBatcher;
 
     public NvConnection(Context appContext, ComputerDetails.AddressTuple host, int httpsPort, String uniqueId, StreamConfiguration config, LimelightCryptoProvider cryptoProvider, X509Certificate serverCert)
     {
@@ -66,6 +70,13 @@ public class NvConnection {
         this.context.riKeyId = generateRiKeyId();
 
         this.isMonkey = ActivityManager.isUserAMonkey();
+
+        if (config.getMouseMotionFlushRate() > 0) {
+            this.mouseMotionBatcher = new MouseMotionBatcher(config.getMouseMotionFlushRate());
+        }
+        else {
+            this.mouseMotionBatcher = null;
+        }
     }
     
     private static SecretKey generateRiAesKey() {
@@ -87,6 +98,11 @@ public class NvConnection {
     }
 
     public void stop() {
+        // Send any remaining motion and stop the flush timer
+        if (mouseMotionBatcher != null) {
+            mouseMotionBatcher.stop();
+        }
+
         // Interrupt any pending connection. This is thread-safe.
         MoonBridge.interruptConnection();
 
@@ -223,7 +239,7 @@ public class NvConnection {
     {
         NvHTTP h = new NvHTTP(context.serverAddress, context.httpsPort, uniqueId, context.serverCert, cryptoProvider);
 
-        String serverInfo = h.getServerInfo(true);
+        ServerInfo serverInfo = h.getServerInfo(true);
         
         context.serverAppVersion = h.getServerVersion(serverInfo);
         if (context.serverAppVersion == null) {
@@ -450,30 +466,54 @@ public class NvConnection {
         }).start();
     }
     
+    // Button and scroll events must be sent after any pending motion, so they
+    // happen at the right cursor position
+    private void flushMouseMotion() {
+        if (mouseMotionBatcher != null) {
+            mouseMotionBatcher.flush();
+        }
+    }
+
     public void sendMouseMove(final short deltaX, final short deltaY)
     {
         if (!isMonkey) {
-            MoonBridge.sendMouseMove(deltaX, deltaY);
+            if (mouseMotionBatcher != null) {
+                mouseMotionBatcher.queueMouseMove(deltaX, deltaY);
+            }
+            else {
+                MoonBridge.sendMouseMove(deltaX, deltaY);
+            }
         }
     }
 
     public void sendMousePosition(short x, short y, short referenceWidth, short referenceHeight)
     {
         if (!isMonkey) {
-            MoonBridge.sendMousePosition(x, y, referenceWidth, referenceHeight);
+            if (mouseMotionBatcher != null) {
+                mouseMotionBatcher.queueMousePosition(x, y, referenceWidth, referenceHeight);
+            }
+            else {
+                MoonBridge.sendMousePosition(x, y, referenceWidth, referenceHeight);
+            }
         }
     }
 
     public void sendMouseMoveAsMousePosition(short deltaX, short deltaY, short referenceWidth, short referenceHeight)
     {
         if (!isMonkey) {
-            MoonBridge.sendMouseMoveAsMousePosition(deltaX, deltaY, referenceWidth, referenceHeight);
+            if (mouseMotionBatcher != null) {
+                mouseMotionBatcher.queueMouseMoveAsMousePosition(deltaX, deltaY, referenceWidth, referenceHeight);
+            }
+            else {
+                MoonBridge.sendMouseMoveAsMousePosition(deltaX, deltaY, referenceWidth, referenceHeight);
+            }
         }
     }
 
     public void sendMouseButtonDown(final byte mouseButton)
     {
         if (!isMonkey) {
+            flushMouseMotion();
             MoonBridge.sendMouseButton(MouseButtonPacket.PRESS_EVENT, mouseButton);
         }
     }
@@ -481,6 +521,7 @@ public class NvConnection {
     public void sendMouseButtonUp(final byte mouseButton)
     {
         if (!isMonkey) {
+            flushMouseMotion();
             MoonBridge.sendMouseButton(MouseButtonPacket.RELEASE_EVENT, mouseButton);
         }
     }
@@ -505,24 +546,28 @@ public class NvConnection {
     
     public void sendMouseScroll(final byte scrollClicks) {
         if (!isMonkey) {
+            flushMouseMotion();
             MoonBridge.sendMouseHighResScroll((short)(scrollClicks * 120)); // WHEEL_DELTA
         }
     }
 
     public void sendMouseHScroll(final byte scrollClicks) {
         if (!isMonkey) {
+            flushMouseMotion();
             MoonBridge.sendMouseHighResHScroll((short)(scrollClicks * 120)); // WHEEL_DELTA
         }
     }
 
     public void sendMouseHighResScroll(final short scrollAmount) {
         if (!isMonkey) {
+            flushMouseMotion();
             MoonBridge.sendMouseHighResScroll(scrollAmount);
         }
     }
 
     public void sendMouseHighResHScroll(final short scrollAmount) {
         if (!isMonkey) {
+            flushMouseMotion();
             MoonBridge.sendMouseHighResHScroll(scrollAmount);
         }
     }
@@ -550,6 +595,24 @@ public class NvConnection {
         }
     }
 
+    public int sendTouchEventBatch(TouchEventBatch batch) {
+        if (!isMonkey) {
+            return MoonBridge.sendTouchEventBatch(batch.getSamples(), batch.getCount());
+        }
+        else {
+            return MoonBridge.LI_ERR_UNSUPPORTED;
+        }
+    }
+
+    public int sendPenEventBatch(TouchEventBatch batch) {
+        if (!isMonkey) {
+            return MoonBridge.sendPenEventBatch(batch.getSamples(), batch.getCount());
+        }
+        else {
+            return MoonBridge.LI_ERR_UNSUPPORTED;
+        }
+    }
+
     public int sendControllerArrivalEvent(byte controllerNumber, short activeGamepadMask, byte type,
                                           int supportedButtonFlags, short capabilities) {
         return MoonBridge.sendControllerArrivalEvent(controllerNumber, activeGamepadMask, type, supportedButtonFlags, capabilities);
@@ -29,6 +29,7 @@ public class StreamConfiguration {
     private int colorSpace;
     private boolean persistGamepadsAfterDisconnect;
     private boolean enableUltraLowLatency;
+    private int mouseMotionFlushRate;
 
     public static class Builder {
         private StreamConfiguration config = new StreamConfiguration();
@@ -134,6 +135,12 @@ public class StreamConfiguration {
             return this;
         }
 
+        // The maximum rate in Hz to send mouse motion, or 0 to send every event as it arrives
+        public StreamConfiguration.Builder setMouseMotionFlushRate(int flushRate) {
+            config.mouseMotionFlushRate = flushRate;
+            return this;
+        }
+
         public StreamConfiguration build() {
             return config;
         }
@@ -232,4 +239,8 @@ public class StreamConfiguration {
     public boolean getEnableUltraLowLatency() {
         return enableUltraLowLatency;
     }
+
+    public int getMouseMotionFlushRate() {
+        return mouseMotionFlushRate;
+    }
 }
@@ -12,7 +12,20 @@ public abstract class VideoDecoderRenderer {
     public abstract int submitDecodeUnit(byte[] decodeUnitData, int decodeUnitLength, int decodeUnitType,
                                          int frameNumber, int frameType, char frameHostProcessingLatency,
                                          long receiveTimeMs, long enqueueTimeMs);
-    
+
+    // This is called instead of submitDecodeUnit() for picture data if supportsZeroCopySubmission()
+    // returned true. The frame data is not copied into a Java array. Instead, the renderer must call
+    // MoonBridge.copyDecodeUnitToBuffer() from within this callback to have the native code write
+    // the picture data directly into a direct ByteBuffer (like a MediaCodec input buffer).
+    public abstract int submitZeroCopyDecodeUnit(int decodeUnitLength, int frameNumber, int frameType,
+                                                 char frameHostProcessingLatency,
+                                                 long receiveTimeMs, long enqueueTimeMs);
+
+    // This is called after a successful setup() to determine whether picture data will be delivered
+    // by submitZeroCopyDecodeUnit() or submitDecodeUnit(). Parameter sets are always delivered by
+    // submitDecodeUnit().
+    public abstract boolean supportsZeroCopySubmission();
+
     public abstract void cleanup();
 
     public abstract int getCapabilities();
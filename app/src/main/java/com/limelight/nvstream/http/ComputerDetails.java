@@ -1,7 +1,6 @@
 package com.limelight.nvstream.http;
 
 import java.security.cert.X509Certificate;
-import java.util.Objects;
 
 
 public class ComputerDetails {
@@ -32,7 +31,8 @@ public class ComputerDetails {
 
         @Override
         public int hashCode() {
-            return Objects.hash(address, port);
+            // Avoid Objects.hash() since it allocates and this is used for lookups while polling
+            return 31 * address.hashCode() + port;
         }
 
         @Override
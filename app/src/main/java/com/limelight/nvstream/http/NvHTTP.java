@@ -10,6 +10,7 @@ import java.io.Reader;
 import java.io.StringReader;
 import java.net.Inet4Address;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Proxy;
 import java.net.Socket;
 import java.security.KeyManagementException;
@@ -22,11 +23,13 @@ import java.security.SecureRandom;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.Enumeration;
 import java.util.LinkedList;
 import java.util.ListIterator;
 import java.util.Stack;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
@@ -35,6 +38,7 @@ import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLHandshakeException;
 import javax.net.ssl.SSLPeerUnverifiedException;
 import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
@@ -52,7 +56,10 @@ import com.limelight.nvstream.ConnectionContext;
 import com.limelight.nvstream.http.PairingManager.PairState;
 import com.limelight.nvstream.jni.MoonBridge;
 
+import okhttp3.Call;
 import okhttp3.ConnectionPool;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
 import okhttp3.HttpUrl;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
@@ -70,24 +77,63 @@ public class NvHTTP {
     public static final int LONG_CONNECTION_TIMEOUT = 5000;
     public static final int READ_TIMEOUT = 7000;
 
+    // Idle connections are kept around long enough to span a poll interval and the
+    // serverinfo -> launch sequence, but not so long that the host is likely to drop them.
+    private static final int MAX_IDLE_CONNECTIONS = 2;
+    private static final int KEEP_ALIVE_DURATION = 30000;
+
+    // Process-wide connection stats. Full handshakes are counted by our trust manager,
+    // which is only consulted when the host presents its certificate, so any other TLS
+    // connection was a resumed session.
+    private static final AtomicInteger newConnections = new AtomicInteger();
+    private static final AtomicInteger tlsConnections = new AtomicInteger();
+    private static final AtomicInteger fullTlsHandshakes = new AtomicInteger();
+
     // Print URL and content to logcat on debug builds
     private static boolean verbose = BuildConfig.DEBUG;
 
+    private static XmlPullParserFactory xmlPullParserFactory;
+
     private HttpUrl baseUrlHttp;
 
-    private int httpsPort;
+    // Instances may be shared between threads by NvHTTPRegistry
+    private volatile int httpsPort;
+    private volatile HttpUrl baseUrlHttps;
     
     private OkHttpClient httpClientLongConnectTimeout;
     private OkHttpClient httpClientLongConnectNoReadTimeout;
     private OkHttpClient httpClientShortConnectTimeout;
+    private OkHttpClient httpClientLongConnectShortReadTimeout;
 
     private X509TrustManager defaultTrustManager;
     private X509TrustManager trustManager;
     private X509KeyManager keyManager;
     private X509Certificate serverCert;
 
+    private SSLContext sslContext;
+    private ConnectionPool connectionPool;
+
+    X509Certificate getServerCert() {
+        return serverCert;
+    }
+
+    void setHttpsPort(int httpsPort) {
+        this.httpsPort = httpsPort;
+    }
+
     void setServerCert(X509Certificate serverCert) {
         this.serverCert = serverCert;
+
+        // Pooled connections and cached sessions were validated against the old pinned
+        // certificate and a resumed session skips our trust manager, so drop them all.
+        connectionPool.evictAll();
+        SSLSessionContext sessionContext = sslContext.getClientSessionContext();
+        for (Enumeration<byte[]> ids = sessionContext.getIds(); ids.hasMoreElements(); ) {
+            SSLSession session = sessionContext.getSession(ids.nextElement());
+            if (session != null) {
+                session.invalidate();
+            }
+        }
     }
 
     private static X509TrustManager getDefaultTrustManager() {
@@ -134,6 +180,7 @@ public class NvHTTP {
                 throw new IllegalStateException("Should never be called");
             }
             public void checkServerTrusted(X509Certificate[] certs, String authType) throws CertificateException {
+                fullTlsHandshakes.incrementAndGet();
                 try {
                     // Try the default trust manager first to allow pairing with certificates
                     // that chain up to a trusted root CA. This will raise CertificateException
@@ -172,16 +219,50 @@ public class NvHTTP {
             }
         };
 
+        // The SSL context is created once so its session cache lets later connections
+        // to this host resume the TLS session rather than doing a full handshake.
+        try {
+            sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(new KeyManager[] { keyManager }, new TrustManager[] { trustManager }, new SecureRandom());
+        } catch (NoSuchAlgorithmException | KeyManagementException e) {
+            throw new RuntimeException(e);
+        }
+
+        // All of our clients share the pool, so a connection opened by one request can
+        // be reused by the next one regardless of the timeouts it needs.
+        connectionPool = new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_DURATION, TimeUnit.MILLISECONDS);
+
         httpClientLongConnectTimeout = new OkHttpClient.Builder()
-                .connectionPool(new ConnectionPool(0, 1, TimeUnit.MILLISECONDS))
+                .connectionPool(connectionPool)
+                .sslSocketFactory(sslContext.getSocketFactory(), trustManager)
                 .hostnameVerifier(hv)
+                .eventListener(new EventListener() {
+                    @Override
+                    public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+                        newConnections.incrementAndGet();
+                    }
+
+                    @Override
+                    public void secureConnectEnd(Call call, Handshake handshake) {
+                        tlsConnections.incrementAndGet();
+                    }
+                })
                 .readTimeout(READ_TIMEOUT, TimeUnit.MILLISECONDS)
                 .connectTimeout(LONG_CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS)
                 .proxy(Proxy.NO_PROXY)
                 .build();
 
+        // The serverinfo clients are used for polling. A poll may be sent on a pooled connection
+        // to a host that has since gone to sleep, and OkHttp won't retry a request that has already
+        // been sent, so we'd wait for the read timeout rather than failing to connect. Bound the
+        // read timeout by the connect timeout to detect an offline host just as quickly.
         httpClientShortConnectTimeout = httpClientLongConnectTimeout.newBuilder()
                 .connectTimeout(SHORT_CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS)
+                .readTimeout(SHORT_CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS)
+                .build();
+
+        httpClientLongConnectShortReadTimeout = httpClientLongConnectTimeout.newBuilder()
+                .readTimeout(LONG_CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS)
                 .build();
 
         httpClientLongConnectNoReadTimeout = httpClientLongConnectTimeout.newBuilder()
@@ -190,13 +271,27 @@ public class NvHTTP {
     }
 
     public HttpUrl getHttpsUrl(boolean likelyOnline) throws IOException {
-        if (httpsPort == 0) {
+        int port = httpsPort;
+        if (port == 0) {
             // Fetch the HTTPS port if we don't have it already
-            httpsPort = getHttpsPort(openHttpConnectionToString(likelyOnline ? httpClientLongConnectTimeout : httpClientShortConnectTimeout,
-                    baseUrlHttp, "serverinfo"));
+            String serverInfo = openHttpConnectionToString(likelyOnline ? httpClientLongConnectShortReadTimeout : httpClientShortConnectTimeout,
+                    baseUrlHttp, "serverinfo");
+            try {
+                port = getHttpsPort(ServerInfo.parse(serverInfo));
+            } catch (XmlPullParserException e) {
+                e.printStackTrace();
+                port = DEFAULT_HTTPS_PORT;
+            }
+            httpsPort = port;
         }
 
-        return new HttpUrl.Builder().scheme("https").host(baseUrlHttp.host()).port(httpsPort).build();
+        // Only build a new URL if the port has changed
+        HttpUrl url = baseUrlHttps;
+        if (url == null || url.port() != port) {
+            url = new HttpUrl.Builder().scheme("https").host(baseUrlHttp.host()).port(port).build();
+            baseUrlHttps = url;
+        }
+        return url;
     }
     
     public NvHTTP(ComputerDetails.AddressTuple address, int httpsPort, String uniqueId, X509Certificate serverCert, LimelightCryptoProvider cryptoProvider) throws IOException {
@@ -236,10 +331,17 @@ public class NvHTTP {
         this.pm = new PairingManager(this, cryptoProvider);
     }
 
+    // XmlPullParserFactory.newInstance() is expensive, so we create it once and reuse it
+    static synchronized XmlPullParser newXmlPullParser() throws XmlPullParserException {
+        if (xmlPullParserFactory == null) {
+            xmlPullParserFactory = XmlPullParserFactory.newInstance();
+            xmlPullParserFactory.setNamespaceAware(true);
+        }
+        return xmlPullParserFactory.newPullParser();
+    }
+
     static String getXmlString(Reader r, String tagname, boolean throwIfMissing) throws XmlPullParserException, IOException {
-        XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
-        factory.setNamespaceAware(true);
-        XmlPullParser xpp = factory.newPullParser();
+        XmlPullParser xpp = newXmlPullParser();
 
         xpp.setInput(r);
         int eventType = xpp.getEventType();
@@ -280,7 +382,7 @@ public class NvHTTP {
         return getXmlString(new StringReader(str), tagname, throwIfMissing);
     }
     
-    private static void verifyResponseStatus(XmlPullParser xpp) throws HostHttpResponseException {
+    static void verifyResponseStatus(XmlPullParser xpp) throws HostHttpResponseException {
         // We use Long.parseLong() because in rare cases GFE can send back a status code of
         // 0xFFFFFFFF, which will cause Integer.parseInt() to throw a NumberFormatException due
         // to exceeding Integer.MAX_VALUE. We'll get the desired error code of -1 by just casting
@@ -298,11 +400,11 @@ public class NvHTTP {
         }
     }
     
-    public String getServerInfo(boolean likelyOnline) throws IOException, XmlPullParserException {
-        String resp;
+    public ServerInfo getServerInfo(boolean likelyOnline) throws IOException, XmlPullParserException {
+        ServerInfo resp;
 
         // If we believe the PC is online, give it a little extra time to respond
-        OkHttpClient client = likelyOnline ? httpClientLongConnectTimeout : httpClientShortConnectTimeout;
+        OkHttpClient client = likelyOnline ? httpClientLongConnectShortReadTimeout : httpClientShortConnectTimeout;
         
         //
         // TODO: Shield Hub uses HTTP for this and is able to get an accurate PairStatus with HTTP.
@@ -314,7 +416,7 @@ public class NvHTTP {
         if (serverCert != null) {
             try {
                 try {
-                    resp = openHttpConnectionToString(client, getHttpsUrl(likelyOnline), "serverinfo");
+                    resp = ServerInfo.parse(openHttpConnectionToString(client, getHttpsUrl(likelyOnline), "serverinfo"));
                 } catch (SSLHandshakeException e) {
                     // Detect if we failed due to a server cert mismatch
                     if (e.getCause() instanceof CertificateException) {
@@ -334,7 +436,7 @@ public class NvHTTP {
             catch (HostHttpResponseException e) {
                 if (e.getErrorCode() == 401) {
                     // Cert validation error - fall back to HTTP
-                    return openHttpConnectionToString(client, baseUrlHttp, "serverinfo");
+                    return ServerInfo.parse(openHttpConnectionToString(client, baseUrlHttp, "serverinfo"));
                 }
 
                 // If it's not a cert validation error, throw it
@@ -345,7 +447,7 @@ public class NvHTTP {
         }
         else {
             // No pinned cert, so use HTTP
-            return openHttpConnectionToString(client, baseUrlHttp, "serverinfo");
+            return ServerInfo.parse(openHttpConnectionToString(client, baseUrlHttp, "serverinfo"));
         }
     }
 
@@ -357,33 +459,33 @@ public class NvHTTP {
         return new ComputerDetails.AddressTuple(address, port);
     }
 
-    public ComputerDetails getComputerDetails(String serverInfo) throws IOException, XmlPullParserException {
+    public ComputerDetails getComputerDetails(ServerInfo serverInfo) throws IOException, XmlPullParserException {
         ComputerDetails details = new ComputerDetails();
 
-        details.name = getXmlString(serverInfo, "hostname", false);
+        details.name = serverInfo.hostname;
         if (details.name == null || details.name.isEmpty()) {
             details.name = "UNKNOWN";
         }
 
         // UUID is mandatory to determine which machine is responding
-        details.uuid = getXmlString(serverInfo, "uniqueid", true);
+        details.uuid = ServerInfo.requireField(serverInfo.uniqueId, "uniqueid");
 
         details.httpsPort = getHttpsPort(serverInfo);
 
-        details.macAddress = getXmlString(serverInfo, "mac", false);
+        details.macAddress = serverInfo.macAddress;
 
         // FIXME: Do we want to use the current port?
-        details.localAddress = makeTuple(getXmlString(serverInfo, "LocalIP", false), baseUrlHttp.port());
+        details.localAddress = makeTuple(serverInfo.localIp, baseUrlHttp.port());
 
         // This is missing on on recent GFE versions, but it's present on Sunshine
         details.externalPort = getExternalPort(serverInfo);
-        details.remoteAddress = makeTuple(getXmlString(serverInfo, "ExternalIP", false), details.externalPort);
+        details.remoteAddress = makeTuple(serverInfo.externalIp, details.externalPort);
 
         details.pairState = getPairState(serverInfo);
         details.runningGameId = getCurrentGame(serverInfo);
 
         // The MJOLNIR codename was used by GFE but never by any third-party server
-        details.nvidiaServer = getXmlString(serverInfo, "state", true).contains("MJOLNIR");
+        details.nvidiaServer = ServerInfo.requireField(serverInfo.state, "state").contains("MJOLNIR");
 
         // We could reach it so it's online
         details.state = ComputerDetails.State.ONLINE;
@@ -395,18 +497,11 @@ public class NvHTTP {
         return getComputerDetails(getServerInfo(likelyOnline));
     }
 
-    // This hack is Android-specific but we do it on all platforms
-    // because it doesn't really matter
-    private OkHttpClient performAndroidTlsHack(OkHttpClient client) {
-        // Doing this each time we create a socket is required
-        // to avoid the SSLv3 fallback that causes connection failures
-        try {
-            SSLContext sc = SSLContext.getInstance("TLS");
-            sc.init(new KeyManager[] { keyManager }, new TrustManager[] { trustManager }, new SecureRandom());
-            return client.newBuilder().sslSocketFactory(sc.getSocketFactory(), trustManager).build();
-        } catch (NoSuchAlgorithmException | KeyManagementException e) {
-            throw new RuntimeException(e);
-        }
+    public static String getConnectionStats() {
+        int tls = tlsConnections.get();
+        int full = fullTlsHandshakes.get();
+        return "new connections: "+newConnections.get()+", TLS connections: "+tls+
+                " (full handshakes: "+full+", resumed: "+Math.max(0, tls - full)+")";
     }
 
     private HttpUrl getCompleteUrl(HttpUrl baseUrl, String path, String query) {
@@ -429,7 +524,7 @@ public class NvHTTP {
     private ResponseBody openHttpConnection(OkHttpClient client, HttpUrl baseUrl, String path, String query) throws IOException {
         HttpUrl completeUrl = getCompleteUrl(baseUrl, path, query);
         Request request = new Request.Builder().url(completeUrl).get().build();
-        Response response = performAndroidTlsHack(client).newCall(request).execute();
+        Response response = client.newCall(request).execute();
 
         ResponseBody body = response.body();
         
@@ -475,24 +570,24 @@ public class NvHTTP {
         }
     }
 
-    public String getServerVersion(String serverInfo) throws XmlPullParserException, IOException {
+    public String getServerVersion(ServerInfo serverInfo) throws XmlPullParserException, IOException {
         // appversion is present in all supported GFE versions
-        return getXmlString(serverInfo, "appversion", true);
+        return ServerInfo.requireField(serverInfo.appVersion, "appversion");
     }
 
     public PairingManager.PairState getPairState() throws IOException, XmlPullParserException {
         return getPairState(getServerInfo(true));
     }
 
-    public PairingManager.PairState getPairState(String serverInfo) throws IOException, XmlPullParserException {
+    public PairingManager.PairState getPairState(ServerInfo serverInfo) throws IOException, XmlPullParserException {
         // appversion is present in all supported GFE versions
-        return NvHTTP.getXmlString(serverInfo, "PairStatus", true).equals("1") ?
+        return ServerInfo.requireField(serverInfo.pairStatus, "PairStatus").equals("1") ?
                 PairState.PAIRED : PairState.NOT_PAIRED;
     }
     
-    public long getMaxLumaPixelsH264(String serverInfo) throws XmlPullParserException, IOException {
+    public long getMaxLumaPixelsH264(ServerInfo serverInfo) throws XmlPullParserException, IOException {
         // MaxLumaPixelsH264 wasn't present on old GFE versions
-        String str = getXmlString(serverInfo, "MaxLumaPixelsH264", false);
+        String str = serverInfo.maxLumaPixelsH264;
         if (str != null) {
             return Long.parseLong(str);
         } else {
@@ -500,9 +595,9 @@ public class NvHTTP {
         }
     }
     
-    public long getMaxLumaPixelsHEVC(String serverInfo) throws XmlPullParserException, IOException {
+    public long getMaxLumaPixelsHEVC(ServerInfo serverInfo) throws XmlPullParserException, IOException {
         // MaxLumaPixelsHEVC wasn't present on old GFE versions
-        String str = getXmlString(serverInfo, "MaxLumaPixelsHEVC", false);
+        String str = serverInfo.maxLumaPixelsHEVC;
         if (str != null) {
             return Long.parseLong(str);
         } else {
@@ -518,9 +613,9 @@ public class NvHTTP {
     // Bit 9: HEVC Main10
     // Bit 10: HEVC Main10 4:4:4
     // Bit 11: ???
-    public long getServerCodecModeSupport(String serverInfo) throws XmlPullParserException, IOException {
+    public long getServerCodecModeSupport(ServerInfo serverInfo) throws XmlPullParserException, IOException {
         // ServerCodecModeSupport wasn't present on old GFE versions
-        String str = getXmlString(serverInfo, "ServerCodecModeSupport", false);
+        String str = serverInfo.serverCodecModeSupport;
         if (str != null) {
             return Long.parseLong(str);
         } else {
@@ -528,19 +623,19 @@ public class NvHTTP {
         }
     }
     
-    public String getGpuType(String serverInfo) throws XmlPullParserException, IOException {
+    public String getGpuType(ServerInfo serverInfo) throws XmlPullParserException, IOException {
         // ServerCodecModeSupport wasn't present on old GFE versions
-        return getXmlString(serverInfo, "gputype", false);
+        return serverInfo.gpuType;
     }
 
-    public String getGfeVersion(String serverInfo) throws XmlPullParserException, IOException {
+    public String getGfeVersion(ServerInfo serverInfo) throws XmlPullParserException, IOException {
         // ServerCodecModeSupport wasn't present on old GFE versions
-        return getXmlString(serverInfo, "GfeVersion", false);
+        return serverInfo.gfeVersion;
     }
     
-    public boolean supports4K(String serverInfo) throws XmlPullParserException, IOException {
+    public boolean supports4K(ServerInfo serverInfo) throws XmlPullParserException, IOException {
         // Only allow 4K on GFE 3.x. GfeVersion wasn't present on very old versions of GFE.
-        String gfeVersionStr = getXmlString(serverInfo, "GfeVersion", false);
+        String gfeVersionStr = serverInfo.gfeVersion;
         if (gfeVersionStr == null || gfeVersionStr.startsWith("2.")) {
             return false;
         }
@@ -548,42 +643,35 @@ public class NvHTTP {
         return true;
     }
 
-    public int getCurrentGame(String serverInfo) throws IOException, XmlPullParserException {
+    public int getCurrentGame(ServerInfo serverInfo) throws IOException, XmlPullParserException {
         // GFE 2.8 started keeping currentgame set to the last game played. As a result, it no longer
         // has the semantics that its name would indicate. To contain the effects of this change as much
         // as possible, we'll force the current game to zero if the server isn't in a streaming session.
-        if (getXmlString(serverInfo, "state", true).endsWith("_SERVER_BUSY")) {
-            return Integer.parseInt(getXmlString(serverInfo, "currentgame", true));
+        if (ServerInfo.requireField(serverInfo.state, "state").endsWith("_SERVER_BUSY")) {
+            return Integer.parseInt(ServerInfo.requireField(serverInfo.currentGame, "currentgame"));
         }
         else {
             return 0;
         }
     }
 
-    public int getHttpsPort(String serverInfo) {
+    public int getHttpsPort(ServerInfo serverInfo) {
         try {
-            return Integer.parseInt(getXmlString(serverInfo, "HttpsPort", true));
+            return Integer.parseInt(ServerInfo.requireField(serverInfo.httpsPort, "HttpsPort"));
         } catch (XmlPullParserException e) {
             e.printStackTrace();
             return DEFAULT_HTTPS_PORT;
-        } catch (IOException e) {
-            e.printStackTrace();
-            return DEFAULT_HTTPS_PORT;
         }
     }
 
-    public int getExternalPort(String serverInfo) {
+    public int getExternalPort(ServerInfo serverInfo) {
         // This is an extension which is not present in GFE. It is present for Sunshine to be able
         // to support dynamic HTTP WAN ports without requiring the user to manually enter the port.
-        try {
-            return Integer.parseInt(getXmlString(serverInfo, "ExternalPort", true));
-        } catch (XmlPullParserException e) {
+        if (serverInfo.externalPort == null) {
             // Expected on non-Sunshine servers
             return baseUrlHttp.port();
-        } catch (IOException e) {
-            e.printStackTrace();
-            return baseUrlHttp.port();
         }
+        return Integer.parseInt(serverInfo.externalPort);
     }
 
     /**
@@ -626,9 +714,7 @@ public class NvHTTP {
     }
     
     public static LinkedList<NvApp> getAppListByReader(Reader r) throws XmlPullParserException, IOException {
-        XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
-        factory.setNamespaceAware(true);
-        XmlPullParser xpp = factory.newPullParser();
+        XmlPullParser xpp = newXmlPullParser();
 
         xpp.setInput(r);
         int eventType = xpp.getEventType();
@@ -722,11 +808,11 @@ public class NvHTTP {
         return resp.byteStream();
     }
     
-    public int getServerMajorVersion(String serverInfo) throws XmlPullParserException, IOException {
+    public int getServerMajorVersion(ServerInfo serverInfo) throws XmlPullParserException, IOException {
         return getServerAppVersionQuad(serverInfo)[0];
     }
     
-    public int[] getServerAppVersionQuad(String serverInfo) throws XmlPullParserException, IOException {
+    public int[] getServerAppVersionQuad(ServerInfo serverInfo) throws XmlPullParserException, IOException {
         String serverVersion = getServerVersion(serverInfo);
         if (serverVersion == null) {
             throw new IllegalArgumentException("Missing server version field");
@@ -793,6 +879,7 @@ public class NvHTTP {
                 (verb.equals("resume") && !getXmlString(xmlStr, "resume", true).equals("0")))) {
             // sessionUrl0 will be missing for older GFE versions
             context.rtspSessionUrl = getXmlString(xmlStr, "sessionUrl0", false);
+            LimeLog.info("HTTP connection stats after "+verb+": "+getConnectionStats());
             return true;
         }
         else {
@@ -0,0 +1,89 @@
+package com.limelight.nvstream.http;
+
+import java.io.IOException;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.HashMap;
+
+// Hands out one NvHTTP per host address so its clients, connection pool, and TLS
+// sessions are reused across polls, app list fetches, box art loads, and launches.
+//
+// Instances are keyed by the address tuple and the pinned server certificate. If the
+// certificate for an address changes (because the host was re-paired), the old instance
+// is replaced so nothing validated against the old certificate gets reused.
+//
+// Each registry belongs to the component that created it, and its instances go away with it.
+public class NvHTTPRegistry {
+    private final HashMap<ComputerDetails.AddressTuple, NvHTTP> instances = new HashMap<>();
+
+    // Stats
+    private long hits;
+    private long misses;
+
+    public synchronized NvHTTP get(ComputerDetails.AddressTuple address, int httpsPort, String uniqueId,
+                                          X509Certificate serverCert, LimelightCryptoProvider cryptoProvider) throws IOException {
+        NvHTTP http = instances.get(address);
+        if (http != null && certificatesMatch(http.getServerCert(), serverCert)) {
+            hits++;
+
+            // A port of 0 means the caller doesn't know the HTTPS port for this address,
+            // so NvHTTP looks it up again just like it would with a new instance
+            http.setHttpsPort(httpsPort);
+            return http;
+        }
+
+        misses++;
+        http = new NvHTTP(address, httpsPort, uniqueId, serverCert, cryptoProvider);
+
+        // Copy the address since callers are free to modify theirs
+        instances.put(new ComputerDetails.AddressTuple(address.address, address.port), http);
+        return http;
+    }
+
+    public synchronized void remove(ComputerDetails computer) {
+        for (ComputerDetails.AddressTuple address : getAddresses(computer)) {
+            if (address != null) {
+                instances.remove(address);
+            }
+        }
+    }
+
+    // Drops the instances for any of the old addresses that the computer no longer has
+    public synchronized void removeStaleAddresses(ComputerDetails.AddressTuple[] oldAddresses, ComputerDetails computer) {
+        ComputerDetails.AddressTuple[] addresses = getAddresses(computer);
+        for (ComputerDetails.AddressTuple oldAddress : oldAddresses) {
+            if (oldAddress != null && !Arrays.asList(addresses).contains(oldAddress)) {
+                instances.remove(oldAddress);
+            }
+        }
+    }
+
+    // Returns copies of the computer's addresses, since ComputerDetails.update() can
+    // modify them in place
+    public static ComputerDetails.AddressTuple[] getAddresses(ComputerDetails computer) {
+        ComputerDetails.AddressTuple[] addresses = {
+                computer.localAddress, computer.remoteAddress,
+                computer.manualAddress, computer.ipv6Address
+        };
+        for (int i = 0; i < addresses.length; i++) {
+            if (addresses[i] != null) {
+                addresses[i] = new ComputerDetails.AddressTuple(addresses[i].address, addresses[i].port);
+            }
+        }
+        return addresses;
+    }
+
+    public synchronized void clear() {
+        instances.clear();
+    }
+
+    public synchronized String getStats() {
+        return instances.size()+" hosts, "+hits+" reused, "+misses+" created";
+    }
+
+    private static boolean certificatesMatch(X509Certificate a, X509Certificate b) {
+        // Callers usually pass the same certificate object each time, so try that first
+        // to avoid comparing the encoded certificates.
+        return a == b || (a != null && a.equals(b));
+    }
+}
@@ -0,0 +1,130 @@
+package com.limelight.nvstream.http;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayDeque;
+
+// The fields of a serverinfo response, extracted in a single pass over the XML.
+// Values are kept as they were sent by the host (or null if missing), and NvHTTP's
+// accessors apply defaults and validation so behavior matches the original per-field lookups.
+public class ServerInfo {
+    String hostname;
+    String uniqueId;
+    String macAddress;
+    String localIp;
+    String externalIp;
+    String httpsPort;
+    String externalPort;
+    String appVersion;
+    String gfeVersion;
+    String gpuType;
+    String state;
+    String currentGame;
+    String pairStatus;
+    String maxLumaPixelsH264;
+    String maxLumaPixelsHEVC;
+    String serverCodecModeSupport;
+
+    private ServerInfo() {}
+
+    static ServerInfo parse(String xml) throws XmlPullParserException, IOException {
+        return parse(new StringReader(xml));
+    }
+
+    static ServerInfo parse(Reader r) throws XmlPullParserException, IOException {
+        XmlPullParser xpp = NvHTTP.newXmlPullParser();
+        ServerInfo info = new ServerInfo();
+
+        xpp.setInput(r);
+        int eventType = xpp.getEventType();
+        ArrayDeque<String> currentTag = new ArrayDeque<>();
+
+        while (eventType != XmlPullParser.END_DOCUMENT) {
+            switch (eventType) {
+            case (XmlPullParser.START_TAG):
+                if (xpp.getName().equals("root")) {
+                    NvHTTP.verifyResponseStatus(xpp);
+                }
+                currentTag.push(xpp.getName());
+                break;
+            case (XmlPullParser.END_TAG):
+                currentTag.pop();
+                break;
+            case (XmlPullParser.TEXT):
+                if (!currentTag.isEmpty()) {
+                    info.setField(currentTag.peek(), xpp.getText());
+                }
+                break;
+            }
+            eventType = xpp.next();
+        }
+
+        return info;
+    }
+
+    // Like the old tag lookups, the first value seen for a tag wins
+    private void setField(String tagname, String value) {
+        switch (tagname) {
+            case "hostname":
+                if (hostname == null) hostname = value;
+                break;
+            case "uniqueid":
+                if (uniqueId == null) uniqueId = value;
+                break;
+            case "mac":
+                if (macAddress == null) macAddress = value;
+                break;
+            case "LocalIP":
+                if (localIp == null) localIp = value;
+                break;
+            case "ExternalIP":
+                if (externalIp == null) externalIp = value;
+                break;
+            case "HttpsPort":
+                if (httpsPort == null) httpsPort = value;
+                break;
+            case "ExternalPort":
+                if (externalPort == null) externalPort = value;
+                break;
+            case "appversion":
+                if (appVersion == null) appVersion = value;
+                break;
+            case "GfeVersion":
+                if (gfeVersion == null) gfeVersion = value;
+                break;
+            case "gputype":
+                if (gpuType == null) gpuType = value;
+                break;
+            case "state":
+                if (state == null) state = value;
+                break;
+            case "currentgame":
+                if (currentGame == null) currentGame = value;
+                break;
+            case "PairStatus":
+                if (pairStatus == null) pairStatus = value;
+                break;
+            case "MaxLumaPixelsH264":
+                if (maxLumaPixelsH264 == null) maxLumaPixelsH264 = value;
+                break;
+            case "MaxLumaPixelsHEVC":
+                if (maxLumaPixelsHEVC == null) maxLumaPixelsHEVC = value;
+                break;
+            case "ServerCodecModeSupport":
+                if (serverCodecModeSupport == null) serverCodecModeSupport = value;
+                break;
+        }
+    }
+
+    static String requireField(String value, String tagname) throws XmlPullParserException {
+        if (value == null) {
+            // See NvHTTP.getXmlString() for why this is an XmlPullParserException
+            throw new XmlPullParserException("Missing mandatory field in host response: "+tagname);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,172 @@
+package com.limelight.nvstream.input;
+
+import com.limelight.LimeLog;
+import com.limelight.nvstream.jni.MoonBridge;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Coalesces mouse motion so we send at most one motion update per flush interval.
+//
+// High polling rate mice can deliver thousands of motion events per second, which is far
+// more than the host can use at the stream frame rate. Relative deltas are summed so the
+// total motion is preserved exactly, while absolute positions only keep the latest one.
+// The first motion after an idle period is sent immediately, and any motion that arrives
+// within the interval is sent when the interval elapses. Callers must flush pending motion
+// before sending button or scroll events, so those happen at the right cursor position.
+public class MouseMotionBatcher {
+    private static final int TYPE_NONE = 0;
+    private static final int TYPE_RELATIVE = 1;
+    private static final int TYPE_RELATIVE_AS_POSITION = 2;
+    private static final int TYPE_ABSOLUTE = 3;
+
+    private final long flushIntervalNs;
+    private final ScheduledThreadPoolExecutor flushTimer;
+
+    private int pendingType = TYPE_NONE;
+    private int pendingX, pendingY;
+    private short referenceWidth, referenceHeight;
+    private long lastFlushTimeNs;
+    private boolean flushScheduled;
+    private boolean stopped;
+
+    // Stats
+    private long eventsQueued;
+    private long updatesSent;
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (MouseMotionBatcher.this) {
+                flushScheduled = false;
+                flushPendingMotion();
+            }
+        }
+    };
+
+    public MouseMotionBatcher(int flushRateHz) {
+        this.flushIntervalNs = TimeUnit.SECONDS.toNanos(1) / flushRateHz;
+        this.flushTimer = new ScheduledThreadPoolExecutor(1);
+        this.lastFlushTimeNs = System.nanoTime() - flushIntervalNs;
+    }
+
+    public synchronized void queueMouseMove(short deltaX, short deltaY) {
+        prepareToQueue(TYPE_RELATIVE, (short)0, (short)0);
+
+        // These are ints, so they can't overflow no matter how much motion we accumulate
+        pendingX += deltaX;
+        pendingY += deltaY;
+
+        scheduleFlush();
+    }
+
+    public synchronized void queueMouseMoveAsMousePosition(short deltaX, short deltaY, short referenceWidth, short referenceHeight) {
+        prepareToQueue(TYPE_RELATIVE_AS_POSITION, referenceWidth, referenceHeight);
+
+        pendingX += deltaX;
+        pendingY += deltaY;
+
+        scheduleFlush();
+    }
+
+    public synchronized void queueMousePosition(short x, short y, short referenceWidth, short referenceHeight) {
+        prepareToQueue(TYPE_ABSOLUTE, referenceWidth, referenceHeight);
+
+        // Only the latest position matters
+        pendingX = x;
+        pendingY = y;
+
+        scheduleFlush();
+    }
+
+    // Sends any pending motion immediately
+    public synchronized void flush() {
+        flushPendingMotion();
+    }
+
+    public synchronized void stop() {
+        flushPendingMotion();
+        stopped = true;
+        flushTimer.shutdownNow();
+
+        if (eventsQueued > 0) {
+            LimeLog.info("Mouse motion batching: "+eventsQueued+" events sent as "+updatesSent+
+                    " updates ("+getCoalescedEventCount()+" coalesced)");
+        }
+    }
+
+    public synchronized long getCoalescedEventCount() {
+        return eventsQueued - updatesSent;
+    }
+
+    private void prepareToQueue(int type, short referenceWidth, short referenceHeight) {
+        // Different kinds of motion can't be combined, so send what we have first to
+        // keep things in order.
+        if (pendingType != TYPE_NONE &&
+                (pendingType != type || this.referenceWidth != referenceWidth || this.referenceHeight != referenceHeight)) {
+            flushPendingMotion();
+        }
+
+        pendingType = type;
+        this.referenceWidth = referenceWidth;
+        this.referenceHeight = referenceHeight;
+        eventsQueued++;
+    }
+
+    private void scheduleFlush() {
+        long now = System.nanoTime();
+        long timeSinceFlushNs = now - lastFlushTimeNs;
+
+        if (timeSinceFlushNs >= flushIntervalNs || stopped) {
+            // We haven't sent anything recently, so send this right away
+            flushPendingMotion();
+        }
+        else if (!flushScheduled) {
+            flushScheduled = true;
+            flushTimer.schedule(flushTask, flushIntervalNs - timeSinceFlushNs, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void flushPendingMotion() {
+        switch (pendingType) {
+            case TYPE_NONE:
+                return;
+
+            case TYPE_RELATIVE:
+                // The sum may not fit in a single packet, so split it if needed
+                do {
+                    short deltaX = clampToShort(pendingX);
+                    short deltaY = clampToShort(pendingY);
+                    MoonBridge.sendMouseMove(deltaX, deltaY);
+                    pendingX -= deltaX;
+                    pendingY -= deltaY;
+                    updatesSent++;
+                } while (pendingX != 0 || pendingY != 0);
+                break;
+
+            case TYPE_RELATIVE_AS_POSITION:
+                do {
+                    short deltaX = clampToShort(pendingX);
+                    short deltaY = clampToShort(pendingY);
+                    MoonBridge.sendMouseMoveAsMousePosition(deltaX, deltaY, referenceWidth, referenceHeight);
+                    pendingX -= deltaX;
+                    pendingY -= deltaY;
+                    updatesSent++;
+                } while (pendingX != 0 || pendingY != 0);
+                break;
+
+            case TYPE_ABSOLUTE:
+                MoonBridge.sendMousePosition((short)pendingX, (short)pendingY, referenceWidth, referenceHeight);
+                updatesSent++;
+                break;
+        }
+
+        pendingType = TYPE_NONE;
+        pendingX = pendingY = 0;
+        lastFlushTimeNs = System.nanoTime();
+    }
+
+    private static short clampToShort(int value) {
+        return (short)Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value));
+    }
+}
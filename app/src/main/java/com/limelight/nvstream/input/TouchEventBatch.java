@@ -0,0 +1,81 @@
+package com.limelight.nvstream.input;
+
+// A batch of touch or pen samples that is sent to the host in a single call.
+//
+// Each sample is packed into one float array, so the whole batch crosses JNI without any
+// per-sample objects. The layout must match the TOUCH_BATCH_* definitions in simplejni.c.
+// Batches are meant to be reused for every event, so they only allocate when they grow.
+public class TouchEventBatch {
+    public static final int FIELD_EVENT_TYPE = 0;
+    public static final int FIELD_POINTER_ID = 1;
+    public static final int FIELD_TOOL_TYPE = 2;
+    public static final int FIELD_PEN_BUTTONS = 3;
+    public static final int FIELD_X = 4;
+    public static final int FIELD_Y = 5;
+    public static final int FIELD_PRESSURE_OR_DISTANCE = 6;
+    public static final int FIELD_CONTACT_AREA_MAJOR = 7;
+    public static final int FIELD_CONTACT_AREA_MINOR = 8;
+    public static final int FIELD_ROTATION = 9;
+    public static final int FIELD_TILT = 10;
+    public static final int SAMPLE_STRIDE = 11;
+
+    private float[] samples = new float[SAMPLE_STRIDE * 16];
+    private int count;
+
+    public void clear() {
+        count = 0;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public float[] getSamples() {
+        return samples;
+    }
+
+    public void addTouchSample(byte eventType, int pointerId, float x, float y, float pressureOrDistance,
+                               float contactAreaMajor, float contactAreaMinor, short rotation) {
+        int offset = allocateSample();
+        samples[offset + FIELD_EVENT_TYPE] = eventType;
+        samples[offset + FIELD_POINTER_ID] = pointerId;
+        samples[offset + FIELD_TOOL_TYPE] = 0;
+        samples[offset + FIELD_PEN_BUTTONS] = 0;
+        samples[offset + FIELD_X] = x;
+        samples[offset + FIELD_Y] = y;
+        samples[offset + FIELD_PRESSURE_OR_DISTANCE] = pressureOrDistance;
+        samples[offset + FIELD_CONTACT_AREA_MAJOR] = contactAreaMajor;
+        samples[offset + FIELD_CONTACT_AREA_MINOR] = contactAreaMinor;
+        samples[offset + FIELD_ROTATION] = rotation;
+        samples[offset + FIELD_TILT] = 0;
+    }
+
+    public void addPenSample(byte eventType, byte toolType, byte penButtons, float x, float y,
+                             float pressureOrDistance, float contactAreaMajor, float contactAreaMinor,
+                             short rotation, byte tilt) {
+        int offset = allocateSample();
+        samples[offset + FIELD_EVENT_TYPE] = eventType;
+        samples[offset + FIELD_POINTER_ID] = 0;
+        samples[offset + FIELD_TOOL_TYPE] = toolType;
+        samples[offset + FIELD_PEN_BUTTONS] = penButtons;
+        samples[offset + FIELD_X] = x;
+        samples[offset + FIELD_Y] = y;
+        samples[offset + FIELD_PRESSURE_OR_DISTANCE] = pressureOrDistance;
+        samples[offset + FIELD_CONTACT_AREA_MAJOR] = contactAreaMajor;
+        samples[offset + FIELD_CONTACT_AREA_MINOR] = contactAreaMinor;
+        samples[offset + FIELD_ROTATION] = rotation;
+        samples[offset + FIELD_TILT] = tilt;
+    }
+
+    private int allocateSample() {
+        int offset = count * SAMPLE_STRIDE;
+        if (offset + SAMPLE_STRIDE > samples.length) {
+            float[] newSamples = new float[samples.length * 2];
+            System.arraycopy(samples, 0, newSamples, 0, offset);
+            samples = newSamples;
+        }
+
+        count++;
+        return offset;
+    }
+}
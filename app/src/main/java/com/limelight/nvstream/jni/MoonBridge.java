@@ -4,6 +4,8 @@ import com.limelight.nvstream.NvConnectionListener;
 import com.limelight.nvstream.av.audio.AudioRenderer;
 import com.limelight.nvstream.av.video.VideoDecoderRenderer;
 
+import java.nio.ByteBuffer;
+
 public class MoonBridge {
     /* See documentation in Limelight.h for information about these functions and constants */
 
@@ -227,6 +229,27 @@ public class MoonBridge {
         }
     }
 
+    public static int bridgeDrSubmitZeroCopyDecodeUnit(int decodeUnitLength, int frameNumber, int frameType,
+                                                       char frameHostProcessingLatency,
+                                                       long receiveTimeMs, long enqueueTimeMs) {
+        if (videoRenderer != null) {
+            return videoRenderer.submitZeroCopyDecodeUnit(decodeUnitLength, frameNumber, frameType,
+                    frameHostProcessingLatency, receiveTimeMs, enqueueTimeMs);
+        }
+        else {
+            return DR_OK;
+        }
+    }
+
+    public static boolean bridgeDrSupportsZeroCopySubmission() {
+        if (videoRenderer != null) {
+            return videoRenderer.supportsZeroCopySubmission();
+        }
+        else {
+            return false;
+        }
+    }
+
     public static int bridgeArInit(int audioConfiguration, int sampleRate, int samplesPerFrame) {
         if (audioRenderer != null) {
             return audioRenderer.setup(new AudioConfiguration(audioConfiguration), sampleRate, samplesPerFrame);
@@ -373,6 +396,11 @@ public class MoonBridge {
                                           float pressure, float contactAreaMajor, float contactAreaMinor,
                                           short rotation, byte tilt);
 
+    // Sends each sample in a TouchEventBatch, stopping early only on LI_ERR_UNSUPPORTED
+    public static native int sendTouchEventBatch(float[] samples, int count);
+
+    public static native int sendPenEventBatch(float[] samples, int count);
+
     public static native int sendControllerArrivalEvent(byte controllerNumber, short activeGamepadMask, byte type, int supportedButtonFlags, short capabilities);
 
     public static native int sendControllerTouchEvent(byte controllerNumber, byte eventType, int pointerId, float x, float y, float pressure);
@@ -397,6 +425,31 @@ public class MoonBridge {
 
     public static native int getPendingVideoFrames();
 
+    // Native low latency audio output (AAudio). When nativeAudioInit() succeeds during
+    // AudioRenderer.setup(), decoded audio is written directly to the native output stream
+    // and AudioRenderer.playDecodedAudio() will not be called.
+    public static native boolean isNativeAudioAvailable();
+
+    public static native int nativeAudioInit(int channelCount, int sampleRate, int samplesPerFrame, int targetBufferMs, boolean floatOutput);
+
+    public static native void nativeAudioStart();
+
+    public static native void nativeAudioStop();
+
+    public static native void nativeAudioCleanup();
+
+    public static native int getNativeAudioBufferedMs();
+
+    public static native int getNativeAudioUnderruns();
+
+    public static native int getNativeAudioDroppedPackets();
+
+    // Writes the picture data of the decode unit currently being submitted into the provided
+    // direct ByteBuffer at the specified offset. This may only be called from within
+    // VideoDecoderRenderer.submitZeroCopyDecodeUnit(). Returns the number of bytes written or
+    // -1 if the buffer is not a direct buffer or is too small to hold the picture data.
+    public static native int copyDecodeUnitToBuffer(ByteBuffer buffer, int offset);
+
     public static native int testClientConnectivity(String testServerHostName, int referencePort, int testFlags);
 
     public static native int getPortFlagsFromStage(int stage);
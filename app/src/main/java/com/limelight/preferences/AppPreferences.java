@@ -97,6 +97,8 @@ public class AppPreferences {
                 return PreferenceConfiguration.FRAME_PACING_CAP_FPS;
             case "smoothness":
                 return PreferenceConfiguration.FRAME_PACING_MAX_SMOOTHNESS;
+            case "adaptive":
+                return PreferenceConfiguration.FRAME_PACING_ADAPTIVE;
             default:
                 return PreferenceConfiguration.FRAME_PACING_MIN_LATENCY;
         }
@@ -0,0 +1,162 @@
+package com.limelight.preferences;
+
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+
+import com.limelight.BuildConfig;
+
+// Caches the results of probing our decoders, since MediaCodecList queries and failed
+// codec creations are slow and the answers can't change without a system update.
+// Everything is thrown away when the build fingerprint changes, and also when our
+// version or the GL renderer changes since those affect which decoders we pick.
+public class DecoderPreferences {
+    private static final String PREF_NAME = "DecoderPreferences";
+
+    private static final String FINGERPRINT_PREF_STRING = "Fingerprint";
+    private static final String APP_VERSION_PREF_STRING = "AppVersion";
+    private static final String GL_RENDERER_PREF_STRING = "Renderer";
+    private static final String DECODER_PREF_PREFIX = "Decoder_";
+    private static final String PROFILE_PREF_PREFIX = "Profile_";
+    private static final String PERF_POINT_PREF_PREFIX = "PerfPoint_";
+    private static final String LOW_LATENCY_TRY_PREF_PREFIX = "LowLatencyTry_";
+    private static final String LOW_LATENCY_TRY_USES_PREF_PREFIX = "LowLatencyTryUses_";
+    private static final String VENDOR_LOW_LATENCY_PREF_PREFIX = "VendorLowLatency_";
+    private static final String DECODE_TIME_PREF_PREFIX = "DecodeTime_";
+    private static final String DECODE_TIME_SAMPLES_PREF_PREFIX = "DecodeTimeSamples_";
+
+    private SharedPreferences prefs;
+
+    private DecoderPreferences(SharedPreferences prefs) {
+        this.prefs = prefs;
+    }
+
+    public static DecoderPreferences readPreferences(Context context, String glRenderer) {
+        SharedPreferences prefs = context.getSharedPreferences(PREF_NAME, 0);
+
+        if (!Build.FINGERPRINT.equals(prefs.getString(FINGERPRINT_PREF_STRING, "")) ||
+                prefs.getInt(APP_VERSION_PREF_STRING, 0) != BuildConfig.VERSION_CODE ||
+                !glRenderer.equals(prefs.getString(GL_RENDERER_PREF_STRING, ""))) {
+            // The decoders may have changed, so we need to probe them again
+            prefs.edit()
+                    .clear()
+                    .putString(FINGERPRINT_PREF_STRING, Build.FINGERPRINT)
+                    .putInt(APP_VERSION_PREF_STRING, BuildConfig.VERSION_CODE)
+                    .putString(GL_RENDERER_PREF_STRING, glRenderer)
+                    .apply();
+        }
+
+        return new DecoderPreferences(prefs);
+    }
+
+    // Returns null if we haven't looked for this decoder yet or an empty string
+    // if we looked and didn't find one
+    public String getDecoderName(String mimeType, int requiredProfile) {
+        return prefs.getString(DECODER_PREF_PREFIX+mimeType+"_"+requiredProfile, null);
+    }
+
+    public void setDecoderName(String mimeType, int requiredProfile, String decoderName) {
+        prefs.edit().putString(DECODER_PREF_PREFIX+mimeType+"_"+requiredProfile, decoderName).apply();
+    }
+
+    // Returns null if we haven't checked for this profile yet
+    public Boolean getProfileSupport(String decoderName, String mimeType, int profile) {
+        return getBoolean(PROFILE_PREF_PREFIX+decoderName+"_"+mimeType+"_"+profile);
+    }
+
+    public void setProfileSupport(String decoderName, String mimeType, int profile, boolean supported) {
+        prefs.edit().putBoolean(PROFILE_PREF_PREFIX+decoderName+"_"+mimeType+"_"+profile, supported).apply();
+    }
+
+    // Returns null if we haven't checked this performance point yet
+    public Boolean getPerformancePointSupport(String decoderName, String mimeType, int width, int height, int fps) {
+        return getBoolean(PERF_POINT_PREF_PREFIX+decoderName+"_"+mimeType+"_"+width+"x"+height+"x"+fps);
+    }
+
+    public void setPerformancePointSupport(String decoderName, String mimeType, int width, int height, int fps, boolean supported) {
+        prefs.edit().putBoolean(PERF_POINT_PREF_PREFIX+decoderName+"_"+mimeType+"_"+width+"x"+height+"x"+fps, supported).apply();
+    }
+
+    // Returns the first low latency option try number that worked last time, or 0 if we don't know
+    public int getLowLatencyTryNumber(String decoderName, String mimeType, boolean ultraLowLatency,
+                                      int videoFormat, int width, int height, int fps) {
+        return prefs.getInt(LOW_LATENCY_TRY_PREF_PREFIX+getLowLatencyTryKey(decoderName, mimeType, ultraLowLatency,
+                videoFormat, width, height, fps), 0);
+    }
+
+    // Returns how many times the decoder has been configured with the saved try number since it was saved
+    public int getLowLatencyTryUses(String decoderName, String mimeType, boolean ultraLowLatency,
+                                    int videoFormat, int width, int height, int fps) {
+        return prefs.getInt(LOW_LATENCY_TRY_USES_PREF_PREFIX+getLowLatencyTryKey(decoderName, mimeType, ultraLowLatency,
+                videoFormat, width, height, fps), 0);
+    }
+
+    public void setLowLatencyTryNumber(String decoderName, String mimeType, boolean ultraLowLatency,
+                                       int videoFormat, int width, int height, int fps, int tryNumber, int uses) {
+        String key = getLowLatencyTryKey(decoderName, mimeType, ultraLowLatency, videoFormat, width, height, fps);
+        prefs.edit()
+                .putInt(LOW_LATENCY_TRY_PREF_PREFIX+key, tryNumber)
+                .putInt(LOW_LATENCY_TRY_USES_PREF_PREFIX+key, uses)
+                .apply();
+    }
+
+    // Whether a low latency option is accepted can depend on the format and size of the stream
+    private static String getLowLatencyTryKey(String decoderName, String mimeType, boolean ultraLowLatency,
+                                              int videoFormat, int width, int height, int fps) {
+        return decoderName+"_"+mimeType+"_"+ultraLowLatency+"_"+videoFormat+"_"+width+"x"+height+"x"+fps;
+    }
+
+    // Returns null if we haven't checked this decoder's vendor parameters yet
+    public Boolean getVendorLowLatencySupport(String decoderName) {
+        return getBoolean(VENDOR_LOW_LATENCY_PREF_PREFIX+decoderName);
+    }
+
+    public void setVendorLowLatencySupport(String decoderName, boolean supported) {
+        prefs.edit().putBoolean(VENDOR_LOW_LATENCY_PREF_PREFIX+decoderName, supported).apply();
+    }
+
+    // Returns the average decode time over the streams that used this engine with this stream
+    // configuration, or null if there haven't been any yet
+    public Float getDecodeTimeMs(String decoderName, String mimeType, boolean asyncEngine,
+                                 int videoFormat, int width, int height, int fps, int bitrate) {
+        String key = DECODE_TIME_PREF_PREFIX+getDecodeTimeKey(decoderName, mimeType, asyncEngine,
+                videoFormat, width, height, fps, bitrate);
+        if (!prefs.contains(key)) {
+            return null;
+        }
+
+        return prefs.getFloat(key, 0);
+    }
+
+    // Returns the number of streams that the average decode time was taken from
+    public int getDecodeTimeSamples(String decoderName, String mimeType, boolean asyncEngine,
+                                    int videoFormat, int width, int height, int fps, int bitrate) {
+        return prefs.getInt(DECODE_TIME_SAMPLES_PREF_PREFIX+getDecodeTimeKey(decoderName, mimeType, asyncEngine,
+                videoFormat, width, height, fps, bitrate), 0);
+    }
+
+    public void setDecodeTimeMs(String decoderName, String mimeType, boolean asyncEngine,
+                                int videoFormat, int width, int height, int fps, int bitrate,
+                                float decodeTimeMs, int samples) {
+        String key = getDecodeTimeKey(decoderName, mimeType, asyncEngine, videoFormat, width, height, fps, bitrate);
+        prefs.edit()
+                .putFloat(DECODE_TIME_PREF_PREFIX+key, decodeTimeMs)
+                .putInt(DECODE_TIME_SAMPLES_PREF_PREFIX+key, samples)
+                .apply();
+    }
+
+    // Decode times are only comparable between streams of the same format, size, and bitrate
+    private static String getDecodeTimeKey(String decoderName, String mimeType, boolean asyncEngine,
+                                           int videoFormat, int width, int height, int fps, int bitrate) {
+        return decoderName+"_"+mimeType+"_"+asyncEngine+"_"+videoFormat+"_"+width+"x"+height+"x"+fps+"_"+bitrate;
+    }
+
+    private Boolean getBoolean(String key) {
+        if (!prefs.contains(key)) {
+            return null;
+        }
+
+        return prefs.getBoolean(key, false);
+    }
+}
@@ -61,9 +61,16 @@ public class PreferenceConfiguration {
     private static final String FLIP_FACE_BUTTONS_PREF_STRING = "checkbox_flip_face_buttons";
     private static final String TOUCHSCREEN_TRACKPAD_PREF_STRING = "checkbox_touchscreen_trackpad";
     private static final String LATENCY_TOAST_PREF_STRING = "checkbox_enable_post_stream_toast";
+    private static final String FRAME_TRACE_PREF_STRING = "checkbox_enable_frame_trace";
     private static final String FRAME_PACING_PREF_STRING = "frame_pacing";
+    private static final String DECODER_ENGINE_PREF_STRING = "list_decoder_engine";
     private static final String ABSOLUTE_MOUSE_MODE_PREF_STRING = "checkbox_absolute_mouse_mode";
+    private static final String MOUSE_MOTION_BATCHING_PREF_STRING = "list_mouse_motion_batching";
+    private static final String SEND_TOUCH_HISTORY_PREF_STRING = "checkbox_send_touch_history";
     private static final String ENABLE_AUDIO_FX_PREF_STRING = "checkbox_enable_audiofx";
+    private static final String NATIVE_AUDIO_PREF_STRING = "checkbox_enable_native_audio";
+    private static final String NATIVE_AUDIO_BUFFER_PREF_STRING = "seekbar_native_audio_buffer_ms";
+    private static final String NATIVE_AUDIO_FLOAT_PREF_STRING = "checkbox_native_audio_float";
     private static final String REDUCE_REFRESH_RATE_PREF_STRING = "checkbox_reduce_refresh_rate";
     private static final String ACTUAL_DISPLAY_REFRESH_RATE_PREF_STRING = "text_actual_display_refresh_rate";
     private static final String FULL_RANGE_PREF_STRING = "checkbox_full_range";
@@ -103,9 +110,16 @@ public class PreferenceConfiguration {
     private static final boolean DEFAULT_TOUCHSCREEN_TRACKPAD = true;
     private static final String DEFAULT_AUDIO_CONFIG = "2"; // Stereo
     private static final boolean DEFAULT_LATENCY_TOAST = false;
+    private static final boolean DEFAULT_FRAME_TRACE = false;
     private static final String DEFAULT_FRAME_PACING = "latency";
+    private static final String DEFAULT_DECODER_ENGINE = "sync";
     private static final boolean DEFAULT_ABSOLUTE_MOUSE_MODE = false;
+    private static final String DEFAULT_MOUSE_MOTION_BATCHING = "off";
+    private static final boolean DEFAULT_SEND_TOUCH_HISTORY = false;
     private static final boolean DEFAULT_ENABLE_AUDIO_FX = false;
+    private static final boolean DEFAULT_NATIVE_AUDIO = false;
+    private static final int DEFAULT_NATIVE_AUDIO_BUFFER_MS = 20;
+    private static final boolean DEFAULT_NATIVE_AUDIO_FLOAT = false;
     private static final boolean DEFAULT_REDUCE_REFRESH_RATE = false;
     private static final String DEFAULT_ACTUAL_DISPLAY_REFRESH_RATE = "";
     private static final boolean DEFAULT_FULL_RANGE = false;
@@ -117,6 +131,14 @@ public class PreferenceConfiguration {
     public static final int FRAME_PACING_BALANCED = 1;
     public static final int FRAME_PACING_CAP_FPS = 2;
     public static final int FRAME_PACING_MAX_SMOOTHNESS = 3;
+    public static final int FRAME_PACING_ADAPTIVE = 4;
+
+    public static final int DECODER_ENGINE_SYNC = 0;
+    public static final int DECODER_ENGINE_ASYNC = 1;
+    public static final int DECODER_ENGINE_AUTO = 2;
+
+    public static final int MOUSE_MOTION_FLUSH_RATE_OFF = 0;
+    public static final int MOUSE_MOTION_FLUSH_RATE_STREAM_FPS = -1;
 
     public static final String RES_360P = "640x360";
     public static final String RES_480P = "854x480";
@@ -142,6 +164,7 @@ public class PreferenceConfiguration {
     public boolean enablePip;
     public boolean enablePerfOverlay;
     public boolean enableLatencyToast;
+    public boolean enableFrameTrace;
     public boolean bindAllUsb;
     public boolean mouseEmulation;
     public AnalogStickForScrolling analogStickForScrolling;
@@ -153,8 +176,14 @@ public class PreferenceConfiguration {
     public boolean touchscreenTrackpad;
     public MoonBridge.AudioConfiguration audioConfiguration;
     public int framePacing;
+    public int decoderEngine;
     public boolean absoluteMouseMode;
+    public int mouseMotionFlushRate;
+    public boolean sendTouchHistory;
     public boolean enableAudioFx;
+    public boolean enableNativeAudio;
+    public int nativeAudioBufferMs;
+    public boolean nativeAudioFloat;
     public boolean reduceRefreshRate;
     public String actualDisplayRefreshRate;
     public boolean fullRange;
@@ -399,12 +428,54 @@ public class PreferenceConfiguration {
         else if (str.equals("smoothness")) {
             return FRAME_PACING_MAX_SMOOTHNESS;
         }
+        else if (str.equals("adaptive")) {
+            return FRAME_PACING_ADAPTIVE;
+        }
         else {
             // Should never get here
             return FRAME_PACING_MIN_LATENCY;
         }
     }
 
+    private static int getDecoderEngineValue(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+
+        String str = prefs.getString(DECODER_ENGINE_PREF_STRING, DEFAULT_DECODER_ENGINE);
+        if (str.equals("sync")) {
+            return DECODER_ENGINE_SYNC;
+        }
+        else if (str.equals("async")) {
+            return DECODER_ENGINE_ASYNC;
+        }
+        else if (str.equals("auto")) {
+            return DECODER_ENGINE_AUTO;
+        }
+        else {
+            // Should never get here
+            return DECODER_ENGINE_SYNC;
+        }
+    }
+
+    private static int getMouseMotionFlushRateValue(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+
+        String str = prefs.getString(MOUSE_MOTION_BATCHING_PREF_STRING, DEFAULT_MOUSE_MOTION_BATCHING);
+        if (str.equals("off")) {
+            return MOUSE_MOTION_FLUSH_RATE_OFF;
+        }
+        else if (str.equals("fps")) {
+            return MOUSE_MOTION_FLUSH_RATE_STREAM_FPS;
+        }
+        else {
+            try {
+                return Integer.parseInt(str);
+            } catch (NumberFormatException e) {
+                // Should never get here
+                return MOUSE_MOTION_FLUSH_RATE_OFF;
+            }
+        }
+    }
+
     private static AnalogStickForScrolling getAnalogStickForScrollingValue(Context context) {
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
 
@@ -567,6 +638,7 @@ public class PreferenceConfiguration {
 
         config.videoFormat = getVideoFormatValue(context);
         config.framePacing = getFramePacingValue(context);
+        config.decoderEngine = getDecoderEngineValue(context);
 
         config.analogStickForScrolling = getAnalogStickForScrollingValue(context);
 
@@ -601,8 +673,14 @@ public class PreferenceConfiguration {
         config.flipFaceButtons = prefs.getBoolean(FLIP_FACE_BUTTONS_PREF_STRING, DEFAULT_FLIP_FACE_BUTTONS);
         config.touchscreenTrackpad = prefs.getBoolean(TOUCHSCREEN_TRACKPAD_PREF_STRING, DEFAULT_TOUCHSCREEN_TRACKPAD);
         config.enableLatencyToast = prefs.getBoolean(LATENCY_TOAST_PREF_STRING, DEFAULT_LATENCY_TOAST);
+        config.enableFrameTrace = prefs.getBoolean(FRAME_TRACE_PREF_STRING, DEFAULT_FRAME_TRACE);
         config.absoluteMouseMode = prefs.getBoolean(ABSOLUTE_MOUSE_MODE_PREF_STRING, DEFAULT_ABSOLUTE_MOUSE_MODE);
+        config.mouseMotionFlushRate = getMouseMotionFlushRateValue(context);
+        config.sendTouchHistory = prefs.getBoolean(SEND_TOUCH_HISTORY_PREF_STRING, DEFAULT_SEND_TOUCH_HISTORY);
         config.enableAudioFx = prefs.getBoolean(ENABLE_AUDIO_FX_PREF_STRING, DEFAULT_ENABLE_AUDIO_FX);
+        config.enableNativeAudio = prefs.getBoolean(NATIVE_AUDIO_PREF_STRING, DEFAULT_NATIVE_AUDIO);
+        config.nativeAudioBufferMs = prefs.getInt(NATIVE_AUDIO_BUFFER_PREF_STRING, DEFAULT_NATIVE_AUDIO_BUFFER_MS);
+        config.nativeAudioFloat = prefs.getBoolean(NATIVE_AUDIO_FLOAT_PREF_STRING, DEFAULT_NATIVE_AUDIO_FLOAT);
         config.reduceRefreshRate = prefs.getBoolean(REDUCE_REFRESH_RATE_PREF_STRING, DEFAULT_REDUCE_REFRESH_RATE);
         config.actualDisplayRefreshRate = prefs.getString(ACTUAL_DISPLAY_REFRESH_RATE_PREF_STRING, DEFAULT_ACTUAL_DISPLAY_REFRESH_RATE);
         config.fullRange = prefs.getBoolean(FULL_RANGE_PREF_STRING, DEFAULT_FULL_RANGE);
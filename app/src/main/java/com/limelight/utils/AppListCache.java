@@ -0,0 +1,85 @@
+package com.limelight.utils;
+
+import android.util.LruCache;
+
+import com.limelight.nvstream.http.NvApp;
+import com.limelight.nvstream.http.NvHTTP;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.List;
+
+// Caches app lists on disk along with a hash of their contents, and keeps recently parsed
+// app lists in memory keyed by that hash. This allows an unchanged app list from the host
+// to be recognized without parsing it or rewriting it to disk, and ensures each app list
+// is parsed once no matter how many places it is consumed.
+public class AppListCache {
+    // We generally only need the current list for each PC we're displaying
+    private static final int MAX_PARSED_APP_LISTS = 4;
+
+    private static final LruCache<String, List<NvApp>> parsedAppLists = new LruCache<>(MAX_PARSED_APP_LISTS);
+
+    public static String getHash(String rawAppList) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] digest = md.digest(rawAppList.getBytes(StandardCharsets.UTF_8));
+
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+                sb.append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Should never happen
+            throw new RuntimeException(e);
+        }
+    }
+
+    // The returned list and the apps in it are shared between callers, so they must not be modified
+    public static List<NvApp> getParsedAppList(String rawAppList) throws XmlPullParserException, IOException {
+        return getParsedAppList(rawAppList, getHash(rawAppList));
+    }
+
+    public static List<NvApp> getParsedAppList(String rawAppList, String hash) throws XmlPullParserException, IOException {
+        List<NvApp> appList = parsedAppLists.get(hash);
+        if (appList == null) {
+            appList = Collections.unmodifiableList(NvHTTP.getAppListByReader(new StringReader(rawAppList)));
+            parsedAppLists.put(hash, appList);
+        }
+        return appList;
+    }
+
+    public static String readCachedAppList(File cacheDir, String uuid) throws IOException {
+        return CacheHelper.readInputStreamToString(CacheHelper.openCacheFileForInput(cacheDir, "applist", uuid));
+    }
+
+    // Returns null if there is no cached app list hash
+    public static String readCachedAppListHash(File cacheDir, String uuid) {
+        try {
+            return CacheHelper.readInputStreamToString(CacheHelper.openCacheFileForInput(cacheDir, "applist", uuid+".hash"));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public static void writeCachedAppList(File cacheDir, String uuid, String rawAppList, String hash) throws IOException {
+        // Remove the old hash first, so we don't trust it if we fail while writing the new list
+        CacheHelper.deleteCacheFile(cacheDir, "applist", uuid+".hash");
+
+        try (final OutputStream cacheOut = CacheHelper.openCacheFileForOutput(cacheDir, "applist", uuid)) {
+            CacheHelper.writeStringToOutputStream(cacheOut, rawAppList);
+        }
+        try (final OutputStream hashOut = CacheHelper.openCacheFileForOutput(cacheDir, "applist", uuid+".hash")) {
+            CacheHelper.writeStringToOutputStream(hashOut, hash);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 #include <stdlib.h>
 #include <stdio.h>
 #include <string.h>
+#include <stdint.h>
 
 #include <sys/types.h>
 #include <sys/socket.h>
@@ -19,7 +20,8 @@
 
 #include <android/log.h>
 
-#define EVDEV_MAX_EVENT_SIZE 24
+// Maximum number of events to read from a device at once
+#define MAX_EVENTS_PER_READ 64
 
 #define REL_X 0x00
 #define REL_Y 0x01
@@ -27,6 +29,15 @@
 #define BTN_LEFT 0x110
 #define BTN_GAMEPAD 0x130
 
+// This is the record sent to Moonlight for each event. It must match EvdevReader.java.
+// Moonlight doesn't use the timestamps, so we leave them out. This also makes records
+// the same size regardless of whether we're a 32-bit or 64-bit process.
+struct EvdevRecord {
+    uint16_t type;
+    uint16_t code;
+    int32_t value;
+};
+
 struct DeviceEntry {
     struct DeviceEntry *next;
     pthread_t thread;
@@ -64,16 +75,36 @@ static int hasKey(int fd, short key) {
     return test_bit(key, keyBitmask);
 }
 
-static void outputEvdevData(char *data, int dataSize) {
-    char packetBuffer[EVDEV_MAX_EVENT_SIZE + sizeof(dataSize)];
+static void outputEvdevData(struct input_event *events, int eventCount) {
+    struct EvdevRecord records[MAX_EVENTS_PER_READ];
+    char *data = (char*)records;
+    int dataSize = eventCount * sizeof(records[0]);
+    int i;
 
-    // Copy the full packet into our buffer
-    memcpy(packetBuffer, &dataSize, sizeof(dataSize));
-    memcpy(&packetBuffer[sizeof(dataSize)], data, dataSize);
+    for (i = 0; i < eventCount; i++) {
+        records[i].type = events[i].type;
+        records[i].code = events[i].code;
+        records[i].value = events[i].value;
+    }
 
-    // Lock to prevent other threads from sending at the same time
+    // Lock to prevent other threads from sending at the same time. The whole
+    // batch must be sent together, since the client relies on records never
+    // being split or interleaved.
     pthread_mutex_lock(&SocketSendLock);
-    send(sock, packetBuffer, dataSize + sizeof(dataSize), 0);
+    while (dataSize > 0) {
+        int ret = send(sock, data, dataSize, 0);
+        if (ret <= 0) {
+            if (ret < 0 && errno == EINTR) {
+                continue;
+            }
+
+            __android_log_print(ANDROID_LOG_ERROR, "EvdevReader", "send() failed: %d", errno);
+            break;
+        }
+
+        data += ret;
+        dataSize -= ret;
+    }
     pthread_mutex_unlock(&SocketSendLock);
 }
 
@@ -81,7 +112,7 @@ void* pollThreadFunc(void* context) {
     struct DeviceEntry *device = context;
     struct pollfd pollinfo;
     int pollres, ret;
-    char data[EVDEV_MAX_EVENT_SIZE];
+    struct input_event events[MAX_EVENTS_PER_READ];
 
     __android_log_print(ANDROID_LOG_INFO, "EvdevReader", "Polling /dev/input/%s", device->devName);
 
@@ -105,8 +136,9 @@ void* pollThreadFunc(void* context) {
         while (pollres == 0);
 
         if (pollres > 0 && (pollinfo.revents & POLLIN)) {
-            // We'll have data available now
-            ret = read(device->fd, data, EVDEV_MAX_EVENT_SIZE);
+            // We'll have data available now. The kernel will give us as many
+            // complete events as are queued and fit in our buffer.
+            ret = read(device->fd, events, sizeof(events));
             if (ret < 0) {
                 __android_log_print(ANDROID_LOG_ERROR, "EvdevReader",
                                     "read() failed: %d", errno);
@@ -118,8 +150,8 @@ void* pollThreadFunc(void* context) {
                 goto cleanup;
             }
             else if (grabbing) {
-                // Write out the data to our client
-                outputEvdevData(data, ret);
+                // Write out the events to our client
+                outputEvdevData(events, ret / sizeof(events[0]));
             }
         }
         else {
@@ -1,7 +1,10 @@
 #include <jni.h>
 
 #include <pthread.h>
+#include <stdint.h>
+#include <stdlib.h>
 #include <string.h>
+#include <time.h>
 
 #include <Limelight.h>
 
@@ -10,6 +13,8 @@
 
 #include <cpu-features.h>
 
+#include "nativeaudio.h"
+
 static OpusMSDecoder* Decoder;
 static OPUS_MULTISTREAM_CONFIGURATION OpusConfig;
 
@@ -22,6 +27,8 @@ static jmethodID BridgeDrStartMethod;
 static jmethodID BridgeDrStopMethod;
 static jmethodID BridgeDrCleanupMethod;
 static jmethodID BridgeDrSubmitDecodeUnitMethod;
+static jmethodID BridgeDrSubmitZeroCopyDecodeUnitMethod;
+static jmethodID BridgeDrSupportsZeroCopySubmissionMethod;
 static jmethodID BridgeArInitMethod;
 static jmethodID BridgeArStartMethod;
 static jmethodID BridgeArStopMethod;
@@ -39,7 +46,12 @@ static jmethodID BridgeClRumbleTriggersMethod;
 static jmethodID BridgeClSetMotionEventStateMethod;
 static jmethodID BridgeClSetControllerLEDMethod;
 static jbyteArray DecodedFrameBuffer;
+static bool ZeroCopySubmission;
+static PDECODE_UNIT PendingDecodeUnit;
 static jshortArray DecodedAudioBuffer;
+static void* NativeDecodedAudioBuffer;
+static uint64_t AudioCpuTimeNs;
+static uint64_t AudioFramesDecoded;
 
 void DetachThread(void* context) {
     (*JVM)->DetachCurrentThread(JVM);
@@ -86,6 +98,8 @@ Java_com_limelight_nvstream_jni_MoonBridge_init(JNIEnv *env, jclass clazz) {
     BridgeDrStopMethod = (*env)->GetStaticMethodID(env, clazz, "bridgeDrStop", "()V");
     BridgeDrCleanupMethod = (*env)->GetStaticMethodID(env, clazz, "bridgeDrCleanup", "()V");
     BridgeDrSubmitDecodeUnitMethod = (*env)->GetStaticMethodID(env, clazz, "bridgeDrSubmitDecodeUnit", "([BIIIICJJ)I");
+    BridgeDrSubmitZeroCopyDecodeUnitMethod = (*env)->GetStaticMethodID(env, clazz, "bridgeDrSubmitZeroCopyDecodeUnit", "(IIICJJ)I");
+    BridgeDrSupportsZeroCopySubmissionMethod = (*env)->GetStaticMethodID(env, clazz, "bridgeDrSupportsZeroCopySubmission", "()Z");
     BridgeArInitMethod = (*env)->GetStaticMethodID(env, clazz, "bridgeArInit", "(III)I");
     BridgeArStartMethod = (*env)->GetStaticMethodID(env, clazz, "bridgeArStart", "()V");
     BridgeArStopMethod = (*env)->GetStaticMethodID(env, clazz, "bridgeArStop", "()V");
@@ -117,6 +131,13 @@ int BridgeDrSetup(int videoFormat, int width, int height, int redrawRate, void*
         return err;
     }
 
+    // Ask the renderer if it can accept picture data directly into its own buffers
+    ZeroCopySubmission = (*env)->CallStaticBooleanMethod(env, GlobalBridgeClass, BridgeDrSupportsZeroCopySubmissionMethod);
+    if ((*env)->ExceptionCheck(env)) {
+        // This is called on a Java thread, so it's safe to return
+        return -1;
+    }
+
     // Use a 32K frame buffer that will increase if needed
     DecodedFrameBuffer = (*env)->NewGlobalRef(env, (*env)->NewByteArray(env, 32768));
 
@@ -179,17 +200,32 @@ int BridgeDrSubmitDecodeUnit(PDECODE_UNIT decodeUnit) {
             }
         }
         else {
-            (*env)->SetByteArrayRegion(env, DecodedFrameBuffer, offset, currentEntry->length, (jbyte*)currentEntry->data);
+            // In zero-copy mode, the picture data is copied later by copyDecodeUnitToBuffer()
+            if (!ZeroCopySubmission) {
+                (*env)->SetByteArrayRegion(env, DecodedFrameBuffer, offset, currentEntry->length, (jbyte*)currentEntry->data);
+            }
             offset += currentEntry->length;
         }
 
         currentEntry = currentEntry->next;
     }
 
-    ret = (*env)->CallStaticIntMethod(env, GlobalBridgeClass, BridgeDrSubmitDecodeUnitMethod,
-                                       DecodedFrameBuffer, offset, BUFFER_TYPE_PICDATA,
-                                       decodeUnit->frameNumber, decodeUnit->frameType, (jchar)decodeUnit->frameHostProcessingLatency,
-                                       (jlong)decodeUnit->receiveTimeMs, (jlong)decodeUnit->enqueueTimeMs);
+    if (ZeroCopySubmission) {
+        // The renderer will call back into copyDecodeUnitToBuffer() on this thread
+        // to write the picture data into its own buffer.
+        PendingDecodeUnit = decodeUnit;
+        ret = (*env)->CallStaticIntMethod(env, GlobalBridgeClass, BridgeDrSubmitZeroCopyDecodeUnitMethod,
+                                          offset, decodeUnit->frameNumber, decodeUnit->frameType,
+                                          (jchar)decodeUnit->frameHostProcessingLatency,
+                                          (jlong)decodeUnit->receiveTimeMs, (jlong)decodeUnit->enqueueTimeMs);
+        PendingDecodeUnit = NULL;
+    }
+    else {
+        ret = (*env)->CallStaticIntMethod(env, GlobalBridgeClass, BridgeDrSubmitDecodeUnitMethod,
+                                          DecodedFrameBuffer, offset, BUFFER_TYPE_PICDATA,
+                                          decodeUnit->frameNumber, decodeUnit->frameType, (jchar)decodeUnit->frameHostProcessingLatency,
+                                          (jlong)decodeUnit->receiveTimeMs, (jlong)decodeUnit->enqueueTimeMs);
+    }
     if ((*env)->ExceptionCheck(env)) {
         // We will crash here
         (*JVM)->DetachCurrentThread(JVM);
@@ -200,6 +236,48 @@ int BridgeDrSubmitDecodeUnit(PDECODE_UNIT decodeUnit) {
     }
 }
 
+JNIEXPORT jint JNICALL
+Java_com_limelight_nvstream_jni_MoonBridge_copyDecodeUnitToBuffer(JNIEnv *env, jclass clazz, jobject buffer, jint offset) {
+    // This is only valid during a bridgeDrSubmitZeroCopyDecodeUnit() upcall
+    if (PendingDecodeUnit == NULL) {
+        return -1;
+    }
+
+    char* bufferAddress = (*env)->GetDirectBufferAddress(env, buffer);
+    jlong bufferCapacity = (*env)->GetDirectBufferCapacity(env, buffer);
+    if (bufferAddress == NULL || bufferCapacity < 0 || offset < 0) {
+        return -1;
+    }
+
+    PLENTRY currentEntry;
+    jlong bytesWritten;
+
+    // Check that everything will fit before we write anything
+    currentEntry = PendingDecodeUnit->bufferList;
+    bytesWritten = 0;
+    while (currentEntry != NULL) {
+        if (currentEntry->bufferType == BUFFER_TYPE_PICDATA) {
+            bytesWritten += currentEntry->length;
+        }
+        currentEntry = currentEntry->next;
+    }
+    if (offset + bytesWritten > bufferCapacity) {
+        return -1;
+    }
+
+    currentEntry = PendingDecodeUnit->bufferList;
+    bytesWritten = 0;
+    while (currentEntry != NULL) {
+        if (currentEntry->bufferType == BUFFER_TYPE_PICDATA) {
+            memcpy(bufferAddress + offset + bytesWritten, currentEntry->data, currentEntry->length);
+            bytesWritten += currentEntry->length;
+        }
+        currentEntry = currentEntry->next;
+    }
+
+    return (jint)bytesWritten;
+}
+
 int BridgeArInit(int audioConfiguration, POPUS_MULTISTREAM_CONFIGURATION opusConfig, void* context, int flags) {
     JNIEnv* env = GetThreadEnv();
     int err;
@@ -222,8 +300,21 @@ int BridgeArInit(int audioConfiguration, POPUS_MULTISTREAM_CONFIGURATION opusCon
             return -1;
         }
 
-        // We know ahead of time what the buffer size will be for decoded audio, so pre-allocate it
-        DecodedAudioBuffer = (*env)->NewGlobalRef(env, (*env)->NewShortArray(env, opusConfig->channelCount * opusConfig->samplesPerFrame));
+        // We know ahead of time what the buffer size will be for decoded audio, so pre-allocate it.
+        // If the audio renderer opened a native output stream, we'll decode into native memory
+        // and write directly to it rather than calling up into Java for each sample.
+        if (NativeAudioIsActive()) {
+            NativeDecodedAudioBuffer = malloc(opusConfig->channelCount * opusConfig->samplesPerFrame *
+                                              (NativeAudioIsFloat() ? sizeof(float) : sizeof(short)));
+            if (NativeDecodedAudioBuffer == NULL) {
+                opus_multistream_decoder_destroy(Decoder);
+                (*env)->CallStaticVoidMethod(env, GlobalBridgeClass, BridgeArCleanupMethod);
+                return -1;
+            }
+        }
+        else {
+            DecodedAudioBuffer = (*env)->NewGlobalRef(env, (*env)->NewShortArray(env, opusConfig->channelCount * opusConfig->samplesPerFrame));
+        }
     }
 
     return err;
@@ -244,15 +335,55 @@ void BridgeArStop(void) {
 void BridgeArCleanup() {
     JNIEnv* env = GetThreadEnv();
 
+    if (AudioFramesDecoded > 0) {
+        __android_log_print(ANDROID_LOG_INFO, "moonlight-common-c",
+                            "Audio decode thread CPU time (excludes playback threads): %.2f ms per second of audio (%d channels, %s output)",
+                            (AudioCpuTimeNs / 1000000.0) / ((double)AudioFramesDecoded / OpusConfig.sampleRate),
+                            OpusConfig.channelCount,
+                            NativeDecodedAudioBuffer == NULL ? "Java int16" : (NativeAudioIsFloat() ? "native float" : "native int16"));
+    }
+    AudioCpuTimeNs = 0;
+    AudioFramesDecoded = 0;
+
     opus_multistream_decoder_destroy(Decoder);
 
-    (*env)->DeleteGlobalRef(env, DecodedAudioBuffer);
+    if (DecodedAudioBuffer != NULL) {
+        (*env)->DeleteGlobalRef(env, DecodedAudioBuffer);
+        DecodedAudioBuffer = NULL;
+    }
 
     (*env)->CallStaticVoidMethod(env, GlobalBridgeClass, BridgeArCleanupMethod);
+
+    // The native output stream is closed by the renderer's cleanup, so it's safe to free this now
+    free(NativeDecodedAudioBuffer);
+    NativeDecodedAudioBuffer = NULL;
 }
 
-void BridgeArDecodeAndPlaySample(char* sampleData, int sampleLength) {
-    JNIEnv* env = GetThreadEnv();
+static void DecodeAndPlaySample(JNIEnv* env, char* sampleData, int sampleLength) {
+    if (NativeDecodedAudioBuffer != NULL) {
+        int decodeLen;
+
+        if (NativeAudioIsFloat()) {
+            decodeLen = opus_multistream_decode_float(Decoder,
+                                                      (const unsigned char*)sampleData,
+                                                      sampleLength,
+                                                      NativeDecodedAudioBuffer,
+                                                      OpusConfig.samplesPerFrame,
+                                                      0);
+        }
+        else {
+            decodeLen = opus_multistream_decode(Decoder,
+                                                (const unsigned char*)sampleData,
+                                                sampleLength,
+                                                NativeDecodedAudioBuffer,
+                                                OpusConfig.samplesPerFrame,
+                                                0);
+        }
+        if (decodeLen > 0) {
+            NativeAudioWrite(NativeDecodedAudioBuffer, decodeLen);
+        }
+        return;
+    }
 
     jshort* decodedData = (*env)->GetPrimitiveArrayCritical(env, DecodedAudioBuffer, NULL);
 
@@ -278,6 +409,21 @@ void BridgeArDecodeAndPlaySample(char* sampleData, int sampleLength) {
     }
 }
 
+void BridgeArDecodeAndPlaySample(char* sampleData, int sampleLength) {
+    JNIEnv* env = GetThreadEnv();
+    struct timespec start, end;
+
+    // Track the CPU time this thread spends decoding and handing off each second of audio.
+    // This doesn't include the AudioTrack playback thread or the AAudio callback thread,
+    // so it only compares the decode and submission cost of each output path.
+    clock_gettime(CLOCK_THREAD_CPUTIME_ID, &start);
+    DecodeAndPlaySample(env, sampleData, sampleLength);
+    clock_gettime(CLOCK_THREAD_CPUTIME_ID, &end);
+
+    AudioCpuTimeNs += (end.tv_sec - start.tv_sec) * 1000000000LL + (end.tv_nsec - start.tv_nsec);
+    AudioFramesDecoded += OpusConfig.samplesPerFrame;
+}
+
 void BridgeClStageStarting(int stage) {
     JNIEnv* env = GetThreadEnv();
 
@@ -0,0 +1,454 @@
+#include "nativeaudio.h"
+
+#include <dlfcn.h>
+#include <pthread.h>
+#include <stdatomic.h>
+#include <stdint.h>
+#include <stdlib.h>
+#include <string.h>
+
+#include <android/log.h>
+
+// We can't link to libaaudio.so directly since it doesn't exist before Android 8.0,
+// so we define the small subset of the AAudio API that we use here and load it at runtime.
+typedef struct AAudioStreamBuilderStruct AAudioStreamBuilder;
+typedef struct AAudioStreamStruct AAudioStream;
+typedef int32_t aaudio_result_t;
+typedef int32_t aaudio_data_callback_result_t;
+
+typedef aaudio_data_callback_result_t (*AAudioStream_dataCallback)(AAudioStream* stream, void* userData,
+                                                                   void* audioData, int32_t numFrames);
+typedef void (*AAudioStream_errorCallback)(AAudioStream* stream, void* userData, aaudio_result_t error);
+
+#define AAUDIO_OK 0
+#define AAUDIO_ERROR_DISCONNECTED -899
+#define AAUDIO_FORMAT_PCM_I16 1
+#define AAUDIO_FORMAT_PCM_FLOAT 2
+#define AAUDIO_SHARING_MODE_EXCLUSIVE 0
+#define AAUDIO_SHARING_MODE_SHARED 1
+#define AAUDIO_PERFORMANCE_MODE_LOW_LATENCY 12
+#define AAUDIO_USAGE_GAME 14
+#define AAUDIO_CALLBACK_RESULT_CONTINUE 0
+
+// Channel masks use the same speaker order as our Opus decoder output
+#define AAUDIO_CHANNEL_STEREO 0x3
+#define AAUDIO_CHANNEL_QUAD 0x33
+#define AAUDIO_CHANNEL_5POINT1 0x3F
+#define AAUDIO_CHANNEL_7POINT1 0x63F
+
+static aaudio_result_t (*pAAudio_createStreamBuilder)(AAudioStreamBuilder** builder);
+static void (*pAAudioStreamBuilder_setChannelCount)(AAudioStreamBuilder* builder, int32_t channelCount);
+static void (*pAAudioStreamBuilder_setSampleRate)(AAudioStreamBuilder* builder, int32_t sampleRate);
+static void (*pAAudioStreamBuilder_setFormat)(AAudioStreamBuilder* builder, int32_t format);
+static void (*pAAudioStreamBuilder_setSharingMode)(AAudioStreamBuilder* builder, int32_t sharingMode);
+static void (*pAAudioStreamBuilder_setPerformanceMode)(AAudioStreamBuilder* builder, int32_t mode);
+static void (*pAAudioStreamBuilder_setDataCallback)(AAudioStreamBuilder* builder, AAudioStream_dataCallback callback, void* userData);
+static void (*pAAudioStreamBuilder_setErrorCallback)(AAudioStreamBuilder* builder, AAudioStream_errorCallback callback, void* userData);
+static void (*pAAudioStreamBuilder_setUsage)(AAudioStreamBuilder* builder, int32_t usage); // API 28+
+static void (*pAAudioStreamBuilder_setChannelMask)(AAudioStreamBuilder* builder, uint32_t channelMask); // API 32+
+static aaudio_result_t (*pAAudioStreamBuilder_openStream)(AAudioStreamBuilder* builder, AAudioStream** stream);
+static aaudio_result_t (*pAAudioStreamBuilder_delete)(AAudioStreamBuilder* builder);
+static aaudio_result_t (*pAAudioStream_requestStart)(AAudioStream* stream);
+static aaudio_result_t (*pAAudioStream_requestStop)(AAudioStream* stream);
+static aaudio_result_t (*pAAudioStream_close)(AAudioStream* stream);
+static int32_t (*pAAudioStream_getFramesPerBurst)(AAudioStream* stream);
+static aaudio_result_t (*pAAudioStream_setBufferSizeInFrames)(AAudioStream* stream, int32_t numFrames);
+static int32_t (*pAAudioStream_getSampleRate)(AAudioStream* stream);
+static int32_t (*pAAudioStream_getChannelCount)(AAudioStream* stream);
+static int32_t (*pAAudioStream_getSharingMode)(AAudioStream* stream);
+
+static pthread_once_t AAudioLoadOnce = PTHREAD_ONCE_INIT;
+static bool AAudioLoaded;
+
+// Protects the stream against concurrent restarts after a device disconnection
+static pthread_mutex_t StreamLock = PTHREAD_MUTEX_INITIALIZER;
+static AAudioStream* Stream;
+static bool Initialized;
+static bool Started;
+
+static int ChannelCount;
+static int SampleRate;
+static bool FloatOutput;
+static int FrameSize; // Bytes per frame for all channels
+static int TargetBufferFrames;
+static int PrimeFrames;
+
+// Single producer (audio decoding thread), single consumer (AAudio callback thread).
+// The positions are free-running frame counters, so unsigned wraparound is harmless.
+static unsigned char* RingBuffer;
+static uint32_t RingMask;
+static atomic_uint_fast32_t ReadPos;
+static atomic_uint_fast32_t WritePos;
+
+// Only touched by the AAudio callback thread
+static bool Starved;
+
+static atomic_int Underruns;
+static atomic_int DroppedPackets;
+
+#define LOAD_AAUDIO_SYMBOL(lib, name) \
+    p##name = dlsym(lib, #name); \
+    if (p##name == NULL) { \
+        __android_log_print(ANDROID_LOG_WARN, "moonlight-common-c", "AAudio is missing %s", #name); \
+        return; \
+    }
+
+static void LoadAAudio(void) {
+    void* lib = dlopen("libaaudio.so", RTLD_NOW);
+    if (lib == NULL) {
+        return;
+    }
+
+    LOAD_AAUDIO_SYMBOL(lib, AAudio_createStreamBuilder);
+    LOAD_AAUDIO_SYMBOL(lib, AAudioStreamBuilder_setChannelCount);
+    LOAD_AAUDIO_SYMBOL(lib, AAudioStreamBuilder_setSampleRate);
+    LOAD_AAUDIO_SYMBOL(lib, AAudioStreamBuilder_setFormat);
+    LOAD_AAUDIO_SYMBOL(lib, AAudioStreamBuilder_setSharingMode);
+    LOAD_AAUDIO_SYMBOL(lib, AAudioStreamBuilder_setPerformanceMode);
+    LOAD_AAUDIO_SYMBOL(lib, AAudioStreamBuilder_setDataCallback);
+    LOAD_AAUDIO_SYMBOL(lib, AAudioStreamBuilder_setErrorCallback);
+    LOAD_AAUDIO_SYMBOL(lib, AAudioStreamBuilder_openStream);
+    LOAD_AAUDIO_SYMBOL(lib, AAudioStreamBuilder_delete);
+    LOAD_AAUDIO_SYMBOL(lib, AAudioStream_requestStart);
+    LOAD_AAUDIO_SYMBOL(lib, AAudioStream_requestStop);
+    LOAD_AAUDIO_SYMBOL(lib, AAudioStream_close);
+    LOAD_AAUDIO_SYMBOL(lib, AAudioStream_getFramesPerBurst);
+    LOAD_AAUDIO_SYMBOL(lib, AAudioStream_setBufferSizeInFrames);
+    LOAD_AAUDIO_SYMBOL(lib, AAudioStream_getSampleRate);
+    LOAD_AAUDIO_SYMBOL(lib, AAudioStream_getChannelCount);
+    LOAD_AAUDIO_SYMBOL(lib, AAudioStream_getSharingMode);
+
+    // Optional
+    pAAudioStreamBuilder_setUsage = dlsym(lib, "AAudioStreamBuilder_setUsage");
+    pAAudioStreamBuilder_setChannelMask = dlsym(lib, "AAudioStreamBuilder_setChannelMask");
+
+    AAudioLoaded = true;
+}
+
+bool NativeAudioIsAvailable(void) {
+    pthread_once(&AAudioLoadOnce, LoadAAudio);
+    return AAudioLoaded;
+}
+
+static void CopyFromRing(unsigned char* dest, uint32_t readPos, int frameCount) {
+    uint32_t offset = readPos & RingMask;
+    int firstFrames = (int)(RingMask + 1 - offset);
+    if (firstFrames > frameCount) {
+        firstFrames = frameCount;
+    }
+
+    memcpy(dest, &RingBuffer[offset * FrameSize], firstFrames * FrameSize);
+    if (firstFrames < frameCount) {
+        memcpy(&dest[firstFrames * FrameSize], RingBuffer, (frameCount - firstFrames) * FrameSize);
+    }
+}
+
+static void CopyToRing(uint32_t writePos, const unsigned char* src, int frameCount) {
+    uint32_t offset = writePos & RingMask;
+    int firstFrames = (int)(RingMask + 1 - offset);
+    if (firstFrames > frameCount) {
+        firstFrames = frameCount;
+    }
+
+    memcpy(&RingBuffer[offset * FrameSize], src, firstFrames * FrameSize);
+    if (firstFrames < frameCount) {
+        memcpy(RingBuffer, &src[firstFrames * FrameSize], (frameCount - firstFrames) * FrameSize);
+    }
+}
+
+static aaudio_data_callback_result_t DataCallback(AAudioStream* stream, void* userData, void* audioData, int32_t numFrames) {
+    unsigned char* output = audioData;
+    uint32_t readPos = atomic_load_explicit(&ReadPos, memory_order_relaxed);
+    uint32_t writePos = atomic_load_explicit(&WritePos, memory_order_acquire);
+    int available = (int)(writePos - readPos);
+    int framesToCopy;
+
+    if (Starved && available < PrimeFrames) {
+        // Wait until we've built up some buffer again before resuming playback,
+        // otherwise we'd just starve again on the next callback.
+        framesToCopy = 0;
+    }
+    else {
+        framesToCopy = available < numFrames ? available : numFrames;
+    }
+
+    if (framesToCopy > 0) {
+        CopyFromRing(output, readPos, framesToCopy);
+        atomic_store_explicit(&ReadPos, readPos + framesToCopy, memory_order_release);
+    }
+
+    if (framesToCopy < numFrames) {
+        // Zeroes are silence in both integer and float formats
+        memset(&output[framesToCopy * FrameSize], 0, (numFrames - framesToCopy) * FrameSize);
+
+        // Count each gap once, and ignore the initial wait for audio to arrive
+        if (!Starved && writePos != 0) {
+            atomic_fetch_add_explicit(&Underruns, 1, memory_order_relaxed);
+        }
+        Starved = true;
+    }
+    else {
+        Starved = false;
+    }
+
+    return AAUDIO_CALLBACK_RESULT_CONTINUE;
+}
+
+static int OpenStream(void);
+
+static void* RestartThreadProc(void* context) {
+    pthread_mutex_lock(&StreamLock);
+
+    if (Stream != NULL) {
+        pAAudioStream_requestStop(Stream);
+        pAAudioStream_close(Stream);
+        Stream = NULL;
+    }
+
+    // Reopen on the new default device unless we've been cleaned up in the meantime
+    if (Initialized) {
+        if (OpenStream() == 0) {
+            if (Started) {
+                pAAudioStream_requestStart(Stream);
+            }
+        }
+        else {
+            __android_log_print(ANDROID_LOG_ERROR, "moonlight-common-c", "Failed to reopen AAudio stream");
+        }
+    }
+
+    pthread_mutex_unlock(&StreamLock);
+    return NULL;
+}
+
+static void ErrorCallback(AAudioStream* stream, void* userData, aaudio_result_t error) {
+    __android_log_print(ANDROID_LOG_WARN, "moonlight-common-c", "AAudio stream error: %d", error);
+
+    // The stream can't be closed from its own callback, so reopen it on another thread
+    if (error == AAUDIO_ERROR_DISCONNECTED) {
+        pthread_t thread;
+        pthread_attr_t attr;
+
+        pthread_attr_init(&attr);
+        pthread_attr_setdetachstate(&attr, PTHREAD_CREATE_DETACHED);
+        pthread_create(&thread, &attr, RestartThreadProc, NULL);
+        pthread_attr_destroy(&attr);
+    }
+}
+
+static uint32_t GetChannelMask(int channelCount) {
+    switch (channelCount) {
+        case 2:
+            return AAUDIO_CHANNEL_STEREO;
+        case 4:
+            return AAUDIO_CHANNEL_QUAD;
+        case 6:
+            return AAUDIO_CHANNEL_5POINT1;
+        case 8:
+            return AAUDIO_CHANNEL_7POINT1;
+        default:
+            return 0;
+    }
+}
+
+static int TryOpenStream(int sharingMode) {
+    AAudioStreamBuilder* builder;
+    aaudio_result_t result;
+
+    result = pAAudio_createStreamBuilder(&builder);
+    if (result != AAUDIO_OK) {
+        return result;
+    }
+
+    pAAudioStreamBuilder_setSampleRate(builder, SampleRate);
+    pAAudioStreamBuilder_setFormat(builder, FloatOutput ? AAUDIO_FORMAT_PCM_FLOAT : AAUDIO_FORMAT_PCM_I16);
+
+    // Pass our channel layout through so surround audio is routed or spatialized
+    // correctly rather than being treated as a generic multichannel stream.
+    if (pAAudioStreamBuilder_setChannelMask != NULL && GetChannelMask(ChannelCount) != 0) {
+        pAAudioStreamBuilder_setChannelMask(builder, GetChannelMask(ChannelCount));
+    }
+    else {
+        pAAudioStreamBuilder_setChannelCount(builder, ChannelCount);
+    }
+    pAAudioStreamBuilder_setSharingMode(builder, sharingMode);
+    pAAudioStreamBuilder_setPerformanceMode(builder, AAUDIO_PERFORMANCE_MODE_LOW_LATENCY);
+    pAAudioStreamBuilder_setDataCallback(builder, DataCallback, NULL);
+    pAAudioStreamBuilder_setErrorCallback(builder, ErrorCallback, NULL);
+    if (pAAudioStreamBuilder_setUsage != NULL) {
+        pAAudioStreamBuilder_setUsage(builder, AAUDIO_USAGE_GAME);
+    }
+
+    result = pAAudioStreamBuilder_openStream(builder, &Stream);
+    pAAudioStreamBuilder_delete(builder);
+
+    return result;
+}
+
+static int OpenStream(void) {
+    aaudio_result_t result;
+    int32_t framesPerBurst;
+
+    // Exclusive mode gives us the lowest latency, but it may be in use by someone else
+    result = TryOpenStream(AAUDIO_SHARING_MODE_EXCLUSIVE);
+    if (result != AAUDIO_OK) {
+        result = TryOpenStream(AAUDIO_SHARING_MODE_SHARED);
+        if (result != AAUDIO_OK) {
+            __android_log_print(ANDROID_LOG_ERROR, "moonlight-common-c", "Failed to open AAudio stream: %d", result);
+            Stream = NULL;
+            return -1;
+        }
+    }
+
+    // We don't do any conversion, so the stream must match the decoder output
+    if (pAAudioStream_getSampleRate(Stream) != SampleRate || pAAudioStream_getChannelCount(Stream) != ChannelCount) {
+        __android_log_print(ANDROID_LOG_ERROR, "moonlight-common-c", "AAudio stream format mismatch: %d Hz, %d channels",
+                            pAAudioStream_getSampleRate(Stream), pAAudioStream_getChannelCount(Stream));
+        pAAudioStream_close(Stream);
+        Stream = NULL;
+        return -1;
+    }
+
+    // Our own ring provides the jitter buffering, so keep the device buffer as
+    // small as possible while still double buffering.
+    framesPerBurst = pAAudioStream_getFramesPerBurst(Stream);
+    if (framesPerBurst > 0) {
+        pAAudioStream_setBufferSizeInFrames(Stream, framesPerBurst * 2);
+    }
+
+    __android_log_print(ANDROID_LOG_INFO, "moonlight-common-c", "AAudio stream opened: %s mode, %s, %d channels, %d frames per burst",
+                        pAAudioStream_getSharingMode(Stream) == AAUDIO_SHARING_MODE_EXCLUSIVE ? "exclusive" : "shared",
+                        FloatOutput ? "float" : "int16", ChannelCount, framesPerBurst);
+    return 0;
+}
+
+int NativeAudioInit(int channelCount, int sampleRate, int samplesPerFrame, int targetBufferMs, bool floatOutput) {
+    uint32_t ringFrames;
+
+    if (!NativeAudioIsAvailable()) {
+        return -1;
+    }
+
+    ChannelCount = channelCount;
+    SampleRate = sampleRate;
+    FloatOutput = floatOutput;
+    FrameSize = channelCount * (floatOutput ? sizeof(float) : sizeof(short));
+    TargetBufferFrames = (sampleRate * targetBufferMs) / 1000;
+    if (TargetBufferFrames < samplesPerFrame) {
+        TargetBufferFrames = samplesPerFrame;
+    }
+
+    // Resume after an underrun once we have half of our target buffered
+    PrimeFrames = TargetBufferFrames / 2;
+
+    // The ring must hold the target plus the packet that may push us over it
+    ringFrames = 1;
+    while (ringFrames < (uint32_t)(TargetBufferFrames + samplesPerFrame * 2)) {
+        ringFrames <<= 1;
+    }
+
+    RingBuffer = calloc(ringFrames, FrameSize);
+    if (RingBuffer == NULL) {
+        return -1;
+    }
+    RingMask = ringFrames - 1;
+
+    atomic_store(&ReadPos, 0);
+    atomic_store(&WritePos, 0);
+    atomic_store(&Underruns, 0);
+    atomic_store(&DroppedPackets, 0);
+    Starved = true;
+
+    pthread_mutex_lock(&StreamLock);
+    if (OpenStream() != 0) {
+        pthread_mutex_unlock(&StreamLock);
+        free(RingBuffer);
+        RingBuffer = NULL;
+        return -1;
+    }
+    Initialized = true;
+    Started = false;
+    pthread_mutex_unlock(&StreamLock);
+
+    return 0;
+}
+
+void NativeAudioStart(void) {
+    pthread_mutex_lock(&StreamLock);
+    Started = true;
+    if (Stream != NULL) {
+        pAAudioStream_requestStart(Stream);
+    }
+    pthread_mutex_unlock(&StreamLock);
+}
+
+void NativeAudioStop(void) {
+    pthread_mutex_lock(&StreamLock);
+    Started = false;
+    if (Stream != NULL) {
+        pAAudioStream_requestStop(Stream);
+    }
+    pthread_mutex_unlock(&StreamLock);
+}
+
+void NativeAudioCleanup(void) {
+    pthread_mutex_lock(&StreamLock);
+    Initialized = false;
+    Started = false;
+    if (Stream != NULL) {
+        // This waits for any callback in progress to complete
+        pAAudioStream_close(Stream);
+        Stream = NULL;
+    }
+    pthread_mutex_unlock(&StreamLock);
+
+    free(RingBuffer);
+    RingBuffer = NULL;
+}
+
+bool NativeAudioIsActive(void) {
+    return Initialized;
+}
+
+bool NativeAudioIsFloat(void) {
+    return FloatOutput;
+}
+
+void NativeAudioWrite(const void* pcmData, int frameCount) {
+    uint32_t writePos = atomic_load_explicit(&WritePos, memory_order_relaxed);
+    uint32_t readPos = atomic_load_explicit(&ReadPos, memory_order_acquire);
+    int buffered = (int)(writePos - readPos);
+
+    // Bound latency by dropping packets once we're at our target. This also
+    // guarantees we never overrun the ring.
+    //
+    // NB: Unlike the AudioTrack path, there's no adaptive jitter buffer or clock drift
+    // compensation here. A host clock that runs fast drops a whole packet whenever we
+    // reach the target, and one that runs slow eventually underruns.
+    if (buffered >= TargetBufferFrames) {
+        atomic_fetch_add_explicit(&DroppedPackets, 1, memory_order_relaxed);
+        return;
+    }
+
+    CopyToRing(writePos, pcmData, frameCount);
+    atomic_store_explicit(&WritePos, writePos + frameCount, memory_order_release);
+}
+
+int NativeAudioGetBufferedMs(void) {
+    uint32_t writePos = atomic_load_explicit(&WritePos, memory_order_relaxed);
+    uint32_t readPos = atomic_load_explicit(&ReadPos, memory_order_relaxed);
+
+    if (SampleRate == 0) {
+        return 0;
+    }
+
+    return (int)((writePos - readPos) * 1000 / SampleRate);
+}
+
+int NativeAudioGetUnderruns(void) {
+    return atomic_load_explicit(&Underruns, memory_order_relaxed);
+}
+
+int NativeAudioGetDroppedPackets(void) {
+    return atomic_load_explicit(&DroppedPackets, memory_order_relaxed);
+}
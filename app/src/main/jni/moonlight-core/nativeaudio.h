@@ -0,0 +1,26 @@
+#pragma once
+
+#include <stdbool.h>
+
+// Low latency audio output using AAudio, loaded at runtime since our minimum API level predates it.
+// Decoded PCM is written into a lock-free ring that the AAudio data callback drains.
+
+bool NativeAudioIsAvailable(void);
+
+int NativeAudioInit(int channelCount, int sampleRate, int samplesPerFrame, int targetBufferMs, bool floatOutput);
+void NativeAudioStart(void);
+void NativeAudioStop(void);
+void NativeAudioCleanup(void);
+
+// Returns true if NativeAudioInit() has succeeded and NativeAudioCleanup() hasn't been called
+bool NativeAudioIsActive(void);
+
+// Returns true if NativeAudioWrite() expects float samples rather than 16-bit integers
+bool NativeAudioIsFloat(void);
+
+// Called by the audio decoding thread with a single decoded Opus frame
+void NativeAudioWrite(const void* pcmData, int frameCount);
+
+int NativeAudioGetBufferedMs(void);
+int NativeAudioGetUnderruns(void);
+int NativeAudioGetDroppedPackets(void);
@@ -7,6 +7,7 @@
 #include <string.h>
 
 #include "minisdl.h"
+#include "nativeaudio.h"
 #include "controller_type.h"
 #include "controller_list.h"
 
@@ -62,6 +63,83 @@ Java_com_limelight_nvstream_jni_MoonBridge_sendPenEvent(JNIEnv *env, jclass claz
                           contactAreaMajor, contactAreaMinor, rotation, tilt);
 }
 
+// Must match the layout in TouchEventBatch.java
+#define TOUCH_BATCH_EVENT_TYPE 0
+#define TOUCH_BATCH_POINTER_ID 1
+#define TOUCH_BATCH_TOOL_TYPE 2
+#define TOUCH_BATCH_PEN_BUTTONS 3
+#define TOUCH_BATCH_X 4
+#define TOUCH_BATCH_Y 5
+#define TOUCH_BATCH_PRESSURE_OR_DISTANCE 6
+#define TOUCH_BATCH_CONTACT_AREA_MAJOR 7
+#define TOUCH_BATCH_CONTACT_AREA_MINOR 8
+#define TOUCH_BATCH_ROTATION 9
+#define TOUCH_BATCH_TILT 10
+#define TOUCH_BATCH_STRIDE 11
+
+// Integer fields may be negative (like LI_ROT_UNKNOWN), so they must be converted to int
+// before narrowing to the unsigned type to get the same bits Java had.
+//
+// Like sending the samples one at a time, a failure to send one sample doesn't stop us from
+// sending the rest (which include the current pointer position). We only stop early if the
+// host doesn't support the event at all, and otherwise return the last error.
+
+JNIEXPORT jint JNICALL
+Java_com_limelight_nvstream_jni_MoonBridge_sendTouchEventBatch(JNIEnv *env, jclass clazz,
+                                                               jfloatArray samples, jint count) {
+    jfloat sample[TOUCH_BATCH_STRIDE];
+    int lastErr = 0;
+
+    for (int i = 0; i < count; i++) {
+        (*env)->GetFloatArrayRegion(env, samples, i * TOUCH_BATCH_STRIDE, TOUCH_BATCH_STRIDE, sample);
+
+        int err = LiSendTouchEvent((uint8_t)(int)sample[TOUCH_BATCH_EVENT_TYPE],
+                                   (uint32_t)(int)sample[TOUCH_BATCH_POINTER_ID],
+                                   sample[TOUCH_BATCH_X], sample[TOUCH_BATCH_Y],
+                                   sample[TOUCH_BATCH_PRESSURE_OR_DISTANCE],
+                                   sample[TOUCH_BATCH_CONTACT_AREA_MAJOR],
+                                   sample[TOUCH_BATCH_CONTACT_AREA_MINOR],
+                                   (uint16_t)(int)sample[TOUCH_BATCH_ROTATION]);
+        if (err == LI_ERR_UNSUPPORTED) {
+            return err;
+        }
+        else if (err != 0) {
+            lastErr = err;
+        }
+    }
+
+    return lastErr;
+}
+
+JNIEXPORT jint JNICALL
+Java_com_limelight_nvstream_jni_MoonBridge_sendPenEventBatch(JNIEnv *env, jclass clazz,
+                                                             jfloatArray samples, jint count) {
+    jfloat sample[TOUCH_BATCH_STRIDE];
+    int lastErr = 0;
+
+    for (int i = 0; i < count; i++) {
+        (*env)->GetFloatArrayRegion(env, samples, i * TOUCH_BATCH_STRIDE, TOUCH_BATCH_STRIDE, sample);
+
+        int err = LiSendPenEvent((uint8_t)(int)sample[TOUCH_BATCH_EVENT_TYPE],
+                                 (uint8_t)(int)sample[TOUCH_BATCH_TOOL_TYPE],
+                                 (uint8_t)(int)sample[TOUCH_BATCH_PEN_BUTTONS],
+                                 sample[TOUCH_BATCH_X], sample[TOUCH_BATCH_Y],
+                                 sample[TOUCH_BATCH_PRESSURE_OR_DISTANCE],
+                                 sample[TOUCH_BATCH_CONTACT_AREA_MAJOR],
+                                 sample[TOUCH_BATCH_CONTACT_AREA_MINOR],
+                                 (uint16_t)(int)sample[TOUCH_BATCH_ROTATION],
+                                 (uint8_t)(int)sample[TOUCH_BATCH_TILT]);
+        if (err == LI_ERR_UNSUPPORTED) {
+            return err;
+        }
+        else if (err != 0) {
+            lastErr = err;
+        }
+    }
+
+    return lastErr;
+}
+
 JNIEXPORT jint JNICALL
 Java_com_limelight_nvstream_jni_MoonBridge_sendControllerArrivalEvent(JNIEnv *env, jclass clazz,
                                                                       jbyte controllerNumber,
@@ -168,6 +246,47 @@ Java_com_limelight_nvstream_jni_MoonBridge_getPendingVideoFrames(JNIEnv *env, jc
     return LiGetPendingVideoFrames();
 }
 
+JNIEXPORT jboolean JNICALL
+Java_com_limelight_nvstream_jni_MoonBridge_isNativeAudioAvailable(JNIEnv *env, jclass clazz) {
+    return NativeAudioIsAvailable();
+}
+
+JNIEXPORT jint JNICALL
+Java_com_limelight_nvstream_jni_MoonBridge_nativeAudioInit(JNIEnv *env, jclass clazz, jint channelCount, jint sampleRate,
+                                                           jint samplesPerFrame, jint targetBufferMs, jboolean floatOutput) {
+    return NativeAudioInit(channelCount, sampleRate, samplesPerFrame, targetBufferMs, floatOutput);
+}
+
+JNIEXPORT void JNICALL
+Java_com_limelight_nvstream_jni_MoonBridge_nativeAudioStart(JNIEnv *env, jclass clazz) {
+    NativeAudioStart();
+}
+
+JNIEXPORT void JNICALL
+Java_com_limelight_nvstream_jni_MoonBridge_nativeAudioStop(JNIEnv *env, jclass clazz) {
+    NativeAudioStop();
+}
+
+JNIEXPORT void JNICALL
+Java_com_limelight_nvstream_jni_MoonBridge_nativeAudioCleanup(JNIEnv *env, jclass clazz) {
+    NativeAudioCleanup();
+}
+
+JNIEXPORT jint JNICALL
+Java_com_limelight_nvstream_jni_MoonBridge_getNativeAudioBufferedMs(JNIEnv *env, jclass clazz) {
+    return NativeAudioGetBufferedMs();
+}
+
+JNIEXPORT jint JNICALL
+Java_com_limelight_nvstream_jni_MoonBridge_getNativeAudioUnderruns(JNIEnv *env, jclass clazz) {
+    return NativeAudioGetUnderruns();
+}
+
+JNIEXPORT jint JNICALL
+Java_com_limelight_nvstream_jni_MoonBridge_getNativeAudioDroppedPackets(JNIEnv *env, jclass clazz) {
+    return NativeAudioGetDroppedPackets();
+}
+
 JNIEXPORT jint JNICALL
 Java_com_limelight_nvstream_jni_MoonBridge_testClientConnectivity(JNIEnv *env, jclass clazz, jstring testServerHostName, jint referencePort, jint testFlags) {
     int ret;
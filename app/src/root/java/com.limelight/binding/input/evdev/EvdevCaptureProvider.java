@@ -99,21 +99,23 @@ public class EvdevCaptureProvider extends InputCaptureProvider {
             }
             LimeLog.info("EvdevReader connected from port "+evdevSock.getPort());
 
+            EvdevReader reader = new EvdevReader(evdevIn);
             while (!isInterrupted() && !shutdown) {
-                EvdevEvent event;
                 try {
-                    event = EvdevReader.read(evdevIn);
+                    if (!reader.nextEvent()) {
+                        break;
+                    }
                 } catch (IOException e) {
-                    event = null;
-                }
-                if (event == null) {
                     break;
                 }
 
+                short code = reader.getCode();
+                int value = reader.getValue();
+
                 // Note: The EvdevReader process already filters input events when grabbing
                 // is not enabled, so we don't need to that here.
 
-                switch (event.type) {
+                switch (reader.getType()) {
                     case EvdevEvent.EV_SYN:
                         if (deltaX != 0 || deltaY != 0) {
                             listener.mouseMove(deltaX, deltaY);
@@ -130,45 +132,45 @@ public class EvdevCaptureProvider extends InputCaptureProvider {
                         break;
 
                     case EvdevEvent.EV_REL:
-                        switch (event.code) {
+                        switch (code) {
                             case EvdevEvent.REL_X:
-                                deltaX = event.value;
+                                deltaX = value;
                                 break;
                             case EvdevEvent.REL_Y:
-                                deltaY = event.value;
+                                deltaY = value;
                                 break;
                             case EvdevEvent.REL_HWHEEL:
-                                deltaHScroll = (byte) event.value;
+                                deltaHScroll = (byte) value;
                                 break;
                             case EvdevEvent.REL_WHEEL:
-                                deltaVScroll = (byte) event.value;
+                                deltaVScroll = (byte) value;
                                 break;
                         }
                         break;
 
                     case EvdevEvent.EV_KEY:
-                        switch (event.code) {
+                        switch (code) {
                             case EvdevEvent.BTN_LEFT:
                                 listener.mouseButtonEvent(EvdevListener.BUTTON_LEFT,
-                                        event.value != 0);
+                                        value != 0);
                                 break;
                             case EvdevEvent.BTN_MIDDLE:
                                 listener.mouseButtonEvent(EvdevListener.BUTTON_MIDDLE,
-                                        event.value != 0);
+                                        value != 0);
                                 break;
                             case EvdevEvent.BTN_RIGHT:
                                 listener.mouseButtonEvent(EvdevListener.BUTTON_RIGHT,
-                                        event.value != 0);
+                                        value != 0);
                                 break;
 
                             case EvdevEvent.BTN_SIDE:
                                 listener.mouseButtonEvent(EvdevListener.BUTTON_X1,
-                                        event.value != 0);
+                                        value != 0);
                                 break;
 
                             case EvdevEvent.BTN_EXTRA:
                                 listener.mouseButtonEvent(EvdevListener.BUTTON_X2,
-                                        event.value != 0);
+                                        value != 0);
                                 break;
 
                             case EvdevEvent.BTN_FORWARD:
@@ -183,9 +185,9 @@ public class EvdevCaptureProvider extends InputCaptureProvider {
                                 // "combination" input device. We'll try to handle
                                 // it via keyboard, but we're not going to disconnect
                                 // if we can't
-                                short keyCode = EvdevTranslator.translateEvdevKeyCode(event.code);
+                                short keyCode = EvdevTranslator.translateEvdevKeyCode(code);
                                 if (keyCode != 0) {
-                                    listener.keyboardEvent(event.value != 0, keyCode);
+                                    listener.keyboardEvent(value != 0, keyCode);
                                 }
                                 break;
                         }
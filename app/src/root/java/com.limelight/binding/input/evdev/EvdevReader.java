@@ -5,54 +5,67 @@ import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 
-import com.limelight.LimeLog;
-
+// Reads events from the evdev_reader process.
+//
+// evdev_reader sends each event as a fixed-size record of EVDEV_RECORD_SIZE bytes, and
+// writes all the events from a single device read together. We read as much as is
+// available into a single reusable buffer and then hand out the events one at a time,
+// so there are no per-event allocations and usually only one blocking read per batch.
 public class EvdevReader {
-    private static void readAll(InputStream in, ByteBuffer bb) throws IOException {
-        byte[] buf = bb.array();
-        int ret;
-        int offset = 0;
+    // Enough for several full batches from evdev_reader
+    private static final int BUFFER_SIZE = EvdevEvent.EVDEV_RECORD_SIZE * 256;
+
+    private final InputStream input;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private final ByteBuffer bb = ByteBuffer.wrap(buffer).order(ByteOrder.nativeOrder());
+
+    // Bytes in the buffer are valid from readOffset up to endOffset
+    private int readOffset;
+    private int endOffset;
+
+    // The current event
+    private short type;
+    private short code;
+    private int value;
+
+    public EvdevReader(InputStream input) {
+        this.input = input;
+    }
 
-        while (offset < buf.length) {
-            ret = in.read(buf, offset, buf.length-offset);
+    // Advances to the next event, blocking if necessary. Returns false when
+    // the stream has ended.
+    public boolean nextEvent() throws IOException {
+        while (endOffset - readOffset < EvdevEvent.EVDEV_RECORD_SIZE) {
+            // Move any partial record to the start of the buffer
+            int remaining = endOffset - readOffset;
+            System.arraycopy(buffer, readOffset, buffer, 0, remaining);
+            readOffset = 0;
+            endOffset = remaining;
+
+            int ret = input.read(buffer, endOffset, buffer.length - endOffset);
             if (ret <= 0) {
-                throw new IOException("Read failed: "+ret);
+                return false;
             }
 
-            offset += ret;
+            endOffset += ret;
         }
+
+        type = bb.getShort(readOffset);
+        code = bb.getShort(readOffset + 2);
+        value = bb.getInt(readOffset + 4);
+        readOffset += EvdevEvent.EVDEV_RECORD_SIZE;
+        return true;
     }
 
-    // Takes a byte buffer to use to read the output into.
-    // This buffer MUST be in native byte order and at least
-    // EVDEV_MAX_EVENT_SIZE bytes long.
-    public static EvdevEvent read(InputStream input) throws IOException {
-        ByteBuffer bb;
-        int packetLength;
-
-        // Read the packet length
-        bb = ByteBuffer.allocate(4).order(ByteOrder.nativeOrder());
-        readAll(input, bb);
-        packetLength = bb.getInt();
-
-        if (packetLength < EvdevEvent.EVDEV_MIN_EVENT_SIZE) {
-            LimeLog.warning("Short read: "+packetLength);
-            return null;
-        }
+    public short getType() {
+        return type;
+    }
 
-        // Read the rest of the packet
-        bb = ByteBuffer.allocate(packetLength).order(ByteOrder.nativeOrder());
-        readAll(input, bb);
-
-        // Throw away the time stamp
-        if (packetLength == EvdevEvent.EVDEV_MAX_EVENT_SIZE) {
-            bb.getLong();
-            bb.getLong();
-        } else {
-            bb.getInt();
-            bb.getInt();
-        }
+    public short getCode() {
+        return code;
+    }
 
-        return new EvdevEvent(bb.getShort(), bb.getShort(), bb.getInt());
+    public int getValue() {
+        return value;
     }
 }